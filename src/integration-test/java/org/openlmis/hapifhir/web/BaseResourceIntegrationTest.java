@@ -38,7 +38,7 @@ import org.springframework.boot.test.mock.mockito.SpyBean;
 import org.springframework.boot.web.server.LocalServerPort;
 import org.springframework.security.core.context.SecurityContextHolder;
 import org.springframework.security.oauth2.provider.OAuth2Authentication;
-import org.springframework.security.oauth2.provider.token.RemoteTokenServices;
+import org.springframework.security.oauth2.provider.token.ResourceServerTokenServices;
 import org.springframework.test.context.ActiveProfiles;
 import org.springframework.test.context.junit4.SpringRunner;
 
@@ -73,7 +73,7 @@ public abstract class BaseResourceIntegrationTest {
   private ObjectMapper objectMapper;
 
   @MockBean
-  private RemoteTokenServices tokenServices;
+  private ResourceServerTokenServices tokenServices;
 
   @SpyBean(name = "myLocationDaoR4")
   IFhirResourceDao<Location> locationActions;
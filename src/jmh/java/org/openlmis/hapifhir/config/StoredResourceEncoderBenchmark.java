@@ -0,0 +1,149 @@
+/*
+ * This program is part of the OpenLMIS logistics management information system platform software.
+ * Copyright © 2017 VillageReach
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms
+ * of the GNU Affero General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details. You should have received a copy of
+ * the GNU Affero General Public License along with this program. If not, see
+ * http://www.gnu.org/licenses.  For additional information contact info@OpenLMIS.org.
+ */
+
+package org.openlmis.hapifhir.config;
+
+import ca.uhn.fhir.context.FhirContext;
+import ca.uhn.fhir.context.FhirVersionEnum;
+import ca.uhn.fhir.jpa.dao.BaseHapiFhirDao;
+import ca.uhn.fhir.jpa.dao.GZipUtil;
+import ca.uhn.fhir.jpa.model.entity.ResourceEncodingEnum;
+import ca.uhn.fhir.jpa.model.entity.ResourceHistoryTable;
+import ca.uhn.fhir.jpa.searchparam.ResourceMetaParams;
+import ca.uhn.fhir.parser.IParser;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import org.hl7.fhir.r4.model.BooleanType;
+import org.hl7.fhir.r4.model.Location;
+import org.hl7.fhir.r4.model.Reference;
+import org.hl7.fhir.r4.model.StringType;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Compares writing a page of stored locations through HAPI, which parses every stored body into
+ * a model object and encodes it again, with writing the stored bodies directly. Run it with
+ * {@code gradle jmh -PjmhInclude=StoredResourceEncoderBenchmark}, the allocation rate is reported
+ * by the gc profiler as gc.alloc.rate.norm.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class StoredResourceEncoderBenchmark {
+
+  @Param({"500"})
+  private int pageSize;
+
+  @Param({"true", "false"})
+  private boolean pretty;
+
+  private FhirContext context;
+  private List<ResourceHistoryTable> page;
+
+  /**
+   * Stores a page of locations the same way HAPI does.
+   */
+  @Setup
+  public void setUp() {
+    context = FhirContext.forR4();
+    page = new ArrayList<>(pageSize);
+
+    for (int i = 0; i < pageSize; ++i) {
+      Location location = createLocation(i);
+
+      ResourceHistoryTable history = new ResourceHistoryTable();
+      history.setResourceType("Location");
+      history.setResourceId((long) i);
+      history.setVersion(1);
+      history.setUpdated(new Date());
+      history.setFhirVersion(FhirVersionEnum.R4);
+      history.setEncoding(ResourceEncodingEnum.JSONC);
+      history.setResource(BaseHapiFhirDao.encodeResource(location, ResourceEncodingEnum.JSONC,
+          ResourceMetaParams.EXCLUDE_ELEMENTS_IN_ENCODED, context));
+      page.add(history);
+    }
+  }
+
+  /**
+   * Parses the stored bodies and encodes them again, like a read handled by HAPI.
+   */
+  @Benchmark
+  public void parseAndEncode(Blackhole blackhole) {
+    IParser parser = context.newJsonParser().setPrettyPrint(pretty);
+
+    for (ResourceHistoryTable history : page) {
+      Location location = parser
+          .parseResource(Location.class, GZipUtil.decompress(history.getResource()));
+      location.setId("Location/" + history.getResourceId() + "/_history/1");
+      location.getMeta().setVersionId("1");
+      location.getMeta().setLastUpdated(history.getUpdatedDate());
+
+      blackhole.consume(parser.encodeResourceToString(location)
+          .getBytes(StandardCharsets.UTF_8));
+    }
+  }
+
+  /**
+   * Copies the stored bodies with the id and meta elements added.
+   */
+  @Benchmark
+  public void passthrough(Blackhole blackhole) throws IOException {
+    for (ResourceHistoryTable history : page) {
+      blackhole.consume(StoredResourceEncoder
+          .encode(history, String.valueOf(history.getResourceId()), pretty));
+    }
+  }
+
+  private Location createLocation(int index) {
+    Location location = new Location();
+    location.addIdentifier().setSystem("http://openlmis.org").setValue("HC" + index);
+    location.setStatus(Location.LocationStatus.ACTIVE);
+    location.setName("Health Center " + index);
+    location.setDescription("Health center serving the villages around the district center");
+    location.addAlias("HC-" + index);
+    location.getPhysicalType().addCoding()
+        .setSystem("http://terminology.hl7.org/CodeSystem/location-physical-type")
+        .setCode("si")
+        .setDisplay("Site");
+    location.getPosition()
+        .setLatitude(new BigDecimal("-14.98700").add(BigDecimal.valueOf(index, 4)))
+        .setLongitude(new BigDecimal("34.95600").subtract(BigDecimal.valueOf(index, 4)));
+    location.getAddress().addLine("Main road " + index).setCity("Balaka").setCountry("MW");
+    location.addExtension("http://openlmis.org/isManagedExternally", new BooleanType(true));
+    location.addExtension("http://openlmis.org/facilityType", new StringType("health_center"));
+    location.setPartOf(new Reference("Location/" + UUID.randomUUID()));
+    return location;
+  }
+
+}
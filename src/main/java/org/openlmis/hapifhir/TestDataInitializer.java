@@ -15,7 +15,11 @@
 
 package org.openlmis.hapifhir;
 
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import org.openlmis.hapifhir.service.LocationLoadingService;
+import org.openlmis.hapifhir.service.ReferenceDataReadinessWatcher;
 import org.slf4j.ext.XLogger;
 import org.slf4j.ext.XLoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -33,19 +37,44 @@ public class TestDataInitializer implements CommandLineRunner {
 
   @Autowired
   LocationLoadingService locationLoadingService;
-  
+
+  @Autowired
+  ReferenceDataReadinessWatcher readinessWatcher;
+
   /**
-   * Initializes test data.
+   * Initializes test data. Loading starts in the background as soon as the reference data service
+   * responds, so the application does not wait for it to become ready.
    *
    * @param args command line arguments
    */
-  public void run(String... args) throws InterruptedException {
+  public void run(String... args) {
     logger.entry();
 
-    locationLoadingService.waitForReferenceData();
-    locationLoadingService.loadGeographicZones();
-    locationLoadingService.loadFacilities();
-    
+    ExecutorService executor = Executors.newSingleThreadExecutor(new ThreadFactoryBuilder()
+        .setNameFormat("demo-data-loader-%d")
+        .setDaemon(true)
+        .build());
+
+    readinessWatcher
+        .whenReady()
+        .thenRunAsync(this::loadLocations, executor)
+        .whenComplete((result, exp) -> {
+          if (null != exp) {
+            logger.error("Unable to load demo data", exp);
+          }
+          executor.shutdown();
+        });
+
     logger.exit();
   }
+
+  private void loadLocations() {
+    try {
+      locationLoadingService.loadGeographicZones();
+      locationLoadingService.loadFacilities();
+    } catch (InterruptedException exp) {
+      logger.warn("Loading of demo data has been interrupted");
+      Thread.currentThread().interrupt();
+    }
+  }
 }
@@ -0,0 +1,48 @@
+/*
+ * This program is part of the OpenLMIS logistics management information system platform software.
+ * Copyright © 2017 VillageReach
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms
+ * of the GNU Affero General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details. You should have received a copy of
+ * the GNU Affero General Public License along with this program. If not, see
+ * http://www.gnu.org/licenses.  For additional information contact info@OpenLMIS.org.
+ */
+
+package org.openlmis.hapifhir.config;
+
+import java.sql.Types;
+import org.hibernate.dialect.PostgresPlusDialect;
+import org.hibernate.type.descriptor.sql.BinaryTypeDescriptor;
+import org.hibernate.type.descriptor.sql.SqlTypeDescriptor;
+
+/**
+ * PostgreSQL dialect that keeps {@code @Lob byte[]} attributes inline in {@code bytea} columns
+ * instead of large objects. The value is read with the row, so loading an entity does not need
+ * additional round trips to the large object storage, and removing a row does not leave an
+ * orphaned large object behind.
+ */
+public class ByteaPostgresPlusDialect extends PostgresPlusDialect {
+
+  /**
+   * Creates the dialect with {@code bytea} registered as the column type of binary large objects.
+   */
+  public ByteaPostgresPlusDialect() {
+    super();
+    registerColumnType(Types.BLOB, "bytea");
+  }
+
+  @Override
+  public SqlTypeDescriptor getSqlTypeDescriptorOverride(int sqlCode) {
+    if (Types.BLOB == sqlCode) {
+      return BinaryTypeDescriptor.INSTANCE;
+    }
+
+    return super.getSqlTypeDescriptorOverride(sqlCode);
+  }
+
+}
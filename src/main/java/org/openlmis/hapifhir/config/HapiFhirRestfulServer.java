@@ -91,6 +91,10 @@ public class HapiFhirRestfulServer extends RestfulServer {
       this.registerInterceptor(interceptor);
     }
 
+    // DAOs notify their own interceptors about changes, also the ones made without a request
+    myAppCtx.getBean(DaoConfig.class)
+        .registerInterceptor(myAppCtx.getBean(ResponseCacheInterceptor.class));
+
     setServerAddressStrategy(new HardcodedServerAddressStrategy(serviceUrl + "/hapifhir/"));
 
     SubscriptionInterceptorLoader subscriptionInterceptorLoader = myAppCtx
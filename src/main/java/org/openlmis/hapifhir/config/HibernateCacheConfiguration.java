@@ -0,0 +1,101 @@
+/*
+ * This program is part of the OpenLMIS logistics management information system platform software.
+ * Copyright © 2017 VillageReach
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms
+ * of the GNU Affero General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details. You should have received a copy of
+ * the GNU Affero General Public License along with this program. If not, see
+ * http://www.gnu.org/licenses.  For additional information contact info@OpenLMIS.org.
+ */
+
+package org.openlmis.hapifhir.config;
+
+import ca.uhn.fhir.jpa.model.entity.ForcedId;
+import ca.uhn.fhir.jpa.model.entity.ResourceHistoryTable;
+import ca.uhn.fhir.jpa.model.entity.TagDefinition;
+import com.google.common.collect.ImmutableMap;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.EhCache2Metrics;
+import java.util.Map;
+import net.sf.ehcache.CacheManager;
+import net.sf.ehcache.config.CacheConfiguration;
+import org.hibernate.cache.ehcache.ConfigSettings;
+import org.hibernate.cache.ehcache.internal.EhcacheRegionFactory;
+import org.hibernate.cfg.AvailableSettings;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.orm.jpa.HibernatePropertiesCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * Enables the Hibernate second-level cache for HAPI entities that are read often and rarely
+ * changed. The cache lives in the memory of this instance, regions are bounded and their entries
+ * expire after a fixed time. The read-write strategy keeps the cache consistent with writes made
+ * through Hibernate by this instance.
+ */
+@Configuration
+@ConditionalOnProperty(name = "jpa.cache.enabled", havingValue = "true")
+public class HibernateCacheConfiguration {
+
+  static final Map<Class<?>, String> REGIONS = ImmutableMap.of(
+      ForcedId.class, "hapifhir.forcedIds",
+      TagDefinition.class, "hapifhir.tagDefinitions",
+      ResourceHistoryTable.class, "hapifhir.resourceVersions");
+
+  private static final String READ_WRITE = "read-write";
+
+  @Value("${jpa.cache.ttl}")
+  private long ttl;
+
+  @Value("${jpa.cache.maxSize}")
+  private int maxSize;
+
+  /**
+   * Cache manager holding one region per cached entity. Hits, misses and evictions of each region
+   * are exposed as metrics.
+   */
+  @Bean(destroyMethod = "shutdown")
+  public CacheManager hibernateCacheManager(MeterRegistry meterRegistry) {
+    net.sf.ehcache.config.Configuration configuration = new net.sf.ehcache.config.Configuration()
+        .name("hibernate")
+        .defaultCache(createRegion("default"));
+
+    REGIONS.values().forEach(region -> configuration.addCache(createRegion(region)));
+
+    CacheManager cacheManager = new CacheManager(configuration);
+    REGIONS.values().forEach(region ->
+        EhCache2Metrics.monitor(meterRegistry, cacheManager.getEhcache(region)));
+
+    return cacheManager;
+  }
+
+  /**
+   * Turns the second-level cache on and assigns the cached entities to their regions.
+   */
+  @Bean
+  public HibernatePropertiesCustomizer secondLevelCacheCustomizer(CacheManager cacheManager) {
+    return properties -> {
+      properties.put(AvailableSettings.USE_SECOND_LEVEL_CACHE, true);
+      properties.put(AvailableSettings.CACHE_REGION_FACTORY, EhcacheRegionFactory.class.getName());
+      properties.put(ConfigSettings.CACHE_MANAGER, cacheManager);
+
+      REGIONS.forEach((entity, region) -> properties.put(
+          AvailableSettings.CLASS_CACHE_PREFIX + "." + entity.getName(),
+          READ_WRITE + "," + region));
+    };
+  }
+
+  private CacheConfiguration createRegion(String name) {
+    return new CacheConfiguration()
+        .name(name)
+        .maxEntriesLocalHeap(maxSize)
+        .timeToLiveSeconds(ttl);
+  }
+
+}
@@ -0,0 +1,166 @@
+/*
+ * This program is part of the OpenLMIS logistics management information system platform software.
+ * Copyright © 2017 VillageReach
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms
+ * of the GNU Affero General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details. You should have received a copy of
+ * the GNU Affero General Public License along with this program. If not, see
+ * http://www.gnu.org/licenses.  For additional information contact info@OpenLMIS.org.
+ */
+
+package org.openlmis.hapifhir.config;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.netty.channel.ChannelOption;
+import io.netty.handler.timeout.ReadTimeoutHandler;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.ToDoubleFunction;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.DefaultConnectionKeepAliveStrategy;
+import org.apache.http.impl.client.HttpClientBuilder;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.pool.PoolStats;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.http.client.ClientHttpRequestInterceptor;
+import org.springframework.http.client.HttpComponentsClientHttpRequestFactory;
+import org.springframework.http.client.reactive.ReactorClientHttpConnector;
+import org.springframework.web.client.RestTemplate;
+import org.springframework.web.reactive.function.client.WebClient;
+import reactor.netty.http.client.HttpClient;
+import reactor.netty.resources.ConnectionProvider;
+
+/**
+ * Configures the HTTP client shared by all services that communicate with other OpenLMIS
+ * services. Connections are pooled and kept alive between requests.
+ */
+@Configuration
+public class HttpClientConfiguration {
+
+  private static final String POOL_METRIC_PREFIX = "http.client.pool.";
+
+  @Value("${http.client.maxConnections}")
+  private int maxConnections;
+
+  @Value("${http.client.maxConnectionsPerRoute}")
+  private int maxConnectionsPerRoute;
+
+  @Value("${http.client.connectTimeout}")
+  private int connectTimeout;
+
+  @Value("${http.client.readTimeout}")
+  private int readTimeout;
+
+  @Value("${http.client.connectionRequestTimeout}")
+  private int connectionRequestTimeout;
+
+  @Value("${http.client.idleTimeout}")
+  private long idleTimeout;
+
+  @Value("${http.client.keepAlive}")
+  private long keepAlive;
+
+  @Value("${http.client.compressRequests}")
+  private boolean compressRequests;
+
+  /**
+   * Connection pool for the shared HTTP client. Pool usage is exposed as metrics.
+   */
+  @Bean
+  public PoolingHttpClientConnectionManager httpConnectionManager(MeterRegistry meterRegistry) {
+    PoolingHttpClientConnectionManager connectionManager =
+        new PoolingHttpClientConnectionManager();
+    connectionManager.setMaxTotal(maxConnections);
+    connectionManager.setDefaultMaxPerRoute(maxConnectionsPerRoute);
+
+    registerPoolGauge(meterRegistry, connectionManager, "leased", PoolStats::getLeased);
+    registerPoolGauge(meterRegistry, connectionManager, "available", PoolStats::getAvailable);
+    registerPoolGauge(meterRegistry, connectionManager, "pending", PoolStats::getPending);
+    registerPoolGauge(meterRegistry, connectionManager, "max", PoolStats::getMax);
+
+    return connectionManager;
+  }
+
+  /**
+   * HTTP client with connection pooling, timeouts, idle connection eviction and transparent
+   * decompression of gzip responses.
+   */
+  @Bean(destroyMethod = "close")
+  public CloseableHttpClient httpClient(PoolingHttpClientConnectionManager connectionManager) {
+    RequestConfig requestConfig = RequestConfig
+        .custom()
+        .setConnectTimeout(connectTimeout)
+        .setSocketTimeout(readTimeout)
+        .setConnectionRequestTimeout(connectionRequestTimeout)
+        .build();
+
+    return HttpClientBuilder
+        .create()
+        .setConnectionManager(connectionManager)
+        .setDefaultRequestConfig(requestConfig)
+        .setKeepAliveStrategy((response, context) -> {
+          long serverKeepAlive = DefaultConnectionKeepAliveStrategy.INSTANCE
+              .getKeepAliveDuration(response, context);
+          return serverKeepAlive > 0 ? Math.min(serverKeepAlive, keepAlive) : keepAlive;
+        })
+        .evictExpiredConnections()
+        .evictIdleConnections(idleTimeout, TimeUnit.MILLISECONDS)
+        .build();
+  }
+
+  /**
+   * Rest template used to communicate with other services.
+   */
+  @Bean
+  public RestTemplate restTemplate(CloseableHttpClient httpClient, MeterRegistry meterRegistry) {
+    RestTemplate restTemplate =
+        new RestTemplate(new HttpComponentsClientHttpRequestFactory(httpClient));
+
+    List<ClientHttpRequestInterceptor> interceptors = restTemplate.getInterceptors();
+    interceptors.add(new HttpClientMetricsInterceptor(meterRegistry));
+
+    if (compressRequests) {
+      interceptors.add(new GzipRequestInterceptor());
+    }
+
+    return restTemplate;
+  }
+
+  /**
+   * Non-blocking web client used for asynchronous requests to other services. It has its own
+   * connection pool with the same limits and timeouts as the shared HTTP client, and request
+   * metrics are recorded by the builder provided by Spring Boot.
+   */
+  @Bean
+  public WebClient webClient(WebClient.Builder builder) {
+    HttpClient httpClient = HttpClient
+        .create(ConnectionProvider.fixed("webclient", maxConnections, connectionRequestTimeout))
+        .tcpConfiguration(tcpClient -> tcpClient
+            .option(ChannelOption.CONNECT_TIMEOUT_MILLIS, connectTimeout)
+            .doOnConnected(connection -> connection
+                .addHandlerLast(new ReadTimeoutHandler(readTimeout, TimeUnit.MILLISECONDS))));
+
+    return builder
+        .clientConnector(new ReactorClientHttpConnector(httpClient))
+        .build();
+  }
+
+  private void registerPoolGauge(MeterRegistry meterRegistry,
+      PoolingHttpClientConnectionManager connectionManager, String name,
+      ToDoubleFunction<PoolStats> value) {
+    Gauge
+        .builder(POOL_METRIC_PREFIX + name, connectionManager,
+            manager -> value.applyAsDouble(manager.getTotalStats()))
+        .register(meterRegistry);
+  }
+
+}
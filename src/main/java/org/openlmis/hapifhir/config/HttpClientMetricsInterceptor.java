@@ -0,0 +1,63 @@
+/*
+ * This program is part of the OpenLMIS logistics management information system platform software.
+ * Copyright © 2017 VillageReach
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms
+ * of the GNU Affero General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details. You should have received a copy of
+ * the GNU Affero General Public License along with this program. If not, see
+ * http://www.gnu.org/licenses.  For additional information contact info@OpenLMIS.org.
+ */
+
+package org.openlmis.hapifhir.config;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import org.springframework.http.HttpRequest;
+import org.springframework.http.client.ClientHttpRequestExecution;
+import org.springframework.http.client.ClientHttpRequestInterceptor;
+import org.springframework.http.client.ClientHttpResponse;
+
+/**
+ * Records latency of outgoing requests. Requests are tagged with the HTTP method, the target
+ * host and the response status, but not with the path, to keep the number of series small.
+ */
+class HttpClientMetricsInterceptor implements ClientHttpRequestInterceptor {
+
+  static final String METRIC_NAME = "http.client.requests";
+  private static final String CLIENT_ERROR = "CLIENT_ERROR";
+
+  private final MeterRegistry meterRegistry;
+
+  HttpClientMetricsInterceptor(MeterRegistry meterRegistry) {
+    this.meterRegistry = meterRegistry;
+  }
+
+  @Override
+  public ClientHttpResponse intercept(HttpRequest request, byte[] body,
+      ClientHttpRequestExecution execution) throws IOException {
+    long start = System.nanoTime();
+    String status = CLIENT_ERROR;
+
+    try {
+      ClientHttpResponse response = execution.execute(request, body);
+      status = String.valueOf(response.getRawStatusCode());
+      return response;
+    } finally {
+      Timer
+          .builder(METRIC_NAME)
+          .tag("method", request.getMethodValue())
+          .tag("host", String.valueOf(request.getURI().getHost()))
+          .tag("status", status)
+          .register(meterRegistry)
+          .record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+    }
+  }
+
+}
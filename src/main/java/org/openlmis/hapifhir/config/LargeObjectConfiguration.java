@@ -0,0 +1,45 @@
+/*
+ * This program is part of the OpenLMIS logistics management information system platform software.
+ * Copyright © 2017 VillageReach
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms
+ * of the GNU Affero General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details. You should have received a copy of
+ * the GNU Affero General Public License along with this program. If not, see
+ * http://www.gnu.org/licenses.  For additional information contact info@OpenLMIS.org.
+ */
+
+package org.openlmis.hapifhir.config;
+
+import java.util.Collections;
+import org.hibernate.jpa.boot.internal.EntityManagerFactoryBuilderImpl;
+import org.hibernate.jpa.boot.spi.IntegratorProvider;
+import org.springframework.boot.autoconfigure.orm.jpa.HibernatePropertiesCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * Registers the read fallback for binary values that are still kept in large objects. It can be
+ * removed together with the large object columns once all values have been copied.
+ */
+@Configuration
+public class LargeObjectConfiguration {
+
+  /**
+   * Adds the integrator that reads binary values from large objects when they have not been
+   * copied yet.
+   */
+  @Bean
+  public HibernatePropertiesCustomizer largeObjectFallbackCustomizer() {
+    IntegratorProvider provider = () ->
+        Collections.singletonList(new LargeObjectFallbackIntegrator());
+
+    return properties ->
+        properties.put(EntityManagerFactoryBuilderImpl.INTEGRATOR_PROVIDER, provider);
+  }
+
+}
@@ -0,0 +1,63 @@
+/*
+ * This program is part of the OpenLMIS logistics management information system platform software.
+ * Copyright © 2017 VillageReach
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms
+ * of the GNU Affero General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details. You should have received a copy of
+ * the GNU Affero General Public License along with this program. If not, see
+ * http://www.gnu.org/licenses.  For additional information contact info@OpenLMIS.org.
+ */
+
+package org.openlmis.hapifhir.config;
+
+import ca.uhn.fhir.jpa.entity.Search;
+import ca.uhn.fhir.jpa.model.entity.ResourceHistoryTable;
+import com.google.common.collect.ImmutableMap;
+import java.util.Map;
+import org.hibernate.boot.Metadata;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.integrator.spi.Integrator;
+import org.hibernate.mapping.Column;
+import org.hibernate.mapping.PersistentClass;
+import org.hibernate.service.spi.SessionFactoryServiceRegistry;
+
+/**
+ * Reads binary attributes that have been moved from large objects to {@code bytea} columns. Until
+ * the migration job copies a row, its value is still in the old large object column, so it is
+ * read from there when the new column is empty. The read expression is set before entity
+ * persisters are built, so the value is still loaded with the row in a single query.
+ */
+final class LargeObjectFallbackIntegrator implements Integrator {
+
+  // the old large object column has the name of the new column with the _lob suffix
+  static final String READ_EXPRESSION = "coalesce(%1$s, lo_get(%1$s_lob))";
+
+  static final Map<Class<?>, String> ATTRIBUTES = ImmutableMap.of(
+      ResourceHistoryTable.class, "myResource",
+      Search.class, "mySearchParameterMap");
+
+  @Override
+  public void integrate(Metadata metadata, SessionFactoryImplementor sessionFactory,
+      SessionFactoryServiceRegistry serviceRegistry) {
+    ATTRIBUTES.forEach((entity, attribute) -> {
+      PersistentClass binding = metadata.getEntityBinding(entity.getName());
+
+      if (null != binding) {
+        Column column = (Column) binding.getProperty(attribute).getColumnIterator().next();
+        column.setCustomRead(String.format(READ_EXPRESSION, column.getName().toLowerCase()));
+      }
+    });
+  }
+
+  @Override
+  public void disintegrate(SessionFactoryImplementor sessionFactory,
+      SessionFactoryServiceRegistry serviceRegistry) {
+    // nothing to clean up
+  }
+
+}
@@ -0,0 +1,133 @@
+/*
+ * This program is part of the OpenLMIS logistics management information system platform software.
+ * Copyright © 2017 VillageReach
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms
+ * of the GNU Affero General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details. You should have received a copy of
+ * the GNU Affero General Public License along with this program. If not, see
+ * http://www.gnu.org/licenses.  For additional information contact info@OpenLMIS.org.
+ */
+
+package org.openlmis.hapifhir.config;
+
+import io.github.resilience4j.bulkhead.Bulkhead;
+import io.github.resilience4j.bulkhead.BulkheadConfig;
+import io.github.resilience4j.bulkhead.BulkheadFullException;
+import io.github.resilience4j.bulkhead.BulkheadRegistry;
+import io.github.resilience4j.circuitbreaker.CircuitBreaker;
+import io.github.resilience4j.circuitbreaker.CircuitBreakerConfig;
+import io.github.resilience4j.circuitbreaker.CircuitBreakerRegistry;
+import io.github.resilience4j.micrometer.BulkheadMetrics;
+import io.github.resilience4j.micrometer.CircuitBreakerMetrics;
+import java.time.Duration;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.web.client.HttpClientErrorException;
+
+/**
+ * Configures the circuit breaker and the bulkhead that guard requests sent to the reference data
+ * service. When the service is slow or down, requests are rejected quickly instead of holding
+ * server threads until they time out.
+ */
+@Configuration
+public class ResilienceConfiguration {
+
+  public static final String REFERENCE_DATA = "referencedata";
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(ResilienceConfiguration.class);
+
+  @Value("${referencedata.circuitBreaker.failureRateThreshold}")
+  private float failureRateThreshold;
+
+  @Value("${referencedata.circuitBreaker.ringBufferSizeInClosedState}")
+  private int ringBufferSizeInClosedState;
+
+  @Value("${referencedata.circuitBreaker.ringBufferSizeInHalfOpenState}")
+  private int ringBufferSizeInHalfOpenState;
+
+  @Value("${referencedata.circuitBreaker.waitDurationInOpenState}")
+  private long waitDurationInOpenState;
+
+  @Value("${referencedata.bulkhead.maxConcurrentCalls}")
+  private int maxConcurrentCalls;
+
+  @Value("${referencedata.bulkhead.maxWaitTime}")
+  private long maxWaitTime;
+
+  /**
+   * Registry of circuit breakers. Client errors (4xx) mean that the other service works, so they
+   * are not recorded as failures. Neither are calls rejected by the bulkhead.
+   */
+  @Bean
+  public CircuitBreakerRegistry circuitBreakerRegistry() {
+    CircuitBreakerConfig config = CircuitBreakerConfig
+        .custom()
+        .failureRateThreshold(failureRateThreshold)
+        .ringBufferSizeInClosedState(ringBufferSizeInClosedState)
+        .ringBufferSizeInHalfOpenState(ringBufferSizeInHalfOpenState)
+        .waitDurationInOpenState(Duration.ofMillis(waitDurationInOpenState))
+        .recordFailure(exp -> !(exp instanceof HttpClientErrorException)
+            && !(exp instanceof BulkheadFullException))
+        .build();
+
+    return CircuitBreakerRegistry.of(config);
+  }
+
+  /**
+   * Registry of bulkheads, which limit the number of concurrent requests.
+   */
+  @Bean
+  public BulkheadRegistry bulkheadRegistry() {
+    BulkheadConfig config = BulkheadConfig
+        .custom()
+        .maxConcurrentCalls(maxConcurrentCalls)
+        .maxWaitTime(maxWaitTime)
+        .build();
+
+    return BulkheadRegistry.of(config);
+  }
+
+  /**
+   * Circuit breaker for requests to the reference data service. State changes are logged.
+   */
+  @Bean
+  public CircuitBreaker referenceDataCircuitBreaker(CircuitBreakerRegistry registry) {
+    CircuitBreaker circuitBreaker = registry.circuitBreaker(REFERENCE_DATA);
+    circuitBreaker
+        .getEventPublisher()
+        .onStateTransition(event -> LOGGER.warn("Circuit breaker {} changed state: {}",
+            event.getCircuitBreakerName(), event.getStateTransition()));
+
+    return circuitBreaker;
+  }
+
+  @Bean
+  public Bulkhead referenceDataBulkhead(BulkheadRegistry registry) {
+    return registry.bulkhead(REFERENCE_DATA);
+  }
+
+  /**
+   * Exposes state and call counts of circuit breakers as metrics.
+   */
+  @Bean
+  public CircuitBreakerMetrics circuitBreakerMetrics(CircuitBreakerRegistry registry) {
+    return CircuitBreakerMetrics.ofCircuitBreakerRegistry(registry);
+  }
+
+  /**
+   * Exposes available concurrent calls of bulkheads as metrics.
+   */
+  @Bean
+  public BulkheadMetrics bulkheadMetrics(BulkheadRegistry registry) {
+    return BulkheadMetrics.ofBulkheadRegistry(registry);
+  }
+
+}
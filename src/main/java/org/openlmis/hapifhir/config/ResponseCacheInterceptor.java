@@ -0,0 +1,382 @@
+/*
+ * This program is part of the OpenLMIS logistics management information system platform software.
+ * Copyright © 2017 VillageReach
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms
+ * of the GNU Affero General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details. You should have received a copy of
+ * the GNU Affero General Public License along with this program. If not, see
+ * http://www.gnu.org/licenses.  For additional information contact info@OpenLMIS.org.
+ */
+
+package org.openlmis.hapifhir.config;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.apache.commons.lang3.StringUtils.isBlank;
+import static org.apache.commons.lang3.StringUtils.isNotBlank;
+
+import ca.uhn.fhir.jpa.model.entity.ResourceHistoryTable;
+import ca.uhn.fhir.rest.api.Constants;
+import ca.uhn.fhir.rest.api.EncodingEnum;
+import ca.uhn.fhir.rest.api.RequestTypeEnum;
+import ca.uhn.fhir.rest.api.RestOperationTypeEnum;
+import ca.uhn.fhir.rest.api.server.RequestDetails;
+import ca.uhn.fhir.rest.api.server.ResponseDetails;
+import ca.uhn.fhir.rest.param.ParameterUtil;
+import ca.uhn.fhir.rest.server.ETagSupportEnum;
+import ca.uhn.fhir.rest.server.RestfulServer;
+import ca.uhn.fhir.rest.server.RestfulServerUtils;
+import ca.uhn.fhir.rest.server.exceptions.InternalErrorException;
+import ca.uhn.fhir.rest.server.interceptor.ServerOperationInterceptorAdapter;
+import ca.uhn.fhir.util.DateUtils;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.google.common.collect.ImmutableSet;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPOutputStream;
+import javax.annotation.PostConstruct;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import lombok.AllArgsConstructor;
+import lombok.EqualsAndHashCode;
+import org.apache.commons.lang3.math.NumberUtils;
+import org.hl7.fhir.instance.model.api.IBaseResource;
+import org.hl7.fhir.instance.model.api.IIdType;
+import org.hl7.fhir.instance.model.api.IPrimitiveType;
+import org.openlmis.hapifhir.repository.ResourceVersionRepository;
+import org.openlmis.hapifhir.repository.StoredResourceRepository;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+/**
+ * Answers read and vread requests from encoded responses kept in memory. The current version of
+ * a resource is looked up without loading its content, so a request with a matching
+ * If-None-Match header gets 304 at once, and a known version is served from the cached bytes
+ * without parsing and encoding the resource again. When it is not cached yet, a JSON response is
+ * written from the stored body of the resource, still without parsing it. Encoded responses are
+ * kept together per resource and keyed by the version, so they never become stale; cached
+ * current versions are dropped when the resource is changed through a DAO, which includes
+ * transactions that are not sent through the REST server, and expire after a short time to catch
+ * changes made in other ways.
+ */
+@Component
+public class ResponseCacheInterceptor extends ServerOperationInterceptorAdapter {
+
+  private static final String CACHE_NAME = "fhirResponses";
+
+  // other parameters, like _summary or _elements, change the content of the response
+  private static final Set<String> ALLOWED_PARAMETERS = ImmutableSet.of(
+      Constants.PARAM_FORMAT, Constants.PARAM_PRETTY);
+
+  @Value("${responses.cache.maxSize}")
+  private long maxSize;
+
+  @Value("${responses.cache.versionTtl}")
+  private long versionTtl;
+
+  @Value("${responses.passthrough.enabled}")
+  private boolean passthrough;
+
+  @Autowired
+  private ResourceVersionRepository resourceVersionRepository;
+
+  @Autowired
+  private StoredResourceRepository storedResourceRepository;
+
+  @Autowired
+  private MeterRegistry meterRegistry;
+
+  private Cache<String, String> versions;
+  private Cache<String, Map<ResponseKey, CachedResponse>> responses;
+
+  @PostConstruct
+  void init() {
+    versions = CaffeineCacheMetrics.monitor(meterRegistry,
+        Caffeine.newBuilder()
+            .maximumSize(maxSize)
+            .expireAfterWrite(versionTtl, TimeUnit.SECONDS)
+            .recordStats()
+            .<String, String>build(),
+        CACHE_NAME, "lookup", "version");
+    // the limit applies to responses, not to resources they are kept for
+    responses = CaffeineCacheMetrics.monitor(meterRegistry,
+        Caffeine.newBuilder()
+            .maximumWeight(maxSize)
+            .<String, Map<ResponseKey, CachedResponse>>weigher((key, bodies) -> bodies.size())
+            .recordStats()
+            .build(),
+        CACHE_NAME, "lookup", "body");
+  }
+
+  @Override
+  public boolean incomingRequestPostProcessed(RequestDetails details, HttpServletRequest request,
+      HttpServletResponse response) {
+    if (!isCacheable(details)) {
+      return true;
+    }
+
+    IIdType id = details.getId();
+    String version = RestOperationTypeEnum.VREAD == details.getRestOperationType()
+        ? id.getVersionIdPart()
+        : findVersion(details.getResourceName(), id.getIdPart());
+
+    // unknown and deleted resources are left to HAPI, so it responds with 404 or 410
+    if (null == version) {
+      return true;
+    }
+
+    if (isNotModified(details, version)) {
+      writeNotModified(details, response, version);
+      return false;
+    }
+
+    ResponseKey key = key(details, version);
+    CachedResponse cached = getCached(key);
+
+    if (null == cached) {
+      cached = readStored(details, key);
+    }
+
+    if (null == cached) {
+      return true;
+    }
+
+    write(details, response, key, cached);
+    return false;
+  }
+
+  @Override
+  public boolean outgoingResponse(RequestDetails details, ResponseDetails responseDetails,
+      HttpServletRequest request, HttpServletResponse response) {
+    IBaseResource resource = responseDetails.getResponseResource();
+
+    if (!isCacheable(details) || Constants.STATUS_HTTP_200_OK != responseDetails.getResponseCode()
+        || null == resource || isBlank(resource.getIdElement().getVersionIdPart())) {
+      return true;
+    }
+
+    ResponseKey key = key(details, resource.getIdElement().getVersionIdPart());
+    CachedResponse cached = new CachedResponse(encode(details, resource),
+        getLastModified(resource));
+
+    putCached(key, cached);
+    write(details, response, key, cached);
+    return false;
+  }
+
+  @Override
+  public void resourceCreated(RequestDetails details, IBaseResource resource) {
+    invalidateVersion(resource);
+  }
+
+  @Override
+  public void resourceUpdated(RequestDetails details, IBaseResource oldResource,
+      IBaseResource newResource) {
+    invalidateVersion(newResource);
+  }
+
+  @Override
+  public void resourceDeleted(RequestDetails details, IBaseResource resource) {
+    invalidateVersion(resource);
+
+    // older versions could still be read with vread, but not after the resource is expunged
+    responses.invalidate(resourceKey(resource.getIdElement().getResourceType(),
+        resource.getIdElement().getIdPart()));
+  }
+
+  private boolean isCacheable(RequestDetails details) {
+    RestOperationTypeEnum operation = details.getRestOperationType();
+    IIdType id = details.getId();
+
+    return (RestOperationTypeEnum.READ == operation || RestOperationTypeEnum.VREAD == operation)
+        && RequestTypeEnum.GET == details.getRequestType()
+        && null != id && id.hasIdPart()
+        && !"Binary".equals(details.getResourceName())
+        && ALLOWED_PARAMETERS.containsAll(details.getParameters().keySet())
+        && isBlank(details.getHeader(Constants.HEADER_IF_MODIFIED_SINCE_LC));
+  }
+
+  private String findVersion(String resourceType, String id) {
+    return versions.get(resourceKey(resourceType, id),
+        key -> resourceVersionRepository.findVersion(resourceType, id));
+  }
+
+  /**
+   * Encodes the response from the stored JSON body of the resource, without parsing it. Other
+   * encodings, and resources the stored body is not complete for, are left to HAPI.
+   */
+  private CachedResponse readStored(RequestDetails details, ResponseKey key) {
+    if (!passthrough || !NumberUtils.isDigits(key.version) || EncodingEnum.JSON
+        != RestfulServerUtils.determineResponseEncodingWithDefault(details).getEncoding()) {
+      return null;
+    }
+
+    ResourceHistoryTable history = storedResourceRepository
+        .findVersion(key.resourceType, key.id, Long.parseLong(key.version));
+
+    if (!StoredResourceEncoder.supports(history)) {
+      return null;
+    }
+
+    try {
+      CachedResponse cached = new CachedResponse(
+          StoredResourceEncoder.encode(history, key.id, key.pretty),
+          DateUtils.formatDate(history.getUpdatedDate()));
+
+      putCached(key, cached);
+      return cached;
+    } catch (IOException exp) {
+      throw new InternalErrorException(exp);
+    }
+  }
+
+  private boolean isNotModified(RequestDetails details, String version) {
+    if (ETagSupportEnum.ENABLED != details.getServer().getETagSupport()) {
+      return false;
+    }
+
+    String ifNoneMatch = details.getHeader(Constants.HEADER_IF_NONE_MATCH_LC);
+    return isNotBlank(ifNoneMatch) && version.equals(ParameterUtil.parseETagValue(ifNoneMatch));
+  }
+
+  private void invalidateVersion(IBaseResource resource) {
+    String key = resourceKey(resource.getIdElement().getResourceType(),
+        resource.getIdElement().getIdPart());
+    versions.invalidate(key);
+
+    // a concurrent read may still find the previous version until the change is committed
+    if (TransactionSynchronizationManager.isSynchronizationActive()) {
+      TransactionSynchronizationManager.registerSynchronization(
+          new TransactionSynchronizationAdapter() {
+            @Override
+            public void afterCompletion(int status) {
+              versions.invalidate(key);
+            }
+          });
+    }
+  }
+
+  private ResponseKey key(RequestDetails details, String version) {
+    return new ResponseKey(
+        details.getResourceName(),
+        details.getId().getIdPart(),
+        version,
+        RestfulServerUtils.determineResponseEncodingWithDefault(details).getResourceContentType(),
+        RestfulServerUtils.prettyPrintResponse(details.getServer(), details));
+  }
+
+  private String resourceKey(String resourceType, String id) {
+    return resourceType + "/" + id;
+  }
+
+  private CachedResponse getCached(ResponseKey key) {
+    Map<ResponseKey, CachedResponse> bodies = responses
+        .getIfPresent(resourceKey(key.resourceType, key.id));
+
+    return null == bodies ? null : bodies.get(key);
+  }
+
+  private void putCached(ResponseKey key, CachedResponse cached) {
+    // maps are replaced instead of changed, so the cache weighs them again
+    responses.asMap().merge(resourceKey(key.resourceType, key.id),
+        Collections.singletonMap(key, cached), (bodies, added) -> {
+          Map<ResponseKey, CachedResponse> merged = new HashMap<>(bodies);
+          merged.putAll(added);
+          return merged;
+        });
+  }
+
+  private byte[] encode(RequestDetails details, IBaseResource resource) {
+    return RestfulServerUtils
+        .getNewParser(details.getServer().getFhirContext(),
+            resource.getStructureFhirVersionEnum(), details)
+        .encodeResourceToString(resource)
+        .getBytes(UTF_8);
+  }
+
+  private String getLastModified(IBaseResource resource) {
+    IPrimitiveType<Date> lastUpdated = RestfulServerUtils
+        .extractLastUpdatedFromResource(resource);
+
+    return null == lastUpdated || lastUpdated.isEmpty()
+        ? null
+        : DateUtils.formatDate(lastUpdated.getValue());
+  }
+
+  private void writeNotModified(RequestDetails details, HttpServletResponse response,
+      String version) {
+    addServerHeaders(details, response);
+    response.setStatus(Constants.STATUS_HTTP_304_NOT_MODIFIED);
+    response.setHeader(Constants.HEADER_ETAG, RestfulServerUtils.createEtag(version));
+  }
+
+  private void write(RequestDetails details, HttpServletResponse response, ResponseKey key,
+      CachedResponse cached) {
+    addServerHeaders(details, response);
+    response.setStatus(Constants.STATUS_HTTP_200_OK);
+    response.setContentType(key.contentType);
+    response.setCharacterEncoding(Constants.CHARSET_NAME_UTF8);
+
+    if (ETagSupportEnum.ENABLED == details.getServer().getETagSupport()) {
+      response.setHeader(Constants.HEADER_ETAG, RestfulServerUtils.createEtag(key.version));
+    }
+
+    if (null != cached.lastModified) {
+      response.setHeader(Constants.HEADER_LAST_MODIFIED, cached.lastModified);
+    }
+
+    try {
+      if (details.isRespondGzip()) {
+        response.setHeader(Constants.HEADER_CONTENT_ENCODING, Constants.ENCODING_GZIP);
+
+        try (OutputStream gzip = new GZIPOutputStream(response.getOutputStream())) {
+          gzip.write(cached.body);
+        }
+      } else {
+        response.setContentLength(cached.body.length);
+        response.getOutputStream().write(cached.body);
+      }
+    } catch (IOException exp) {
+      throw new InternalErrorException(exp);
+    }
+  }
+
+  private void addServerHeaders(RequestDetails details, HttpServletResponse response) {
+    if (details.getServer() instanceof RestfulServer) {
+      ((RestfulServer) details.getServer()).addHeadersToResponse(response);
+    }
+  }
+
+  @AllArgsConstructor
+  @EqualsAndHashCode
+  private static final class ResponseKey {
+    private final String resourceType;
+    private final String id;
+    private final String version;
+    private final String contentType;
+    private final boolean pretty;
+  }
+
+  @AllArgsConstructor
+  private static final class CachedResponse {
+    private final byte[] body;
+    private final String lastModified;
+  }
+
+}
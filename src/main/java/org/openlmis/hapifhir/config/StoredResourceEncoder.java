@@ -0,0 +1,217 @@
+/*
+ * This program is part of the OpenLMIS logistics management information system platform software.
+ * Copyright © 2017 VillageReach
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms
+ * of the GNU Affero General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details. You should have received a copy of
+ * the GNU Affero General Public License along with this program. If not, see
+ * http://www.gnu.org/licenses.  For additional information contact info@OpenLMIS.org.
+ */
+
+package org.openlmis.hapifhir.config;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import ca.uhn.fhir.context.FhirVersionEnum;
+import ca.uhn.fhir.jpa.dao.GZipUtil;
+import ca.uhn.fhir.jpa.model.entity.ResourceEncodingEnum;
+import ca.uhn.fhir.jpa.model.entity.ResourceHistoryTable;
+import ca.uhn.fhir.parser.json.GsonStructure;
+import ca.uhn.fhir.parser.json.JsonLikeWriter;
+import com.google.gson.stream.JsonReader;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.math.BigDecimal;
+import java.util.zip.GZIPInputStream;
+import org.hl7.fhir.r4.model.InstantType;
+
+/**
+ * Writes resources stored by HAPI as JSON responses without parsing them into model objects.
+ * HAPI stores a resource without its id and meta elements, so they are added right after the
+ * resource type, where its own encoder puts them. The output is written with the same JSON writer
+ * HAPI uses, so it does not differ from a response encoded from the parsed resource.
+ */
+final class StoredResourceEncoder {
+
+  private static final String RESOURCE_TYPE = "resourceType";
+  private static final int GZIP_TRAILER_LENGTH = 8;
+  private static final int INFLATE_BUFFER_SIZE = 512;
+
+  private StoredResourceEncoder() {
+    throw new UnsupportedOperationException();
+  }
+
+  /**
+   * Tells whether the given version can be written without parsing. Tags, profiles and security
+   * labels are kept in separate tables, so resources which have them are left to HAPI.
+   */
+  static boolean supports(ResourceHistoryTable history) {
+    return null != history
+        && null == history.getDeleted()
+        && !history.isHasTags()
+        && FhirVersionEnum.R4 == history.getFhirVersion()
+        && (ResourceEncodingEnum.JSON == history.getEncoding()
+            || ResourceEncodingEnum.JSONC == history.getEncoding());
+  }
+
+  /**
+   * Encodes the stored version of a resource as a JSON response.
+   *
+   * @param history the stored version, it must be supported.
+   * @param id      the id of the resource, without its type and version.
+   * @param pretty  whether the response should be pretty printed.
+   * @return the encoded response.
+   */
+  static byte[] encode(ResourceHistoryTable history, String id, boolean pretty)
+      throws IOException {
+    String stored = ResourceEncodingEnum.JSONC == history.getEncoding()
+        ? decompress(history.getResource())
+        : new String(history.getResource(), UTF_8);
+
+    StringWriter output = new StringWriter(stored.length() * 2);
+    JsonLikeWriter writer = new GsonStructure().getJsonLikeWriter(output);
+    writer.setPrettyPrint(pretty);
+    writer.init();
+
+    try (JsonReader reader = new JsonReader(new StringReader(stored))) {
+      reader.beginObject();
+      writer.beginObject();
+
+      while (reader.hasNext()) {
+        String name = reader.nextName();
+        copy(reader, writer, name);
+
+        if (RESOURCE_TYPE.equals(name)) {
+          writer.write("id", id);
+          writer.beginObject("meta");
+          writer.write("versionId", String.valueOf(history.getVersion()));
+          writer.write("lastUpdated",
+              new InstantType(history.getUpdatedDate()).getValueAsString());
+          writer.endObject();
+        }
+      }
+
+      reader.endObject();
+      writer.endObject();
+    }
+
+    writer.close();
+    return output.toString().getBytes(UTF_8);
+  }
+
+  /**
+   * Inflates a gzip compressed body straight into an array of its size, which is written in the
+   * last four bytes of the gzip trailer. It allocates a fraction of the buffers used by
+   * {@link GZipUtil#decompress(byte[])}, which is still used if the size does not match.
+   */
+  private static String decompress(byte[] compressed) throws IOException {
+    int length = compressed.length;
+    int size = length < GZIP_TRAILER_LENGTH ? -1 : (compressed[length - 4] & 0xff)
+        | (compressed[length - 3] & 0xff) << 8
+        | (compressed[length - 2] & 0xff) << 16
+        | (compressed[length - 1] & 0xff) << 24;
+
+    if (size < 0) {
+      return GZipUtil.decompress(compressed);
+    }
+
+    byte[] body = new byte[size];
+    int offset = 0;
+
+    try (InputStream input = new GZIPInputStream(new ByteArrayInputStream(compressed),
+        INFLATE_BUFFER_SIZE)) {
+      while (offset < size) {
+        int read = input.read(body, offset, size - offset);
+
+        if (read < 0) {
+          break;
+        }
+
+        offset += read;
+      }
+
+      if (offset < size || input.read() >= 0) {
+        return GZipUtil.decompress(compressed);
+      }
+    }
+
+    return new String(body, UTF_8);
+  }
+
+  // elements of arrays have no name
+  private static void copy(JsonReader reader, JsonLikeWriter writer, String name)
+      throws IOException {
+    switch (reader.peek()) {
+      case BEGIN_OBJECT:
+        reader.beginObject();
+        if (null == name) {
+          writer.beginObject();
+        } else {
+          writer.beginObject(name);
+        }
+        while (reader.hasNext()) {
+          copy(reader, writer, reader.nextName());
+        }
+        reader.endObject();
+        writer.endObject();
+        break;
+      case BEGIN_ARRAY:
+        reader.beginArray();
+        if (null == name) {
+          writer.beginArray();
+        } else {
+          writer.beginArray(name);
+        }
+        while (reader.hasNext()) {
+          copy(reader, writer, null);
+        }
+        reader.endArray();
+        writer.endArray();
+        break;
+      case STRING:
+        String value = reader.nextString();
+        if (null == name) {
+          writer.write(value);
+        } else {
+          writer.write(name, value);
+        }
+        break;
+      case NUMBER:
+        // the literal is kept, so decimals do not lose their precision
+        BigDecimal number = new BigDecimal(reader.nextString());
+        if (null == name) {
+          writer.write(number);
+        } else {
+          writer.write(name, number);
+        }
+        break;
+      case BOOLEAN:
+        boolean flag = reader.nextBoolean();
+        if (null == name) {
+          writer.write(flag);
+        } else {
+          writer.write(name, flag);
+        }
+        break;
+      case NULL:
+        reader.nextNull();
+        if (null == name) {
+          writer.writeNull();
+        } else {
+          writer.writeNull(name);
+        }
+        break;
+      default:
+        throw new IllegalStateException("Unexpected JSON token: " + reader.peek());
+    }
+  }
+
+}
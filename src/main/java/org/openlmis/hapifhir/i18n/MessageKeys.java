@@ -26,6 +26,7 @@ public abstract class MessageKeys {
 
   private static final String AUTHORIZATION = "authorization";
   private static final String IO = "io";
+  private static final String SERVICE = "service";
   private static final String GEOGRAPHIC_ZONE = "geographicZone";
   private static final String FACILITY = "facility";
 
@@ -37,6 +38,7 @@ public abstract class MessageKeys {
   private static final String INCORRECT = "incorrect";
   private static final String NOT_FOUND = "notFound";
   private static final String REQUIRED = "required";
+  private static final String UNAVAILABLE = "unavailable";
 
   private static final String ERROR_PREFIX = join(SERVICE_PREFIX, ERROR);
 
@@ -44,6 +46,7 @@ public abstract class MessageKeys {
   public static final String INCORRECT_AUTHORIZATION = join(ERROR_PREFIX, AUTHORIZATION, INCORRECT);
 
   public static final String ERROR_IO = join(ERROR_PREFIX, IO);
+  public static final String ERROR_SERVICE_UNAVAILABLE = join(ERROR_PREFIX, SERVICE, UNAVAILABLE);
 
   public static final String ERROR_FACILITY_CODE_REQUIRED =
       join(ERROR_PREFIX, FACILITY, CODE, REQUIRED);
@@ -0,0 +1,46 @@
+/*
+ * This program is part of the OpenLMIS logistics management information system platform software.
+ * Copyright © 2017 VillageReach
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms
+ * of the GNU Affero General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details. You should have received a copy of
+ * the GNU Affero General Public License along with this program. If not, see
+ * http://www.gnu.org/licenses.  For additional information contact info@OpenLMIS.org.
+ */
+
+package org.openlmis.hapifhir.repository;
+
+/**
+ * Binary columns that have been moved from large objects to {@code bytea}. The old large object
+ * column of each has the same name with the {@code _lob} suffix.
+ */
+public enum LargeObjectColumn {
+  RESOURCE_TEXT("hfj_res_ver", "res_text"),
+  SEARCH_PARAMETER_MAP("hfj_search", "search_param_map");
+
+  private final String table;
+  private final String column;
+
+  LargeObjectColumn(String table, String column) {
+    this.table = table;
+    this.column = column;
+  }
+
+  public String getTable() {
+    return table;
+  }
+
+  public String getColumn() {
+    return column;
+  }
+
+  public String getLargeObjectColumn() {
+    return column + "_lob";
+  }
+
+}
@@ -0,0 +1,132 @@
+/*
+ * This program is part of the OpenLMIS logistics management information system platform software.
+ * Copyright © 2017 VillageReach
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms
+ * of the GNU Affero General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details. You should have received a copy of
+ * the GNU Affero General Public License along with this program. If not, see
+ * http://www.gnu.org/licenses.  For additional information contact info@OpenLMIS.org.
+ */
+
+package org.openlmis.hapifhir.repository;
+
+import com.google.common.collect.ImmutableMap;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import javax.annotation.PostConstruct;
+import org.apache.commons.lang3.text.StrSubstitutor;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+/**
+ * Copies binary values from large objects to {@code bytea} columns. Rows are copied in small
+ * batches in the order of their ids, each batch in a separate short transaction, so the copy can
+ * run while the service is in use. The large object of a copied row is removed in the same
+ * transaction.
+ */
+@Repository
+public class LargeObjectMigrationRepository {
+
+  private static final String EXISTS_QUERY = "SELECT EXISTS ("
+      + "   SELECT 1"
+      + "   FROM information_schema.columns"
+      + "   WHERE table_schema = ? AND table_name = ? AND column_name = ?)";
+
+  // rows locked by other transactions are skipped, they are copied in the next pass; a large
+  // object which does not exist anymore can be neither read nor removed, so it is only forgotten
+  private static final String COPY_QUERY = "WITH batch AS ("
+      + "   SELECT b.pid, b.${lob} AS lob"
+      + "   FROM ${schema}.${table} b"
+      + "   WHERE b.pid > ? AND b.${lob} IS NOT NULL"
+      + "   ORDER BY b.pid"
+      + "   LIMIT ?"
+      + "   FOR UPDATE SKIP LOCKED"
+      + " ), source AS ("
+      + "   SELECT s.pid, s.lob, EXISTS ("
+      + "     SELECT 1 FROM pg_largeobject_metadata m WHERE m.oid = s.lob) AS found"
+      + "   FROM batch s"
+      + " ), copied AS ("
+      + "   UPDATE ${schema}.${table} t"
+      + "   SET ${column} = coalesce(t.${column}, CASE WHEN s.found THEN lo_get(s.lob) END),"
+      + "     ${lob} = NULL"
+      + "   FROM source s"
+      + "   WHERE t.pid = s.pid"
+      + "   RETURNING t.pid, s.lob, s.found"
+      + " )"
+      + " SELECT c.pid, CASE WHEN c.found THEN lo_unlink(c.lob) END AS unlinked"
+      + " FROM copied c"
+      + " ORDER BY c.pid";
+
+  private static final String REMAINING_QUERY = "SELECT EXISTS ("
+      + "   SELECT 1 FROM ${schema}.${table} WHERE ${lob} IS NOT NULL)";
+
+  @Value("${spring.jpa.properties.hibernate.default_schema}")
+  private String defaultSchema;
+
+  @Autowired
+  private JdbcTemplate jdbcTemplate;
+
+  private final Map<LargeObjectColumn, String> copyQueries =
+      new EnumMap<>(LargeObjectColumn.class);
+
+  private final Map<LargeObjectColumn, String> remainingQueries =
+      new EnumMap<>(LargeObjectColumn.class);
+
+  @PostConstruct
+  void init() {
+    for (LargeObjectColumn column : LargeObjectColumn.values()) {
+      copyQueries.put(column, withSchema(COPY_QUERY, column));
+      remainingQueries.put(column, withSchema(REMAINING_QUERY, column));
+    }
+  }
+
+  /**
+   * Checks whether the large object column still exists. It is removed by a later migration once
+   * all values have been copied.
+   */
+  @Transactional(readOnly = true)
+  public boolean exists(LargeObjectColumn column) {
+    return jdbcTemplate.queryForObject(EXISTS_QUERY, Boolean.class,
+        defaultSchema, column.getTable(), column.getLargeObjectColumn());
+  }
+
+  /**
+   * Copies values of rows which still have a large object.
+   *
+   * @param column the copied column.
+   * @param after  only rows with greater ids are copied.
+   * @param limit  the max number of copied rows.
+   * @return ids of copied rows, in ascending order.
+   */
+  @Transactional
+  public List<Long> copy(LargeObjectColumn column, long after, int limit) {
+    return jdbcTemplate.query(copyQueries.get(column),
+        (rs, rowNum) -> rs.getLong("pid"), after, limit);
+  }
+
+  /**
+   * Checks whether any row still has a large object.
+   */
+  @Transactional(readOnly = true)
+  public boolean hasRemaining(LargeObjectColumn column) {
+    return jdbcTemplate.queryForObject(remainingQueries.get(column), Boolean.class);
+  }
+
+  private String withSchema(String query, LargeObjectColumn column) {
+    return StrSubstitutor.replace(query, ImmutableMap.of(
+        "schema", defaultSchema,
+        "table", column.getTable(),
+        "column", column.getColumn(),
+        "lob", column.getLargeObjectColumn()));
+  }
+
+}
@@ -0,0 +1,196 @@
+/*
+ * This program is part of the OpenLMIS logistics management information system platform software.
+ * Copyright © 2017 VillageReach
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms
+ * of the GNU Affero General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details. You should have received a copy of
+ * the GNU Affero General Public License along with this program. If not, see
+ * http://www.gnu.org/licenses.  For additional information contact info@OpenLMIS.org.
+ */
+
+package org.openlmis.hapifhir.repository;
+
+import java.util.Collections;
+import java.util.List;
+import javax.annotation.PostConstruct;
+import org.apache.commons.lang3.text.StrSubstitutor;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+
+/**
+ * Transactional outbox of synchronizations of FHIR locations with reference data resources. Jobs
+ * of the same resource are handed out one at a time, in the order they have been added.
+ */
+@Repository
+public class ReferenceDataSyncJobRepository {
+
+  private static final String INSERT_QUERY = "INSERT INTO ${schema}.referencedata_sync_jobs"
+      + "   (synctype, resourceid, payload)"
+      + " VALUES (?, ?, ?)";
+
+  // a job is skipped while an older job of the same resource exists, even if it is locked
+  private static final String LOCK_QUERY = "UPDATE ${schema}.referencedata_sync_jobs u"
+      + " SET lockeduntil = now() + (? * interval '1 second')"
+      + " WHERE u.id IN ("
+      + "   SELECT j.id"
+      + "   FROM ${schema}.referencedata_sync_jobs j"
+      + "   WHERE j.nextattemptat <= now()"
+      + "     AND (j.lockeduntil IS NULL OR j.lockeduntil < now())"
+      + "     AND NOT EXISTS ("
+      + "       SELECT 1"
+      + "       FROM ${schema}.referencedata_sync_jobs e"
+      + "       WHERE e.synctype = j.synctype AND e.resourceid = j.resourceid AND e.id < j.id)"
+      + "   ORDER BY j.id"
+      + "   LIMIT ?"
+      + "   FOR UPDATE SKIP LOCKED)"
+      + " RETURNING u.id, u.synctype, u.resourceid, u.attempts,"
+      + "   (SELECT l.id FROM ${schema}.referencedata_sync_jobs l"
+      + "     WHERE l.synctype = u.synctype AND l.resourceid = u.resourceid"
+      + "     ORDER BY l.id DESC LIMIT 1) AS latestid,"
+      + "   (SELECT l.payload FROM ${schema}.referencedata_sync_jobs l"
+      + "     WHERE l.synctype = u.synctype AND l.resourceid = u.resourceid"
+      + "     ORDER BY l.id DESC LIMIT 1) AS payload";
+
+  private static final String DELETE_QUERY = "DELETE FROM ${schema}.referencedata_sync_jobs"
+      + " WHERE synctype = ? AND resourceid = ? AND id <= ?";
+
+  private static final String RETRY_QUERY = "UPDATE ${schema}.referencedata_sync_jobs"
+      + " SET attempts = attempts + 1,"
+      + "   nextattemptat = now() + (? * interval '1 second'),"
+      + "   lockeduntil = NULL,"
+      + "   lasterror = ?"
+      + " WHERE id = ?";
+
+  private static final String DEAD_LETTER_QUERY = "INSERT INTO"
+      + "   ${schema}.referencedata_sync_dead_letters"
+      + "   (id, synctype, resourceid, payload, attempts, createdat, lasterror)"
+      + " SELECT id, synctype, resourceid, payload, attempts + 1, createdat, ?"
+      + " FROM ${schema}.referencedata_sync_jobs"
+      + " WHERE synctype = ? AND resourceid = ? AND id <= ?";
+
+  private static final String BACKLOG_QUERY = "SELECT"
+      + "   (SELECT count(*) FROM ${schema}.referencedata_sync_jobs) AS size,"
+      + "   (SELECT coalesce(extract(epoch FROM now() - min(createdat)), 0)"
+      + "     FROM ${schema}.referencedata_sync_jobs) AS lag,"
+      + "   (SELECT count(*) FROM ${schema}.referencedata_sync_dead_letters) AS deadletters";
+
+  private static final RowMapper<ReferenceDataSyncJob> JOB_MAPPER = (rs, rowNum) ->
+      new ReferenceDataSyncJob(rs.getLong("id"), rs.getString("synctype"),
+          rs.getString("resourceid"), rs.getString("payload"), rs.getInt("attempts"),
+          rs.getLong("latestid"));
+
+  private static final RowMapper<ReferenceDataSyncBacklog> BACKLOG_MAPPER = (rs, rowNum) ->
+      new ReferenceDataSyncBacklog(rs.getLong("size"), rs.getLong("lag"),
+          rs.getLong("deadletters"));
+
+  @Value("${spring.jpa.properties.hibernate.default_schema}")
+  private String defaultSchema;
+
+  @Autowired
+  private JdbcTemplate jdbcTemplate;
+
+  private String insertQuery;
+  private String lockQuery;
+  private String deleteQuery;
+  private String retryQuery;
+  private String deadLetterQuery;
+  private String backlogQuery;
+
+  @PostConstruct
+  void init() {
+    insertQuery = withSchema(INSERT_QUERY);
+    lockQuery = withSchema(LOCK_QUERY);
+    deleteQuery = withSchema(DELETE_QUERY);
+    retryQuery = withSchema(RETRY_QUERY);
+    deadLetterQuery = withSchema(DEAD_LETTER_QUERY);
+    backlogQuery = withSchema(BACKLOG_QUERY);
+  }
+
+  /**
+   * Adds a new job to the queue. It has to be called in the transaction that saves the FHIR
+   * resource, so the job is added only if the resource is saved, and the other way round.
+   *
+   * @param syncType   the type of the synchronization.
+   * @param resourceId the id of the synchronized FHIR resource.
+   * @param payload    the encoded FHIR resource.
+   */
+  @Transactional(propagation = Propagation.MANDATORY)
+  public void save(String syncType, String resourceId, String payload) {
+    jdbcTemplate.update(insertQuery, syncType, resourceId, payload);
+  }
+
+  /**
+   * Locks jobs that are ready to be processed, so other workers will not take them until the lock
+   * expires. Only the oldest job of each resource can be locked. Each job carries the payload of
+   * the latest job of its resource, so all queued changes of a resource are sent at once.
+   *
+   * @param limit        the max number of returned jobs.
+   * @param lockDuration the duration of the lock in seconds.
+   * @return locked jobs.
+   */
+  @Transactional
+  public List<ReferenceDataSyncJob> lock(int limit, long lockDuration) {
+    return jdbcTemplate.query(lockQuery, JOB_MAPPER, lockDuration, limit);
+  }
+
+  /**
+   * Removes a job that has been processed, together with later jobs of the same resource that
+   * have been sent with it.
+   *
+   * @param job the processed job.
+   */
+  @Transactional
+  public void delete(ReferenceDataSyncJob job) {
+    jdbcTemplate.update(deleteQuery,
+        job.getSyncType(), job.getResourceId(), job.getLatestId());
+  }
+
+  /**
+   * Unlocks a failed job, so it will be processed again after the given delay.
+   *
+   * @param id    the id of the job.
+   * @param delay the delay in seconds.
+   * @param error the reason of the failure.
+   */
+  @Transactional
+  public void retryLater(long id, long delay, String error) {
+    jdbcTemplate.update(retryQuery, delay, error, id);
+  }
+
+  /**
+   * Moves a job that will not be retried anymore to the dead letter table, together with later
+   * jobs of the same resource that have been sent with it.
+   *
+   * @param job   the failed job.
+   * @param error the reason of the last failure.
+   */
+  @Transactional
+  public void moveToDeadLetters(ReferenceDataSyncJob job, String error) {
+    jdbcTemplate.update(deadLetterQuery,
+        error, job.getSyncType(), job.getResourceId(), job.getLatestId());
+    delete(job);
+  }
+
+  /**
+   * Returns the current size and age of the queue.
+   */
+  @Transactional(readOnly = true)
+  public ReferenceDataSyncBacklog getBacklog() {
+    return jdbcTemplate.queryForObject(backlogQuery, BACKLOG_MAPPER);
+  }
+
+  private String withSchema(String query) {
+    return StrSubstitutor.replace(query, Collections.singletonMap("schema", defaultSchema));
+  }
+
+}
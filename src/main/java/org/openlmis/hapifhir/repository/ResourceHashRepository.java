@@ -0,0 +1,99 @@
+/*
+ * This program is part of the OpenLMIS logistics management information system platform software.
+ * Copyright © 2017 VillageReach
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms
+ * of the GNU Affero General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details. You should have received a copy of
+ * the GNU Affero General Public License along with this program. If not, see
+ * http://www.gnu.org/licenses.  For additional information contact info@OpenLMIS.org.
+ */
+
+package org.openlmis.hapifhir.repository;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import javax.annotation.PostConstruct;
+import org.apache.commons.lang3.text.StrSubstitutor;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.jdbc.core.support.AbstractSqlTypeValue;
+import org.springframework.stereotype.Repository;
+import org.springframework.util.CollectionUtils;
+
+/**
+ * Reads content hashes that HAPI stores for the current version of each resource. They are
+ * calculated from the encoded resource without its id and meta elements, so they can be compared
+ * with hashes of resources that have not been saved yet.
+ */
+@Repository
+public class ResourceHashRepository {
+
+  private static final String NATIVE_QUERY = "SELECT"
+      + "   f.forced_id AS id,"
+      + "   r.hash_sha256 AS hash"
+      + " FROM"
+      + "   ${schema}.HFJ_FORCED_ID f"
+      + "   INNER JOIN ${schema}.HFJ_RESOURCE r ON r.res_id = f.resource_pid"
+      + " WHERE"
+      + "   f.resource_type = :resourceType"
+      + "   AND f.forced_id = ANY(:ids)"
+      + "   AND r.res_deleted_at IS NULL"
+      + "   AND r.hash_sha256 IS NOT NULL";
+
+  @Value("${spring.jpa.properties.hibernate.default_schema}")
+  private String defaultSchema;
+
+  @Autowired
+  private NamedParameterJdbcTemplate jdbcTemplate;
+
+  private String query;
+
+  @PostConstruct
+  void init() {
+    query = StrSubstitutor.replace(NATIVE_QUERY, Collections.singletonMap("schema", defaultSchema));
+  }
+
+  /**
+   * Finds hashes of current versions of resources with the given ids. Resources that do not exist
+   * or have been deleted are not included in the result. The ids are bound as a single array
+   * parameter, so the query text is the same for every call.
+   *
+   * @param resourceType the type of resources, for example Location.
+   * @param ids          the client assigned ids of resources.
+   * @return a map from resource id to its hash.
+   */
+  public Map<String, String> findHashes(String resourceType, Collection<String> ids) {
+    if (CollectionUtils.isEmpty(ids)) {
+      return Collections.emptyMap();
+    }
+
+    MapSqlParameterSource parameters = new MapSqlParameterSource()
+        .addValue("resourceType", resourceType)
+        .addValue("ids", new AbstractSqlTypeValue() {
+          @Override
+          protected Object createTypeValue(Connection connection, int sqlType, String typeName)
+              throws SQLException {
+            return connection.createArrayOf("varchar", ids.toArray());
+          }
+        });
+
+    Map<String, String> hashes = new HashMap<>();
+    jdbcTemplate.query(query, parameters,
+        (RowCallbackHandler) rs -> hashes.put(rs.getString("id"), rs.getString("hash")));
+
+    return hashes;
+  }
+
+}
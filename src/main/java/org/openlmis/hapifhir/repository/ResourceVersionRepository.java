@@ -0,0 +1,75 @@
+/*
+ * This program is part of the OpenLMIS logistics management information system platform software.
+ * Copyright © 2017 VillageReach
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms
+ * of the GNU Affero General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details. You should have received a copy of
+ * the GNU Affero General Public License along with this program. If not, see
+ * http://www.gnu.org/licenses.  For additional information contact info@OpenLMIS.org.
+ */
+
+package org.openlmis.hapifhir.repository;
+
+import java.util.Collections;
+import java.util.List;
+import javax.annotation.PostConstruct;
+import org.apache.commons.lang3.text.StrSubstitutor;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.stereotype.Repository;
+
+/**
+ * Reads the current version of a resource without loading its content, so conditional reads
+ * can be answered before HAPI fetches and parses the resource.
+ */
+@Repository
+public class ResourceVersionRepository {
+
+  private static final String NATIVE_QUERY = "SELECT"
+      + "   r.res_ver AS version"
+      + " FROM"
+      + "   ${schema}.HFJ_FORCED_ID f"
+      + "   INNER JOIN ${schema}.HFJ_RESOURCE r ON r.res_id = f.resource_pid"
+      + " WHERE"
+      + "   f.resource_type = :resourceType"
+      + "   AND f.forced_id = :id"
+      + "   AND r.res_deleted_at IS NULL";
+
+  @Value("${spring.jpa.properties.hibernate.default_schema}")
+  private String defaultSchema;
+
+  @Autowired
+  private NamedParameterJdbcTemplate jdbcTemplate;
+
+  private String query;
+
+  @PostConstruct
+  void init() {
+    query = StrSubstitutor.replace(NATIVE_QUERY, Collections.singletonMap("schema", defaultSchema));
+  }
+
+  /**
+   * Finds the current version of the resource with the given id.
+   *
+   * @param resourceType the type of the resource, for example Location.
+   * @param id           the client assigned id of the resource.
+   * @return the version id, or null if the resource does not exist or has been deleted.
+   */
+  public String findVersion(String resourceType, String id) {
+    MapSqlParameterSource parameters = new MapSqlParameterSource()
+        .addValue("resourceType", resourceType)
+        .addValue("id", id);
+
+    List<Long> versions = jdbcTemplate.queryForList(query, parameters, Long.class);
+
+    return versions.isEmpty() ? null : String.valueOf(versions.get(0));
+  }
+
+}
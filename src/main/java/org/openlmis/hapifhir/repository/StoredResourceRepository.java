@@ -0,0 +1,62 @@
+/*
+ * This program is part of the OpenLMIS logistics management information system platform software.
+ * Copyright © 2017 VillageReach
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms
+ * of the GNU Affero General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details. You should have received a copy of
+ * the GNU Affero General Public License along with this program. If not, see
+ * http://www.gnu.org/licenses.  For additional information contact info@OpenLMIS.org.
+ */
+
+package org.openlmis.hapifhir.repository;
+
+import ca.uhn.fhir.jpa.model.entity.ResourceHistoryTable;
+import java.util.List;
+import javax.persistence.EntityManager;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+/**
+ * Reads stored versions of resources by their client assigned ids, so their bodies can be
+ * written to responses without going through the HAPI DAOs.
+ */
+@Repository
+public class StoredResourceRepository {
+
+  private static final String FIND_VERSION = "SELECT h FROM ResourceHistoryTable h"
+      + " WHERE h.myResourceType = :resource_type"
+      + " AND h.myResourceVersion = :version"
+      + " AND h.myResourceId = (SELECT f.myResourcePid FROM ForcedId f"
+      + "   WHERE f.myResourceType = :resource_type AND f.myForcedId = :forced_id)";
+
+  @Autowired
+  private EntityManager entityManager;
+
+  /**
+   * Finds the given version of a resource. The resource body is loaded together with the version,
+   * so it can be read when the transaction has ended.
+   *
+   * @param resourceType the type of the resource, for example Location.
+   * @param id           the client assigned id of the resource.
+   * @param version      the version of the resource.
+   * @return the stored version, or null if it does not exist.
+   */
+  @Transactional(readOnly = true)
+  public ResourceHistoryTable findVersion(String resourceType, String id, long version) {
+    List<ResourceHistoryTable> found = entityManager
+        .createQuery(FIND_VERSION, ResourceHistoryTable.class)
+        .setParameter("resource_type", resourceType)
+        .setParameter("forced_id", id)
+        .setParameter("version", version)
+        .getResultList();
+
+    return found.isEmpty() ? null : found.get(0);
+  }
+
+}
@@ -0,0 +1,102 @@
+/*
+ * This program is part of the OpenLMIS logistics management information system platform software.
+ * Copyright © 2017 VillageReach
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms
+ * of the GNU Affero General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details. You should have received a copy of
+ * the GNU Affero General Public License along with this program. If not, see
+ * http://www.gnu.org/licenses.  For additional information contact info@OpenLMIS.org.
+ */
+
+package org.openlmis.hapifhir.repository.impl;
+
+import java.io.Serializable;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.Arrays;
+import java.util.Objects;
+import org.hibernate.engine.spi.SharedSessionContractImplementor;
+import org.hibernate.type.CustomType;
+import org.hibernate.type.Type;
+import org.hibernate.usertype.UserType;
+
+/**
+ * Binds a {@code Long[]} query parameter as a PostgreSQL {@code bigint[]} array created with
+ * {@link java.sql.Connection#createArrayOf(String, Object[])}. The type is only used for query
+ * parameters, so reading values is not supported.
+ */
+final class BigintArrayType implements UserType {
+  static final Type INSTANCE = new CustomType(new BigintArrayType());
+
+  private BigintArrayType() {
+  }
+
+  @Override
+  public int[] sqlTypes() {
+    return new int[]{Types.ARRAY};
+  }
+
+  @Override
+  public Class returnedClass() {
+    return Long[].class;
+  }
+
+  @Override
+  public boolean equals(Object x, Object y) {
+    return Objects.deepEquals(x, y);
+  }
+
+  @Override
+  public int hashCode(Object x) {
+    return Arrays.hashCode((Object[]) x);
+  }
+
+  @Override
+  public Object nullSafeGet(ResultSet rs, String[] names,
+      SharedSessionContractImplementor session, Object owner) {
+    throw new UnsupportedOperationException("bigint[] columns are not supported");
+  }
+
+  @Override
+  public void nullSafeSet(PreparedStatement st, Object value, int index,
+      SharedSessionContractImplementor session) throws SQLException {
+    if (null == value) {
+      st.setNull(index, Types.ARRAY);
+    } else {
+      st.setArray(index, st.getConnection().createArrayOf("bigint", (Object[]) value));
+    }
+  }
+
+  @Override
+  public Object deepCopy(Object value) {
+    return null == value ? null : ((Long[]) value).clone();
+  }
+
+  @Override
+  public boolean isMutable() {
+    return true;
+  }
+
+  @Override
+  public Serializable disassemble(Object value) {
+    return (Serializable) deepCopy(value);
+  }
+
+  @Override
+  public Object assemble(Serializable cached, Object owner) {
+    return deepCopy(cached);
+  }
+
+  @Override
+  public Object replace(Object original, Object target, Object owner) {
+    return deepCopy(original);
+  }
+
+}
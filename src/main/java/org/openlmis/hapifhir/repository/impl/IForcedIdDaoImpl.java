@@ -0,0 +1,367 @@
+/*
+ * This program is part of the OpenLMIS logistics management information system platform software.
+ * Copyright © 2017 VillageReach
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms
+ * of the GNU Affero General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details. You should have received a copy of
+ * the GNU Affero General Public License along with this program. If not, see
+ * http://www.gnu.org/licenses.  For additional information contact info@OpenLMIS.org.
+ */
+
+package org.openlmis.hapifhir.repository.impl;
+
+import ca.uhn.fhir.jpa.dao.data.IForcedIdDao;
+import ca.uhn.fhir.jpa.model.entity.ForcedId;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.IntConsumer;
+import javax.annotation.PostConstruct;
+import javax.persistence.EntityManager;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.annotation.Primary;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.jpa.repository.support.SimpleJpaRepository;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.util.CollectionUtils;
+
+/**
+ * Caches the mapping between forced ids and pids of resources. With the UUID id strategy every
+ * read, update and reference resolution translates a forced id to a pid, so most of these
+ * lookups are served from memory. Forced ids are never reassigned to other resources, so the
+ * mapping is added to the cache when it is read or when the transaction that created it has been
+ * committed, and removed when the forced id is deleted.
+ */
+@Primary
+@Component
+public class IForcedIdDaoImpl
+    extends SimpleJpaRepository<ForcedId, Long>
+    implements IForcedIdDao {
+
+  private static final String FIND_BY_FORCED_ID = "SELECT f FROM ForcedId f"
+      + " WHERE f.myForcedId = :forced_id";
+
+  private static final String FIND_BY_TYPE_AND_FORCED_ID = "SELECT f FROM ForcedId f"
+      + " WHERE f.myResourceType = :resource_type AND f.myForcedId = :forced_id";
+
+  private static final String FIND_BY_RESOURCE_PIDS = "SELECT f FROM ForcedId f"
+      + " WHERE f.myResourcePid IN (:pids)";
+
+  // ordered by the columns of IDX_FORCEDID_TYPE_FID, so the query can read the index only
+  private static final String FIND_ALL_IDS = "SELECT f.myResourceType, f.myForcedId,"
+      + " f.myResourcePid FROM ForcedId f ORDER BY f.myResourceType, f.myForcedId";
+
+  private static final String CACHE_NAME = "forcedIds";
+
+  private final Logger logger = LoggerFactory.getLogger(getClass());
+
+  @Value("${forcedIds.cache.maxSize}")
+  private long maxSize;
+
+  @Value("${forcedIds.cache.prewarm}")
+  private boolean prewarm;
+
+  @Autowired
+  private MeterRegistry meterRegistry;
+
+  private EntityManager entityManager;
+
+  private Cache<String, Long> pids;
+  private Cache<Long, CachedForcedId> forcedIds;
+
+  @Autowired
+  public IForcedIdDaoImpl(EntityManager entityManager) {
+    super(ForcedId.class, entityManager);
+    this.entityManager = entityManager;
+  }
+
+  @PostConstruct
+  void init() {
+    pids = CaffeineCacheMetrics.monitor(meterRegistry,
+        Caffeine.newBuilder().maximumSize(maxSize).recordStats().<String, Long>build(),
+        CACHE_NAME, "lookup", "pid");
+    forcedIds = CaffeineCacheMetrics.monitor(meterRegistry,
+        Caffeine.newBuilder().maximumSize(maxSize).recordStats().<Long, CachedForcedId>build(),
+        CACHE_NAME, "lookup", "forcedId");
+  }
+
+  /**
+   * Loads existing forced ids into the cache, up to its max size.
+   */
+  @EventListener(ApplicationReadyEvent.class)
+  public void prewarm() {
+    if (!prewarm) {
+      return;
+    }
+
+    long start = System.currentTimeMillis();
+    List<?> rows = entityManager
+        .createQuery(FIND_ALL_IDS)
+        .setMaxResults((int) Math.min(maxSize, Integer.MAX_VALUE))
+        .getResultList();
+
+    for (Object row : rows) {
+      Object[] columns = (Object[]) row;
+      cache(new CachedForcedId((String) columns[0], (String) columns[1], (Long) columns[2]));
+    }
+
+    logger.info("Loaded {} forced ids into cache in {} ms",
+        rows.size(), System.currentTimeMillis() - start);
+  }
+
+  @Override
+  public List<ForcedId> findByForcedId(String forcedId) {
+    return entityManager
+        .createQuery(FIND_BY_FORCED_ID, ForcedId.class)
+        .setParameter("forced_id", forcedId)
+        .getResultList();
+  }
+
+  @Override
+  public List<ForcedId> findByTypeAndForcedId(String resourceType, String forcedId) {
+    String key = key(resourceType, forcedId);
+    Long pid = pids.getIfPresent(key);
+
+    if (null != pid) {
+      return Collections.singletonList(new CachedForcedId(resourceType, forcedId, pid).toEntity());
+    }
+
+    List<ForcedId> found = entityManager
+        .createQuery(FIND_BY_TYPE_AND_FORCED_ID, ForcedId.class)
+        .setParameter("resource_type", resourceType)
+        .setParameter("forced_id", forcedId)
+        .getResultList();
+
+    // forced ids created by the current transaction are cached only when it has been committed
+    if (!isPending(key)) {
+      found.forEach(this::cache);
+    }
+
+    return found;
+  }
+
+  @Override
+  public ForcedId findByResourcePid(Long resourcePid) {
+    Collection<ForcedId> found = findByResourcePids(Collections.singleton(resourcePid));
+    return found.isEmpty() ? null : found.iterator().next();
+  }
+
+  @Override
+  public Collection<ForcedId> findByResourcePids(Collection<Long> resourcePids) {
+    List<ForcedId> found = new ArrayList<>();
+    List<Long> missing = new ArrayList<>();
+
+    for (Long pid : resourcePids) {
+      CachedForcedId cached = forcedIds.getIfPresent(pid);
+
+      if (null == cached) {
+        missing.add(pid);
+      } else {
+        found.add(cached.toEntity());
+      }
+    }
+
+    if (!missing.isEmpty()) {
+      List<ForcedId> loaded = entityManager
+          .createQuery(FIND_BY_RESOURCE_PIDS, ForcedId.class)
+          .setParameter("pids", missing)
+          .getResultList();
+
+      loaded
+          .stream()
+          .filter(forcedId -> !isPending(key(forcedId)))
+          .forEach(this::cache);
+      found.addAll(loaded);
+    }
+
+    return found;
+  }
+
+  @Override
+  @Transactional
+  public <S extends ForcedId> S save(S entity) {
+    Long pid = getPid(entity);
+
+    // the resource type of an existing forced id may be corrected by reindexing
+    if (null != pid) {
+      invalidate(pid);
+    }
+
+    S saved = super.save(entity);
+
+    if (TransactionSynchronizationManager.isSynchronizationActive()) {
+      getPendingForcedIds().put(key(saved), saved);
+    } else {
+      cache(saved);
+    }
+
+    return saved;
+  }
+
+  @Override
+  @Transactional
+  public void delete(ForcedId entity) {
+    super.delete(entity);
+
+    Long pid = getPid(entity);
+    String key = key(entity);
+    invalidate(key, pid);
+
+    // a concurrent lookup may still read the forced id until the deletion is committed
+    afterCompletion(status -> invalidate(key, pid));
+  }
+
+  @Override
+  @Transactional
+  public void deleteInBatch(Iterable<ForcedId> entities) {
+    super.deleteInBatch(entities);
+    invalidateAll();
+    afterCompletion(status -> invalidateAll());
+  }
+
+  @Override
+  @Transactional
+  public void deleteAllInBatch() {
+    super.deleteAllInBatch();
+    invalidateAll();
+    afterCompletion(status -> invalidateAll());
+  }
+
+  private void cache(ForcedId forcedId) {
+    Long pid = getPid(forcedId);
+
+    if (null != pid) {
+      cache(new CachedForcedId(forcedId.getResourceType(), forcedId.getForcedId(), pid));
+    }
+  }
+
+  private void cache(CachedForcedId forcedId) {
+    pids.put(key(forcedId.resourceType, forcedId.forcedId), forcedId.pid);
+    forcedIds.put(forcedId.pid, forcedId);
+  }
+
+  private void invalidate(Long pid) {
+    CachedForcedId cached = forcedIds.getIfPresent(pid);
+
+    if (null != cached) {
+      invalidate(key(cached.resourceType, cached.forcedId), pid);
+    }
+  }
+
+  private void invalidate(String key, Long pid) {
+    pids.invalidate(key);
+
+    if (null != pid) {
+      forcedIds.invalidate(pid);
+    }
+  }
+
+  private void invalidateAll() {
+    pids.invalidateAll();
+    forcedIds.invalidateAll();
+  }
+
+  @SuppressWarnings("unchecked")
+  private boolean isPending(String key) {
+    Map<String, ForcedId> pending = (Map<String, ForcedId>) TransactionSynchronizationManager
+        .getResource(this);
+
+    return null != pending && pending.containsKey(key);
+  }
+
+  /**
+   * Returns forced ids saved in the current transaction, by their keys. They are put into the
+   * cache when the transaction has been committed.
+   */
+  @SuppressWarnings("unchecked")
+  private Map<String, ForcedId> getPendingForcedIds() {
+    Map<String, ForcedId> pending = (Map<String, ForcedId>) TransactionSynchronizationManager
+        .getResource(this);
+
+    if (null == pending) {
+      Map<String, ForcedId> saved = new HashMap<>();
+      TransactionSynchronizationManager.bindResource(this, saved);
+      afterCompletion(status -> {
+        TransactionSynchronizationManager.unbindResourceIfPossible(this);
+
+        if (TransactionSynchronization.STATUS_COMMITTED == status) {
+          saved.values().forEach(this::cache);
+        }
+      });
+      pending = saved;
+    }
+
+    return pending;
+  }
+
+  private void afterCompletion(IntConsumer callback) {
+    if (TransactionSynchronizationManager.isSynchronizationActive()) {
+      TransactionSynchronizationManager.registerSynchronization(
+          new TransactionSynchronizationAdapter() {
+            @Override
+            public void afterCompletion(int status) {
+              callback.accept(status);
+            }
+          });
+    }
+  }
+
+  // the pid column is filled by the database, a new forced id knows only its resource
+  private Long getPid(ForcedId forcedId) {
+    if (null != forcedId.getResourcePid()) {
+      return forcedId.getResourcePid();
+    }
+
+    return null == forcedId.getResource() ? null : forcedId.getResource().getId();
+  }
+
+  private String key(ForcedId forcedId) {
+    return key(forcedId.getResourceType(), forcedId.getForcedId());
+  }
+
+  private String key(String resourceType, String forcedId) {
+    return resourceType + "/" + forcedId;
+  }
+
+  private static final class CachedForcedId {
+    private final String resourceType;
+    private final String forcedId;
+    private final Long pid;
+
+    CachedForcedId(String resourceType, String forcedId, Long pid) {
+      this.resourceType = resourceType;
+      this.forcedId = forcedId;
+      this.pid = pid;
+    }
+
+    // detached copy, callers only read the ids from it
+    ForcedId toEntity() {
+      ForcedId entity = new ForcedId();
+      entity.setResourceType(resourceType);
+      entity.setForcedId(forcedId);
+      entity.setResourcePid(pid);
+      return entity;
+    }
+  }
+
+}
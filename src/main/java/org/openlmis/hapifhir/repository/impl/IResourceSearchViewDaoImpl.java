@@ -17,14 +17,15 @@ package org.openlmis.hapifhir.repository.impl;
 
 import ca.uhn.fhir.jpa.dao.data.IResourceSearchViewDao;
 import ca.uhn.fhir.jpa.entity.ResourceSearchView;
+import com.google.common.collect.Iterables;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
-import java.util.HashMap;
-import java.util.Map;
-import java.util.Objects;
-import java.util.stream.Collectors;
+import java.util.List;
+import javax.annotation.PostConstruct;
 import javax.persistence.EntityManager;
 import org.apache.commons.lang3.text.StrSubstitutor;
+import org.hibernate.jpa.TypedParameterValue;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Primary;
@@ -48,7 +49,7 @@ public class IResourceSearchViewDaoImpl
       + "   h.res_deleted_at as res_deleted_at,"
       + "   h.res_published as res_published,"
       + "   h.res_updated as res_updated,"
-      + "   h.res_text as res_text,"
+      + "   coalesce(h.res_text, lo_get(h.res_text_lob)) as res_text,"
       + "   h.res_encoding as res_encoding,"
       + "   f.forced_id as forced_pid"
       + " FROM"
@@ -56,40 +57,58 @@ public class IResourceSearchViewDaoImpl
       + "   LEFT OUTER JOIN ${schema}.HFJ_FORCED_ID f ON f.resource_pid = h.res_id"
       + "   INNER JOIN ${schema}.HFJ_RESOURCE r ON r.res_id = h.res_id and r.res_ver = h.res_ver"
       + " WHERE"
-      + "   h.res_id IN (${pidList})";
+      + "   h.res_id = ANY(:pids)";
+
+  private static final String PIDS = "pids";
 
   @Value("${spring.jpa.properties.hibernate.default_schema}")
   private String defaultSchema;
 
+  @Value("${search.resourceIds.chunkSize}")
+  private int chunkSize;
+
   private EntityManager entityManager;
 
+  private String query;
+
   @Autowired
   public IResourceSearchViewDaoImpl(EntityManager entityManager) {
     super(ResourceSearchView.class, entityManager);
     this.entityManager = entityManager;
   }
 
+  @PostConstruct
+  void init() {
+    query = StrSubstitutor.replace(NATIVE_QUERY, Collections.singletonMap("schema", defaultSchema));
+  }
+
+  /**
+   * Retrieves resources with the given pids. The query text is the same for every call and pids
+   * are bound as a single array parameter, so the database can reuse the query plan. Long lists
+   * are split into chunks, each retrieved with a separate query.
+   */
   @Override
   public Collection<ResourceSearchView> findByResourceIds(Collection<Long> pids) {
     if (CollectionUtils.isEmpty(pids)) {
       return Collections.emptyList();
     }
 
-    String pidList = pids
-        .stream()
-        .map(Objects::toString)
-        .collect(Collectors.joining(", "));
+    List<ResourceSearchView> views = new ArrayList<>(pids.size());
+
+    for (List<Long> chunk : Iterables.partition(pids, chunkSize)) {
+      TypedParameterValue pidArray = new TypedParameterValue(
+          BigintArrayType.INSTANCE, chunk.toArray(new Long[0]));
 
-    Map<String, String> valueMap = new HashMap<>();
-    valueMap.put("schema", defaultSchema);
-    valueMap.put("pidList", pidList);
+      @SuppressWarnings("unchecked")
+      List<ResourceSearchView> found = entityManager
+          .createNativeQuery(query, ResourceSearchView.class)
+          .setParameter(PIDS, pidArray)
+          .getResultList();
 
-    StrSubstitutor sub = new StrSubstitutor(valueMap);
-    String query = sub.replace(NATIVE_QUERY);
+      views.addAll(found);
+    }
 
-    return entityManager
-        .createNativeQuery(query, ResourceSearchView.class)
-        .getResultList();
+    return views;
   }
 
 }
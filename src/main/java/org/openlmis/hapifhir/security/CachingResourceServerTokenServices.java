@@ -0,0 +1,127 @@
+/*
+ * This program is part of the OpenLMIS logistics management information system platform software.
+ * Copyright © 2017 VillageReach
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms
+ * of the GNU Affero General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details. You should have received a copy of
+ * the GNU Affero General Public License along with this program. If not, see
+ * http://www.gnu.org/licenses.  For additional information contact info@OpenLMIS.org.
+ */
+
+package org.openlmis.hapifhir.security;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+import java.io.Serializable;
+import java.time.Clock;
+import java.util.concurrent.TimeUnit;
+import lombok.AllArgsConstructor;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.oauth2.common.OAuth2AccessToken;
+import org.springframework.security.oauth2.provider.OAuth2Authentication;
+import org.springframework.security.oauth2.provider.OAuth2Request;
+import org.springframework.security.oauth2.provider.token.AccessTokenConverter;
+import org.springframework.security.oauth2.provider.token.ResourceServerTokenServices;
+
+/**
+ * Implementation of {@link ResourceServerTokenServices} that keeps verified authentications in
+ * a bounded, in-memory cache, so a token that is used many times is checked against the auth
+ * service only once per time-to-live. An authentication is never kept longer than its token is
+ * valid, the expiry time is taken from the {@code exp} extension of the OAuth2 request set by
+ * {@link ExpiringAccessTokenConverter}. Tokens are stored in the cache as SHA-256 hashes. Rejected
+ * tokens are never cached. Only the OAuth2 request and the user authentication are cached. Each
+ * call gets a new authentication object, because the authentication manager sets request details
+ * on it.
+ */
+public class CachingResourceServerTokenServices implements ResourceServerTokenServices {
+
+  private final ResourceServerTokenServices delegate;
+  private final long timeToLive;
+  private final Cache<String, VerifiedToken> cache;
+
+  private Clock clock = Clock.systemUTC();
+
+  /**
+   * Creates a new instance.
+   *
+   * @param delegate   token services used to verify tokens which are not in the cache
+   * @param timeToLive how many seconds at most a verified token is kept in the cache
+   * @param maxSize    how many tokens can be kept in the cache
+   */
+  public CachingResourceServerTokenServices(ResourceServerTokenServices delegate,
+      long timeToLive, long maxSize) {
+    this.delegate = delegate;
+    this.timeToLive = TimeUnit.SECONDS.toNanos(timeToLive);
+    this.cache = Caffeine
+        .newBuilder()
+        .expireAfter(new TokenExpiry())
+        .maximumSize(maxSize)
+        .recordStats()
+        .build();
+  }
+
+  @Override
+  public OAuth2Authentication loadAuthentication(String accessToken) {
+    VerifiedToken verified = cache.get(DigestUtils.sha256Hex(accessToken), key -> {
+      OAuth2Authentication authentication = delegate.loadAuthentication(accessToken);
+      return new VerifiedToken(authentication.getOAuth2Request(),
+          authentication.getUserAuthentication());
+    });
+
+    return new OAuth2Authentication(verified.request, verified.userAuthentication);
+  }
+
+  @Override
+  public OAuth2AccessToken readAccessToken(String accessToken) {
+    return delegate.readAccessToken(accessToken);
+  }
+
+  Cache<String, VerifiedToken> getCache() {
+    return cache;
+  }
+
+  private long getLifetime(VerifiedToken verified) {
+    Serializable expiresAt = verified.request.getExtensions().get(AccessTokenConverter.EXP);
+
+    if (!(expiresAt instanceof Long)) {
+      return timeToLive;
+    }
+
+    long untilExpiry = TimeUnit.SECONDS.toMillis((Long) expiresAt) - clock.millis();
+    return Math.max(0, Math.min(timeToLive, TimeUnit.MILLISECONDS.toNanos(untilExpiry)));
+  }
+
+  @AllArgsConstructor
+  static final class VerifiedToken {
+    private final OAuth2Request request;
+    private final Authentication userAuthentication;
+  }
+
+  private final class TokenExpiry implements Expiry<String, VerifiedToken> {
+
+    @Override
+    public long expireAfterCreate(String key, VerifiedToken value, long currentTime) {
+      return getLifetime(value);
+    }
+
+    @Override
+    public long expireAfterUpdate(String key, VerifiedToken value, long currentTime,
+        long currentDuration) {
+      return getLifetime(value);
+    }
+
+    @Override
+    public long expireAfterRead(String key, VerifiedToken value, long currentTime,
+        long currentDuration) {
+      return currentDuration;
+    }
+  }
+
+}
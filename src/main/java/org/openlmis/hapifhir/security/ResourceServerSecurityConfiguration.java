@@ -15,6 +15,8 @@
 
 package org.openlmis.hapifhir.security;
 
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
 import java.io.IOException;
 import java.util.Arrays;
 import javax.servlet.FilterChain;
@@ -37,6 +39,7 @@ import org.springframework.security.oauth2.provider.authentication.TokenExtracto
 import org.springframework.security.oauth2.provider.token.AccessTokenConverter;
 import org.springframework.security.oauth2.provider.token.DefaultAccessTokenConverter;
 import org.springframework.security.oauth2.provider.token.RemoteTokenServices;
+import org.springframework.security.oauth2.provider.token.ResourceServerTokenServices;
 import org.springframework.security.web.authentication.preauth.AbstractPreAuthenticatedProcessingFilter;
 import org.springframework.web.cors.CorsConfiguration;
 import org.springframework.web.cors.CorsConfigurationSource;
@@ -88,7 +91,8 @@ public class ResourceServerSecurityConfiguration implements ResourceServerConfig
             "/hapifhir",
             "/webjars/**",
             "/hapifhir/webjars/**",
-            "/hapifhir/docs/**"
+            "/hapifhir/docs/**",
+            "/actuator/health"
         ).permitAll()
         .antMatchers("/**").fullyAuthenticated();
   }
@@ -98,31 +102,43 @@ public class ResourceServerSecurityConfiguration implements ResourceServerConfig
    */
   @Bean
   public AccessTokenConverter accessTokenConverter() {
-    DefaultAccessTokenConverter defaultAccessTokenConverter = new DefaultAccessTokenConverter();
+    DefaultAccessTokenConverter defaultAccessTokenConverter = new ExpiringAccessTokenConverter();
     defaultAccessTokenConverter.setUserTokenConverter(new CustomUserAuthenticationConverter());
     return defaultAccessTokenConverter;
   }
 
   /**
-   * RemoteTokenServices bean initializer.
+   * ResourceServerTokenServices bean initializer. Tokens are verified by the auth service and
+   * the results are cached for a limited time.
    *
    * @param checkTokenUrl url to check tokens against
    * @param clientId      client's id
    * @param clientSecret  client's secret
+   * @param cacheTtl      how many seconds a verified token is cached
+   * @param cacheMaxSize  how many verified tokens can be cached
+   * @param meterRegistry registry for the cache metrics
    * @return token services
    */
   @Bean
   @Autowired
-  public RemoteTokenServices remoteTokenServices(@Value("${auth.server.url}") String checkTokenUrl,
-                                                 @Value("${auth.server.clientId}") String clientId,
-                                                 @Value("${auth.server.clientSecret}")
-                                                     String clientSecret) {
+  public ResourceServerTokenServices tokenServices(
+      @Value("${auth.server.url}") String checkTokenUrl,
+      @Value("${auth.server.clientId}") String clientId,
+      @Value("${auth.server.clientSecret}") String clientSecret,
+      @Value("${auth.server.tokenCache.ttl}") long cacheTtl,
+      @Value("${auth.server.tokenCache.maxSize}") long cacheMaxSize,
+      MeterRegistry meterRegistry) {
     final RemoteTokenServices remoteTokenServices = new RemoteTokenServices();
     remoteTokenServices.setCheckTokenEndpointUrl(checkTokenUrl);
     remoteTokenServices.setClientId(clientId);
     remoteTokenServices.setClientSecret(clientSecret);
     remoteTokenServices.setAccessTokenConverter(accessTokenConverter());
-    return remoteTokenServices;
+
+    CachingResourceServerTokenServices tokenServices =
+        new CachingResourceServerTokenServices(remoteTokenServices, cacheTtl, cacheMaxSize);
+    CaffeineCacheMetrics.monitor(meterRegistry, tokenServices.getCache(), "checkToken");
+
+    return tokenServices;
   }
 
   /**
@@ -18,11 +18,21 @@ package org.openlmis.hapifhir.service;
 import static org.openlmis.hapifhir.service.RequestHelper.createUri;
 
 import java.net.URI;
+import java.time.Clock;
+import java.time.Instant;
 import java.util.Collections;
 import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import javax.annotation.PreDestroy;
 import org.apache.commons.codec.binary.Base64;
 import org.apache.commons.lang.StringUtils;
+import org.apache.commons.lang3.math.NumberUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.http.HttpEntity;
 import org.springframework.http.HttpHeaders;
@@ -30,11 +40,13 @@ import org.springframework.http.HttpMethod;
 import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Service;
 import org.springframework.web.client.RestOperations;
-import org.springframework.web.client.RestTemplate;
 
 @Service
 public class AuthService {
   private static final String ACCESS_TOKEN = "access_token";
+  private static final String EXPIRES_IN = "expires_in";
+
+  private final Logger logger = LoggerFactory.getLogger(getClass());
 
   @Value("${auth.server.clientId}")
   private String clientId;
@@ -45,14 +57,104 @@ public class AuthService {
   @Value("${auth.server.authorizationUrl}")
   private String authorizationUrl;
 
-  private RestOperations restTemplate = new RestTemplate();
+  @Value("${auth.server.tokenRefreshMargin}")
+  private long tokenRefreshMargin;
+
+  @Autowired
+  private RestOperations restTemplate;
+
+  private Clock clock = Clock.systemUTC();
+
+  private final Object tokenLock = new Object();
+  private final AtomicBoolean refreshInProgress = new AtomicBoolean();
+  private final ExecutorService refreshExecutor = Executors.newSingleThreadExecutor(runnable -> {
+    Thread thread = new Thread(runnable, "auth-token-refresh");
+    thread.setDaemon(true);
+    return thread;
+  });
+
+  private volatile CachedToken cachedToken;
 
   /**
-   * Retrieves access token from the auth service.
+   * Retrieves access token for this service. The token is cached until it expires, so most calls
+   * do not reach the auth service. Shortly before the expiry a new token is requested in the
+   * background while the current one is still handed out. Only one request for a new token is
+   * sent at a time, other callers wait for it and reuse its result.
    *
    * @return token.
    */
   public String obtainAccessToken() {
+    CachedToken token = cachedToken;
+
+    if (null == token || token.isExpired(now())) {
+      return refreshToken(token);
+    }
+
+    if (token.isExpiringSoon(now(), tokenRefreshMargin)) {
+      refreshTokenInBackground(token);
+    }
+
+    return token.getValue();
+  }
+
+  /**
+   * Removes the given token from the cache, so the next call to {@link #obtainAccessToken()} will
+   * retrieve a new one. A token which has already been replaced is left untouched.
+   *
+   * @param token the token that has been rejected by other service.
+   */
+  public void invalidateToken(String token) {
+    synchronized (tokenLock) {
+      if (null != cachedToken && cachedToken.getValue().equals(token)) {
+        logger.debug("Invalidate cached access token");
+        cachedToken = null;
+      }
+    }
+  }
+
+  @PreDestroy
+  void shutdown() {
+    refreshExecutor.shutdownNow();
+  }
+
+  private String refreshToken(CachedToken stale) {
+    synchronized (tokenLock) {
+      CachedToken current = cachedToken;
+
+      // other thread has already replaced the token while this one was waiting for the lock
+      if (null != current && current != stale && !current.isExpired(now())) {
+        return current.getValue();
+      }
+
+      CachedToken fresh = requestAccessToken();
+      cachedToken = fresh.isExpired(now()) ? null : fresh;
+
+      return fresh.getValue();
+    }
+  }
+
+  private void refreshTokenInBackground(CachedToken stale) {
+    if (!refreshInProgress.compareAndSet(false, true)) {
+      return;
+    }
+
+    try {
+      refreshExecutor.execute(() -> {
+        try {
+          refreshToken(stale);
+        } catch (RuntimeException exp) {
+          logger.warn("Unable to refresh access token in background", exp);
+        } finally {
+          refreshInProgress.set(false);
+        }
+      });
+    } catch (RuntimeException exp) {
+      refreshInProgress.set(false);
+      throw exp;
+    }
+  }
+
+  private CachedToken requestAccessToken() {
     String plainCreds = clientId + ":" + clientSecret;
     byte[] plainCredsBytes = plainCreds.getBytes();
     byte[] base64CredsBytes = Base64.encodeBase64(plainCredsBytes);
@@ -71,10 +173,42 @@ public class AuthService {
     ResponseEntity<Map<String, String>> response = restTemplate.exchange(
         uri, HttpMethod.POST, request, new DynamicMapTypeReference<>(String.class, String.class));
 
-    return Optional
+    Map<String, String> body = Optional
         .ofNullable(response.getBody())
-        .orElse(Collections.emptyMap())
-        .getOrDefault(ACCESS_TOKEN, StringUtils.EMPTY);
+        .orElse(Collections.emptyMap());
+
+    // a token without known lifetime is treated as already expired and it is not cached
+    long expiresIn = NumberUtils.toLong(body.get(EXPIRES_IN), 0);
+
+    return new CachedToken(
+        body.getOrDefault(ACCESS_TOKEN, StringUtils.EMPTY),
+        now().plusSeconds(expiresIn));
+  }
+
+  private Instant now() {
+    return clock.instant();
+  }
+
+  private static final class CachedToken {
+    private final String value;
+    private final Instant expiresAt;
+
+    CachedToken(String value, Instant expiresAt) {
+      this.value = value;
+      this.expiresAt = expiresAt;
+    }
+
+    String getValue() {
+      return value;
+    }
+
+    boolean isExpired(Instant now) {
+      return !now.isBefore(expiresAt);
+    }
+
+    boolean isExpiringSoon(Instant now, long marginInSeconds) {
+      return !now.plusSeconds(marginInSeconds).isBefore(expiresAt);
+    }
   }
 
 }
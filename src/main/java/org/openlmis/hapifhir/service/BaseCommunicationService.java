@@ -15,19 +15,36 @@
 
 package org.openlmis.hapifhir.service;
 
+import static java.nio.charset.StandardCharsets.UTF_8;
 import static org.openlmis.hapifhir.service.RequestHelper.createEntity;
 import static org.openlmis.hapifhir.service.RequestHelper.createUri;
 
+import io.github.resilience4j.bulkhead.Bulkhead;
+import io.github.resilience4j.bulkhead.BulkheadFullException;
+import io.github.resilience4j.circuitbreaker.CircuitBreaker;
+import io.github.resilience4j.circuitbreaker.CircuitBreakerOpenException;
 import java.net.URI;
+import java.util.Collections;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import org.openlmis.hapifhir.i18n.Message;
+import org.openlmis.hapifhir.i18n.MessageKeys;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.core.ParameterizedTypeReference;
-import org.springframework.http.HttpEntity;
 import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
+import org.springframework.web.client.HttpClientErrorException;
+import org.springframework.web.client.HttpServerErrorException;
+import org.springframework.web.client.HttpStatusCodeException;
+import org.springframework.web.client.ResponseExtractor;
 import org.springframework.web.client.RestOperations;
-import org.springframework.web.client.RestTemplate;
+import org.springframework.web.reactive.function.client.WebClient;
+import org.springframework.web.reactive.function.client.WebClientResponseException;
+import reactor.core.publisher.Mono;
 
 public abstract class BaseCommunicationService {
   protected final Logger logger = LoggerFactory.getLogger(getClass());
@@ -35,7 +52,17 @@ public abstract class BaseCommunicationService {
   @Autowired
   private AuthService authService;
 
-  private RestOperations restTemplate = new RestTemplate();
+  @Autowired
+  private RestOperations restTemplate;
+
+  @Autowired
+  private WebClient webClient;
+
+  @Autowired
+  private CircuitBreaker circuitBreaker;
+
+  @Autowired
+  private Bulkhead bulkhead;
 
   protected abstract String getServiceUrl();
 
@@ -44,25 +71,164 @@ public abstract class BaseCommunicationService {
   protected <P> ResponseEntity<P> execute(String resourceUrl, RequestParameters parameters,
                                           RequestHeaders headers, Object payload,
                                           HttpMethod method, Class<P> type) {
-    String url = getServiceUrl() + getUrl() + resourceUrl;
-    URI uri = createUri(url, parameters);
-    HttpEntity<Object> entity = createEntity(payload, addAuthHeader(headers));
-    return restTemplate.exchange(uri, method, entity, type);
+    URI uri = createUri(getServiceUrl() + getUrl() + resourceUrl, parameters);
+    return executeWithToken(token -> restTemplate
+        .exchange(uri, method, createEntity(payload, addAuthHeader(headers, token)), type));
   }
 
   protected <P> ResponseEntity<P> execute(String resourceUrl, RequestParameters parameters,
                                           RequestHeaders headers, Object payload,
                                           HttpMethod method, ParameterizedTypeReference<P> type) {
-    String url = getServiceUrl() + getUrl() + resourceUrl;
-    URI uri = createUri(url, parameters);
-    HttpEntity<Object> entity = createEntity(payload, addAuthHeader(headers));
-    return restTemplate.exchange(uri, method, entity, type);
+    URI uri = createUri(getServiceUrl() + getUrl() + resourceUrl, parameters);
+    return executeWithToken(token -> restTemplate
+        .exchange(uri, method, createEntity(payload, addAuthHeader(headers, token)), type));
+  }
+
+  /**
+   * Sends GET request and hands the response over to the given extractor, which can read the
+   * body as a stream instead of converting it to an object at once.
+   */
+  protected <P> P execute(String resourceUrl, RequestParameters parameters,
+                          ResponseExtractor<P> extractor) {
+    URI uri = createUri(getServiceUrl() + getUrl() + resourceUrl, parameters);
+    return executeWithToken(token -> restTemplate.execute(uri, HttpMethod.GET,
+        request -> {
+          request.getHeaders().putAll(addAuthHeader(null, token).toHeaders());
+          request.getHeaders().setAccept(Collections.singletonList(MediaType.APPLICATION_JSON));
+        },
+        extractor));
+  }
+
+  /**
+   * Sends GET request without blocking the calling thread. The returned {@link Mono} is lazy, the
+   * request is sent when it is subscribed. It goes through the same circuit breaker and bulkhead
+   * as blocking requests, and error responses are signalled as {@link HttpStatusCodeException},
+   * so they can be mapped in the same way.
+   */
+  protected <P> Mono<P> executeAsync(String resourceUrl, RequestParameters parameters,
+                                     ParameterizedTypeReference<P> type) {
+    URI uri = createUri(getServiceUrl() + getUrl() + resourceUrl, parameters);
+
+    return Mono
+        .defer(() -> {
+          String token = authService.obtainAccessToken();
+          return guard(Mono.defer(() -> sendAsyncWithToken(uri, type, token)));
+        })
+        .onErrorMap(exp -> exp instanceof CircuitBreakerOpenException
+            || exp instanceof BulkheadFullException, exp -> {
+              logger.warn("Request to {} has been rejected: {}", getServiceUrl(), exp.getMessage());
+              return toServiceUnavailableException(exp);
+            });
+  }
+
+  /**
+   * Counterpart of the decorators used for blocking requests. Permits are checked when the
+   * request is subscribed, so a rejected request is never sent, and the bulkhead is released when
+   * the response has been read or the request has been cancelled.
+   */
+  private <P> Mono<P> guard(Mono<P> request) {
+    return Mono.defer(() -> {
+      if (!circuitBreaker.isCallPermitted()) {
+        return Mono.error(new CircuitBreakerOpenException(
+            String.format("CircuitBreaker '%s' is open", circuitBreaker.getName())));
+      }
+
+      long start = System.nanoTime();
+      Mono<P> limited = bulkhead.isCallPermitted()
+          ? request.doFinally(signal -> bulkhead.onComplete())
+          : Mono.error(new BulkheadFullException(
+              String.format("Bulkhead '%s' is full", bulkhead.getName())));
+
+      return limited
+          .doOnSuccess(value -> circuitBreaker.onSuccess(System.nanoTime() - start))
+          .doOnError(exp -> circuitBreaker.onError(System.nanoTime() - start, exp));
+    });
+  }
+
+  private <P> Mono<P> sendAsyncWithToken(URI uri, ParameterizedTypeReference<P> type,
+      String token) {
+    return sendAsync(uri, type, token)
+        .onErrorResume(this::isUnauthorized, exp -> {
+          logger.debug("The access token has been rejected, retry request with a new one");
+          authService.invalidateToken(token);
+
+          return Mono.defer(() -> sendAsync(uri, type, authService.obtainAccessToken()));
+        });
+  }
+
+  private <P> Mono<P> sendAsync(URI uri, ParameterizedTypeReference<P> type, String token) {
+    return webClient
+        .get()
+        .uri(uri)
+        .headers(headers -> headers.putAll(addAuthHeader(null, token).toHeaders()))
+        .accept(MediaType.APPLICATION_JSON)
+        .retrieve()
+        .bodyToMono(type)
+        .onErrorMap(WebClientResponseException.class, this::toStatusCodeException);
+  }
+
+  private boolean isUnauthorized(Throwable exp) {
+    return exp instanceof HttpStatusCodeException
+        && HttpStatus.UNAUTHORIZED == ((HttpStatusCodeException) exp).getStatusCode();
+  }
+
+  private HttpStatusCodeException toStatusCodeException(WebClientResponseException exp) {
+    HttpStatus status = exp.getStatusCode();
+    byte[] body = exp.getResponseBodyAsByteArray();
+
+    return status.is4xxClientError()
+        ? new HttpClientErrorException(status, exp.getStatusText(), exp.getHeaders(), body, UTF_8)
+        : new HttpServerErrorException(status, exp.getStatusText(), exp.getHeaders(), body, UTF_8);
+  }
+
+  private ServiceUnavailableException toServiceUnavailableException(Throwable exp) {
+    return new ServiceUnavailableException(
+        new Message(MessageKeys.ERROR_SERVICE_UNAVAILABLE, getServiceUrl()), exp);
+  }
+
+  /**
+   * Sends request through the circuit breaker and the bulkhead. When the other service keeps
+   * failing or too many requests are already waiting for it, the request is rejected at once with
+   * {@link ServiceUnavailableException}. The token is obtained before, so failures of the auth
+   * service are not recorded as failures of the other service.
+   */
+  private <P> P executeWithToken(Function<String, P> request) {
+    String token = authService.obtainAccessToken();
+    Supplier<P> guarded = CircuitBreaker.decorateSupplier(circuitBreaker,
+        Bulkhead.decorateSupplier(bulkhead, () -> sendWithToken(request, token)));
+
+    try {
+      return guarded.get();
+    } catch (CircuitBreakerOpenException | BulkheadFullException exp) {
+      logger.warn("Request to {} has been rejected: {}", getServiceUrl(), exp.getMessage());
+      throw toServiceUnavailableException(exp);
+    }
+  }
+
+  /**
+   * Sends request with the given service token. If the token has been rejected (for example it
+   * was revoked before it expired), the token is removed from the cache and the request is sent
+   * once again with a new one.
+   */
+  private <P> P sendWithToken(Function<String, P> request, String token) {
+    try {
+      return request.apply(token);
+    } catch (HttpStatusCodeException exp) {
+      if (HttpStatus.UNAUTHORIZED != exp.getStatusCode()) {
+        throw exp;
+      }
+
+      logger.debug("The access token has been rejected, retry request with a new one");
+      authService.invalidateToken(token);
+
+      return request.apply(authService.obtainAccessToken());
+    }
   }
 
-  private RequestHeaders addAuthHeader(RequestHeaders headers) {
+  private RequestHeaders addAuthHeader(RequestHeaders headers, String token) {
     return RequestHeaders
         .init()
         .setAll(headers)
-        .setAuth(authService.obtainAccessToken());
+        .setAuth(token);
   }
 }
@@ -0,0 +1,75 @@
+/*
+ * This program is part of the OpenLMIS logistics management information system platform software.
+ * Copyright © 2017 VillageReach
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms
+ * of the GNU Affero General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details. You should have received a copy of
+ * the GNU Affero General Public License along with this program. If not, see
+ * http://www.gnu.org/licenses.  For additional information contact info@OpenLMIS.org.
+ */
+
+package org.openlmis.hapifhir.service;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import lombok.ToString;
+
+/**
+ * Outcome of {@link ResourceCommunicationService#updateAll(java.util.Collection)}: resources
+ * returned by successful updates and the exceptions of failed ones, by resource id.
+ *
+ * @param <T> type of updated resources
+ */
+@ToString
+public final class BulkUpdateResult<T extends BaseDto> {
+  private final List<T> updated = new ArrayList<>();
+  private final Map<UUID, RuntimeException> failures = new LinkedHashMap<>();
+
+  void addUpdated(T resource) {
+    updated.add(resource);
+  }
+
+  void addFailure(T payload, RuntimeException exp) {
+    failures.put(payload.getId(), exp);
+  }
+
+  public List<T> getUpdated() {
+    return Collections.unmodifiableList(updated);
+  }
+
+  public Map<UUID, RuntimeException> getFailures() {
+    return Collections.unmodifiableMap(failures);
+  }
+
+  public boolean hasFailures() {
+    return !failures.isEmpty();
+  }
+
+  /**
+   * Throws the exception of the first failed update, with exceptions of other failed updates
+   * added as suppressed. Does nothing if all updates have succeeded.
+   */
+  public void rethrowFailures() {
+    if (!hasFailures()) {
+      return;
+    }
+
+    List<RuntimeException> exceptions = new ArrayList<>(failures.values());
+    RuntimeException first = exceptions.get(0);
+    exceptions
+        .subList(1, exceptions.size())
+        .forEach(first::addSuppressed);
+
+    throw first;
+  }
+
+}
@@ -0,0 +1,135 @@
+/*
+ * This program is part of the OpenLMIS logistics management information system platform software.
+ * Copyright © 2017 VillageReach
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms
+ * of the GNU Affero General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details. You should have received a copy of
+ * the GNU Affero General Public License along with this program. If not, see
+ * http://www.gnu.org/licenses.  For additional information contact info@OpenLMIS.org.
+ */
+
+package org.openlmis.hapifhir.service;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import io.micrometer.core.instrument.MeterRegistry;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import javax.annotation.PreDestroy;
+import org.openlmis.hapifhir.repository.LargeObjectColumn;
+import org.openlmis.hapifhir.repository.LargeObjectMigrationRepository;
+import org.slf4j.ext.XLogger;
+import org.slf4j.ext.XLoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationStartedEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+
+/**
+ * Copies binary values from large objects to {@code bytea} columns in the background. Each run
+ * copies a single batch of every column and continues after the last copied row, on a scheduler
+ * thread of its own. When the end of a table is reached, the copy starts over until no row with a
+ * large object is left.
+ */
+@Service
+public class LargeObjectMigrationService {
+
+  private final XLogger logger = XLoggerFactory.getXLogger(getClass());
+
+  @Value("${largeObjects.migration.enabled}")
+  private boolean enabled;
+
+  @Value("${largeObjects.migration.batchSize}")
+  private int batchSize;
+
+  @Value("${largeObjects.migration.interval}")
+  private long interval;
+
+  @Autowired
+  private LargeObjectMigrationRepository largeObjectMigrationRepository;
+
+  @Autowired
+  private MeterRegistry meterRegistry;
+
+  private final Map<LargeObjectColumn, Long> positions = new EnumMap<>(LargeObjectColumn.class);
+  private final Set<LargeObjectColumn> finished = EnumSet.noneOf(LargeObjectColumn.class);
+
+  private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(
+      new ThreadFactoryBuilder()
+          .setNameFormat("large-objects-migration-%d")
+          .setDaemon(true)
+          .build());
+
+  /**
+   * Starts copying, if it is enabled.
+   */
+  @EventListener(ApplicationStartedEvent.class)
+  public void start() {
+    if (enabled) {
+      scheduler.scheduleWithFixedDelay(this::copyLargeObjects, interval, interval,
+          TimeUnit.MILLISECONDS);
+    }
+  }
+
+  @PreDestroy
+  void shutdown() {
+    scheduler.shutdownNow();
+  }
+
+  /**
+   * Copies the next batch of values of each column that has not been finished yet.
+   */
+  public void copyLargeObjects() {
+    for (LargeObjectColumn column : LargeObjectColumn.values()) {
+      if (finished.contains(column)) {
+        continue;
+      }
+
+      try {
+        copyBatch(column);
+      } catch (RuntimeException exp) {
+        // the batch is rolled back and copied again in the next run
+        logger.warn("Unable to copy large objects of {}", column, exp);
+      }
+    }
+  }
+
+  private void copyBatch(LargeObjectColumn column) {
+    if (!positions.containsKey(column) && !largeObjectMigrationRepository.exists(column)) {
+      finished.add(column);
+      return;
+    }
+
+    List<Long> copied = largeObjectMigrationRepository
+        .copy(column, positions.getOrDefault(column, 0L), batchSize);
+
+    meterRegistry
+        .counter("largeObjects.migration.copied", "column", column.name())
+        .increment(copied.size());
+
+    if (copied.size() == batchSize) {
+      positions.put(column, copied.get(copied.size() - 1));
+      return;
+    }
+
+    // rows that have been locked by other transactions are copied in the next pass
+    if (largeObjectMigrationRepository.hasRemaining(column)) {
+      positions.put(column, 0L);
+    } else {
+      logger.info("All large objects of {} have been copied", column);
+      finished.add(column);
+    }
+  }
+
+}
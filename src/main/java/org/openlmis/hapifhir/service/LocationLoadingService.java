@@ -15,46 +15,94 @@
 
 package org.openlmis.hapifhir.service;
 
+import static java.math.RoundingMode.CEILING;
 import static org.apache.commons.lang3.BooleanUtils.isTrue;
 
+import ca.uhn.fhir.jpa.dao.BaseHapiFhirDao;
+import ca.uhn.fhir.jpa.dao.DaoConfig;
 import ca.uhn.fhir.jpa.dao.IFhirResourceDao;
+import ca.uhn.fhir.jpa.dao.IFhirSystemDao;
+import ca.uhn.fhir.jpa.searchparam.ResourceMetaParams;
+import com.google.common.base.Throwables;
+import com.google.common.collect.Lists;
+import com.google.common.hash.Hashing;
+import com.google.common.math.IntMath;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.vividsolutions.jts.geom.Point;
-import java.util.Comparator;
+import io.micrometer.core.instrument.MeterRegistry;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
-import javax.transaction.Transactional;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import org.hl7.fhir.r4.model.Bundle;
+import org.hl7.fhir.r4.model.Bundle.BundleType;
+import org.hl7.fhir.r4.model.Bundle.HTTPVerb;
 import org.hl7.fhir.r4.model.CodeableConcept;
 import org.hl7.fhir.r4.model.Coding;
 import org.hl7.fhir.r4.model.DecimalType;
 import org.hl7.fhir.r4.model.Location;
 import org.hl7.fhir.r4.model.Location.LocationPositionComponent;
 import org.hl7.fhir.r4.model.Location.LocationStatus;
+import org.hl7.fhir.r4.model.Meta;
 import org.hl7.fhir.r4.model.Reference;
 import org.hl7.fhir.r4.model.codesystems.LocationPhysicalType;
+import org.openlmis.hapifhir.repository.ResourceHashRepository;
 import org.openlmis.hapifhir.service.referencedata.FacilityDto;
 import org.openlmis.hapifhir.service.referencedata.FacilityReferenceDataService;
 import org.openlmis.hapifhir.service.referencedata.GeographicZoneDto;
 import org.openlmis.hapifhir.service.referencedata.GeographicZoneReferenceDataService;
-import org.openlmis.hapifhir.service.referencedata.ReferenceDataVersionService;
 import org.slf4j.ext.XLogger;
 import org.slf4j.ext.XLoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Page;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
 
 @Service
 public class LocationLoadingService {
 
   private final XLogger logger = XLoggerFactory.getXLogger(getClass());
   private static final String KEY_URI_IDENTIFIER = "urn:ietf:rfc:3986";
+  private static final String LOCATION = "Location";
+  private static final String PAGE = "page";
+  private static final String SIZE = "size";
+  private static final String GEOGRAPHIC_ZONES = "geographicZones";
+  private static final String FACILITIES = "facilities";
+  private static final String METRIC_NAME = "locations.load";
+  private static final String RESOURCE_TYPE = "resourceType";
+  private static final String RESULT = "result";
 
   @Value("${service.url}")
   private String serviceUrl;
 
-  @Autowired
-  private ReferenceDataVersionService referenceDataVersionService;
-  
+  @Value("${locations.load.pageSize}")
+  private int pageSize;
+
+  @Value("${locations.load.bundleSize}")
+  private int bundleSize;
+
+  @Value("${locations.load.threads}")
+  private int threads;
+
+  @Value("${locations.load.prefetch}")
+  private int prefetch;
+
   @Autowired
   private GeographicZoneReferenceDataService geographicZoneService;
 
@@ -65,60 +113,263 @@ public class LocationLoadingService {
   @Qualifier("myLocationDaoR4")
   private IFhirResourceDao<Location> locationDao;
 
+  @Autowired
+  @Qualifier("mySystemDaoR4")
+  private IFhirSystemDao<Bundle, Meta> systemDao;
+
+  @Autowired
+  private PlatformTransactionManager transactionManager;
+
+  @Autowired
+  private ResourceHashRepository resourceHashRepository;
+
+  @Autowired
+  private DaoConfig daoConfig;
+
+  @Autowired
+  private MeterRegistry meterRegistry;
+
+  // the next page (or zone level) to load for each resource type, kept only until loading ends
+  private final Map<String, Integer> checkpoints = new ConcurrentHashMap<>();
+
+  // demo data and scheduled synchronization use the same checkpoints, so they take turns
+  private final Lock loading = new ReentrantLock();
+
   /**
-   * Wait for Reference Data service to be available.
+   * Load geographic zones into FHIR datastore. Zones have to be saved in order of their levels, so
+   * parents exist when their children reference them. Because of that all zones are retrieved
+   * before saving, which is acceptable as the zone hierarchy is much smaller than the facility
+   * list. Zones of one level are saved in parallel, in chunks with own transactions, and the next
+   * level is started only when the whole previous one has been committed. If saving fails, the
+   * next call resumes from the first level that has not been committed. Only one load runs at a
+   * time, other callers wait for it to end.
    */
-  public void waitForReferenceData() throws InterruptedException {
-    //wait until reference data returns its version info
-    while (true) {
-      VersionDto version = null;
-      try {
-        version = referenceDataVersionService.getInfo();
-      } catch (Exception exc) {
-        logger.info("Reference data version not found, trying again, exception = " + exc);
+  public void loadGeographicZones() throws InterruptedException {
+    loading.lockInterruptibly();
+
+    try {
+      fetchAndSaveGeographicZones();
+    } finally {
+      loading.unlock();
+    }
+  }
+
+  private void fetchAndSaveGeographicZones() throws InterruptedException {
+    logger.info("Get geographic zones");
+    List<GeographicZoneDto> geographicZones = new ArrayList<>();
+
+    try (PageIterator<GeographicZoneDto> pages = new PageIterator<>(
+        pageNumber -> getPage(geographicZoneService, pageNumber), 0, prefetch)) {
+      while (pages.hasNext()) {
+        geographicZones.addAll(pages.next().getContent());
       }
-      if (null != version) {
-        logger.info("Reference data version found, load FHIR demo data");
-        break;
+    }
+
+    //Need to group by level, so that parents are added first for the partOf reference
+    logger.info("Group geographic zones by level");
+    List<List<GeographicZoneDto>> levels = new ArrayList<>(geographicZones
+        .stream()
+        .collect(Collectors.groupingBy(zone -> zone.getLevel().getLevelNumber(),
+            TreeMap::new, Collectors.toList()))
+        .values());
+
+    logger.info("Save geographic zones");
+    ExecutorService executor = createExecutor();
+    LoadSummary summary = new LoadSummary(GEOGRAPHIC_ZONES);
+
+    try {
+      for (int level = checkpoints.getOrDefault(GEOGRAPHIC_ZONES, 0); level < levels.size();
+          ++level) {
+        List<GeographicZoneDto> zones = levels.get(level);
+        int chunkSize = Math.min(pageSize, IntMath.divide(zones.size(), threads, CEILING));
+        List<Future<?>> tasks = new ArrayList<>();
+
+        try {
+          Lists
+              .partition(zones, chunkSize)
+              .forEach(chunk -> tasks.add(executor.submit(
+                  () -> saveLocations(chunk, this::buildLocationFrom, summary))));
+        } finally {
+          awaitAll(tasks);
+        }
+
+        checkpoints.put(GEOGRAPHIC_ZONES, level + 1);
       }
-      Thread.sleep(5000);
+    } finally {
+      executor.shutdownNow();
+      summary.report();
     }
+
+    checkpoints.remove(GEOGRAPHIC_ZONES);
   }
 
   /**
-   * Load geographic zones into FHIR datastore.
+   * Load facilities into FHIR datastore. Facilities are retrieved page by page and pages are saved
+   * in parallel, each in its own transaction. The next pages are requested without blocking a
+   * thread while the current ones are being saved, and only one page per worker plus the
+   * prefetched pages are kept in memory at a time. Facilities reference geographic zones only, so
+   * zones have to be loaded first. If loading fails, the next call resumes from the first page
+   * that has not been committed. Only one load runs at a time, other callers wait for it to end.
    */
-  @Transactional
-  public void loadGeographicZones() {
+  public void loadFacilities() throws InterruptedException {
+    loading.lockInterruptibly();
 
-    logger.info("Get geographic zones");
-    List<GeographicZoneDto> geographicZones = geographicZoneService
-        .getPage("", RequestParameters.init())
-        .getContent();
+    try {
+      fetchAndSaveFacilities();
+    } finally {
+      loading.unlock();
+    }
+  }
 
-    //Need to sort by level, so that parents are added first for the partOf reference for later adds
-    logger.info("Sort geographic zones");
-    geographicZones.sort(Comparator.comparing(obj -> obj.getLevel().getLevelNumber()));
+  private void fetchAndSaveFacilities() throws InterruptedException {
+    logger.info("Get and save facilities");
+    ExecutorService executor = createExecutor();
+    LoadSummary summary = new LoadSummary(FACILITIES);
 
-    logger.info("Save geographic zones");
-    geographicZones.forEach(
-        geographicZone -> locationDao.update(buildLocationFrom(geographicZone)));
+    try (PageIterator<FacilityDto> pages = new PageIterator<>(
+        pageNumber -> getPage(facilityService, pageNumber),
+        checkpoints.getOrDefault(FACILITIES, 0), prefetch)) {
+      while (pages.hasNext()) {
+        List<Future<?>> tasks = new ArrayList<>();
+
+        try {
+          while (tasks.size() < threads && pages.hasNext()) {
+            List<FacilityDto> facilities = pages.next().getContent();
+            tasks.add(executor.submit(
+                () -> saveLocations(facilities, this::buildLocationFrom, summary)));
+          }
+        } finally {
+          // pages that have been retrieved are committed even if retrieving the next one failed
+          awaitAll(tasks);
+          checkpoints.put(FACILITIES, checkpoints.getOrDefault(FACILITIES, 0) + tasks.size());
+        }
+      }
+    } finally {
+      executor.shutdownNow();
+      summary.report();
+    }
+
+    checkpoints.remove(FACILITIES);
+  }
+
+  private <T extends BaseDto> CompletableFuture<Page<T>> getPage(
+      ResourceCommunicationService<T> service, int pageNumber) {
+    logger.debug("Get page {}", pageNumber);
+    RequestParameters parameters = RequestParameters
+        .init()
+        .set(PAGE, pageNumber)
+        .set(SIZE, pageSize);
+
+    return service.getPageAsync("", parameters).toFuture();
+  }
+
+  private ExecutorService createExecutor() {
+    return Executors.newFixedThreadPool(threads, new ThreadFactoryBuilder()
+        .setNameFormat("location-loader-%d")
+        .setDaemon(true)
+        .build());
+  }
+
+  private void awaitAll(List<Future<?>> tasks) throws InterruptedException {
+    try {
+      for (Future<?> task : tasks) {
+        task.get();
+      }
+    } catch (ExecutionException exp) {
+      tasks.forEach(task -> task.cancel(true));
+      Throwables.throwIfUnchecked(exp.getCause());
+      throw new IllegalStateException(exp.getCause());
+    } catch (InterruptedException exp) {
+      tasks.forEach(task -> task.cancel(true));
+      throw exp;
+    }
+  }
+
+  private <T> void saveLocations(List<T> resources, Function<T, Location> converter,
+      LoadSummary summary) {
+    List<Location> locations = skipUnchanged(resources
+        .stream()
+        .map(converter)
+        .collect(Collectors.toList()));
+    summary.add(locations.size(), resources.size() - locations.size());
+
+    if (locations.isEmpty()) {
+      return;
+    }
+
+    if (bundleSize > 0) {
+      Lists
+          .partition(locations, bundleSize)
+          .forEach(this::saveBundle);
+    } else {
+      final long start = System.nanoTime();
+      new TransactionTemplate(transactionManager).execute(status -> {
+        locations.forEach(locationDao::update);
+        return null;
+      });
+      logThroughput(locations.size(), start);
+    }
   }
 
   /**
-   * Load facilities into FHIR datastore.
+   * Saves the given locations as a single FHIR transaction bundle. The system DAO handles the
+   * whole bundle in one database transaction, which is much cheaper than a separate DAO call for
+   * every location. Each entry is an update of the location with the given id, so saving the
+   * same location again only creates a new version of it.
    */
-  @Transactional
-  public void loadFacilities() {
-    logger.info("Get facilities");
-    List<FacilityDto> facilities = facilityService
-        .getPage("", RequestParameters.init())
-        .getContent();
-
-    logger.info("Save facilities");
-    facilities.forEach(facility -> locationDao.update(buildLocationFrom(facility)));
+  private void saveBundle(List<Location> locations) {
+    final long start = System.nanoTime();
+    Bundle bundle = new Bundle();
+    bundle.setType(BundleType.TRANSACTION);
+
+    locations.forEach(location -> bundle
+        .addEntry()
+        .setResource(location)
+        .getRequest()
+        .setMethod(HTTPVerb.PUT)
+        .setUrl(LOCATION + "/" + location.getIdElement().getIdPart()));
+
+    systemDao.transaction(null, bundle);
+    logThroughput(locations.size(), start);
   }
-  
+
+  /**
+   * Removes locations that are identical to their current versions in the datastore. Saving them
+   * would still extract all search parameters before HAPI noticed that nothing has changed.
+   */
+  private List<Location> skipUnchanged(List<Location> locations) {
+    Map<String, String> currentHashes = resourceHashRepository.findHashes(LOCATION, locations
+        .stream()
+        .map(location -> location.getIdElement().getIdPart())
+        .collect(Collectors.toList()));
+
+    if (currentHashes.isEmpty()) {
+      return locations;
+    }
+
+    List<Location> changed = locations
+        .stream()
+        .filter(location -> !hash(location)
+            .equals(currentHashes.get(location.getIdElement().getIdPart())))
+        .collect(Collectors.toList());
+
+    return changed;
+  }
+
+  // the same hash is calculated by HAPI when a resource is saved
+  private String hash(Location location) {
+    byte[] encoded = BaseHapiFhirDao.encodeResource(location, daoConfig.getResourceEncoding(),
+        ResourceMetaParams.EXCLUDE_ELEMENTS_IN_ENCODED, locationDao.getContext());
+
+    return Hashing.sha256().hashBytes(encoded).toString();
+  }
+
+  private void logThroughput(int count, long start) {
+    long elapsed = Math.max(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start), 1);
+    logger.info("Saved {} locations in {} ms ({} resources/s)",
+        count, elapsed, count * 1000L / elapsed);
+  }
+
   private Location buildLocationFrom(GeographicZoneDto geographicZone) {
     Location location = new Location();
     location.setId(geographicZone.getId().toString());
@@ -144,7 +395,7 @@ public class LocationLoadingService {
     Optional
         .ofNullable(geographicZone.getParent())
         .ifPresent(parent ->
-            location.setPartOf(new Reference("Location/" + parent.getId())));
+            location.setPartOf(new Reference(LOCATION + "/" + parent.getId())));
     
     return location;
   }
@@ -176,11 +427,38 @@ public class LocationLoadingService {
     Optional
         .ofNullable(facility.getGeographicZone())
         .ifPresent(geographicZone ->
-            location.setPartOf(new Reference("Location/" + geographicZone.getId())));
+            location.setPartOf(new Reference(LOCATION + "/" + geographicZone.getId())));
 
     location.setStatus(isTrue(facility.getActive()) && isTrue(facility.getEnabled())
         ? LocationStatus.ACTIVE : LocationStatus.INACTIVE);
 
     return location;
   }
+
+  /**
+   * Counts locations saved and skipped during one load. Unchanged locations are skipped before
+   * they reach the DAO, so a high skipped count means the load has not created needless versions.
+   */
+  private final class LoadSummary {
+    private final String resourceType;
+    private final AtomicInteger saved = new AtomicInteger();
+    private final AtomicInteger skipped = new AtomicInteger();
+
+    LoadSummary(String resourceType) {
+      this.resourceType = resourceType;
+    }
+
+    void add(int savedCount, int skippedCount) {
+      saved.addAndGet(savedCount);
+      skipped.addAndGet(skippedCount);
+      meterRegistry.counter(METRIC_NAME, RESOURCE_TYPE, resourceType, RESULT, "saved")
+          .increment(savedCount);
+      meterRegistry.counter(METRIC_NAME, RESOURCE_TYPE, resourceType, RESULT, "skipped")
+          .increment(skippedCount);
+    }
+
+    void report() {
+      logger.info("Saved {} and skipped {} unchanged {}", saved, skipped, resourceType);
+    }
+  }
 }
@@ -0,0 +1,102 @@
+/*
+ * This program is part of the OpenLMIS logistics management information system platform software.
+ * Copyright © 2017 VillageReach
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms
+ * of the GNU Affero General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details. You should have received a copy of
+ * the GNU Affero General Public License along with this program. If not, see
+ * http://www.gnu.org/licenses.  For additional information contact info@OpenLMIS.org.
+ */
+
+package org.openlmis.hapifhir.service;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import javax.annotation.PreDestroy;
+import org.slf4j.ext.XLogger;
+import org.slf4j.ext.XLoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationStartedEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.scheduling.concurrent.ConcurrentTaskScheduler;
+import org.springframework.scheduling.support.CronTrigger;
+import org.springframework.stereotype.Service;
+
+/**
+ * Periodically synchronizes geographic zones and facilities from the reference data service with
+ * FHIR locations. The reference data service cannot return only resources changed since a given
+ * time, so every run reads all of them. Locations identical to their current versions are not
+ * saved again, so a synchronization only writes what has changed since the previous one. A run
+ * can take minutes, so it has a scheduler thread of its own and does not delay other jobs.
+ */
+@Service
+public class LocationSyncService {
+
+  private static final String GEOGRAPHIC_ZONES = "geographicZones";
+  private static final String FACILITIES = "facilities";
+
+  private final XLogger logger = XLoggerFactory.getXLogger(getClass());
+
+  @Value("${locations.sync.cron}")
+  private String cron;
+
+  @Autowired
+  private LocationLoadingService locationLoadingService;
+
+  private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(
+      new ThreadFactoryBuilder()
+          .setNameFormat("locations-sync-%d")
+          .setDaemon(true)
+          .build());
+
+  /**
+   * Schedules the synchronization, unless it has been disabled.
+   */
+  @EventListener(ApplicationStartedEvent.class)
+  public void start() {
+    if (!Scheduled.CRON_DISABLED.equals(cron)) {
+      new ConcurrentTaskScheduler(scheduler).schedule(this::syncLocations, new CronTrigger(cron));
+    }
+  }
+
+  @PreDestroy
+  void shutdown() {
+    scheduler.shutdownNow();
+  }
+
+  /**
+   * Synchronizes geographic zones and then facilities. A failed synchronization is retried by the
+   * next scheduled run, which resumes from the last saved page.
+   */
+  public void syncLocations() {
+    try {
+      sync(GEOGRAPHIC_ZONES, locationLoadingService::loadGeographicZones);
+      sync(FACILITIES, locationLoadingService::loadFacilities);
+    } catch (InterruptedException exp) {
+      logger.warn("Location synchronization has been interrupted");
+      Thread.currentThread().interrupt();
+    } catch (RuntimeException exp) {
+      logger.error("Unable to synchronize locations", exp);
+    }
+  }
+
+  private void sync(String resourceType, Loader loader) throws InterruptedException {
+    logger.info("Synchronize {}", resourceType);
+    loader.load();
+    logger.info("Synchronized {}", resourceType);
+  }
+
+  @FunctionalInterface
+  private interface Loader {
+    void load() throws InterruptedException;
+  }
+
+}
@@ -19,20 +19,31 @@ import static org.apache.commons.lang3.StringUtils.startsWith;
 
 import ca.uhn.fhir.rest.api.server.RequestDetails;
 import ca.uhn.fhir.rest.server.interceptor.ServerOperationInterceptorAdapter;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.UUID;
+import java.util.function.Function;
 import java.util.stream.Collectors;
 import org.hl7.fhir.exceptions.FHIRException;
 import org.hl7.fhir.instance.model.api.IBaseResource;
+import org.hl7.fhir.instance.model.api.IIdType;
 import org.hl7.fhir.r4.model.Coding;
 import org.hl7.fhir.r4.model.Location;
 import org.hl7.fhir.r4.model.codesystems.LocationPhysicalType;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.security.core.Authentication;
 import org.springframework.security.core.context.SecurityContextHolder;
 import org.springframework.security.oauth2.provider.OAuth2Authentication;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
 public abstract class OpenLmisResourceCreatorInterceptor<T extends BaseDto & ExtraDataContainer>
     extends ServerOperationInterceptorAdapter {
@@ -44,6 +55,12 @@ public abstract class OpenLmisResourceCreatorInterceptor<T extends BaseDto & Ext
   @Value("${auth.server.clientId.apiKey.prefix}")
   private String apiKeyPrefix;
 
+  @Value("${referencedata.sync.async}")
+  private boolean asyncSync;
+
+  @Autowired
+  private ReferenceDataSyncService referenceDataSyncService;
+
   @Override
   public void resourceCreated(RequestDetails details, IBaseResource resource) {
     handleEvent(resource);
@@ -55,6 +72,41 @@ public abstract class OpenLmisResourceCreatorInterceptor<T extends BaseDto & Ext
     handleEvent(newResource);
   }
 
+  /**
+   * Builds OpenLMIS's resource from the given location and saves it in the reference data
+   * service.
+   *
+   * @param location the FHIR location that has been created or updated.
+   */
+  public void synchronize(Location location) {
+    T resource = buildResource(location);
+    resource.addExtraDataEntry(IS_MANAGED_EXTERNALLY, true);
+    logger.trace("Update the existing resource");
+    getCommunicationService().update(resource);
+  }
+
+  /**
+   * Loads resources built from the given locations, and the resources they refer to, before the
+   * locations are synchronized one by one. Resources are requested in chunks instead of one
+   * request per location.
+   *
+   * @param locations the FHIR locations that will be synchronized soon.
+   */
+  public void prefetch(List<Location> locations) {
+    getCommunicationService().prefetch(getIds(locations, Location::getIdElement));
+  }
+
+  protected Set<UUID> getIds(List<Location> locations,
+      Function<Location, IIdType> idExtractor) {
+    return locations
+        .stream()
+        .map(idExtractor)
+        .map(IIdType::getIdPart)
+        .filter(Objects::nonNull)
+        .map(UUID::fromString)
+        .collect(Collectors.toSet());
+  }
+
   private void handleEvent(IBaseResource fhirResource) {
     if (shouldIgnore(fhirResource)) {
       return;
@@ -62,25 +114,86 @@ public abstract class OpenLmisResourceCreatorInterceptor<T extends BaseDto & Ext
 
     Location location = (Location) fhirResource;
 
-    List<T> resources = location
+    List<LocationPhysicalType> types = location
         .getPhysicalType()
         .getCoding()
         .stream()
         .map(this::convertCodingToEnum)
         .filter(this::supports)
-        .map(type -> {
-          logger.debug("Build OpenLMIS's resources for type: {}", type);
-          return buildResource(location);
-        })
         .collect(Collectors.toList());
 
-    ResourceCommunicationService<T> communicationService = getCommunicationService();
+    if (asyncSync) {
+      // the job is saved in the same transaction as the location
+      types.forEach(type -> referenceDataSyncService.enqueue(type, location));
+      return;
+    }
+
+    for (LocationPhysicalType type : types) {
+      logger.debug("Build OpenLMIS's resources for type: {}", type);
 
-    for (T resource : resources) {
+      if (isBulkUpdateSupported() && TransactionSynchronizationManager.isSynchronizationActive()) {
+        getPendingLocations().put(location.getIdElement().getIdPart(), location);
+      } else {
+        synchronize(location);
+      }
+    }
+  }
+
+  /**
+   * Returns locations waiting for the end of the current transaction. On the first call in the
+   * transaction, a synchronization is registered which sends all of them before the commit, so a
+   * failed update still rolls back the FHIR write.
+   */
+  private Map<String, Location> getPendingLocations() {
+    @SuppressWarnings("unchecked")
+    Map<String, Location> pending = (Map<String, Location>) TransactionSynchronizationManager
+        .getResource(this);
+
+    if (null == pending) {
+      Map<String, Location> locations = new LinkedHashMap<>();
+      TransactionSynchronizationManager.bindResource(this, locations);
+      TransactionSynchronizationManager.registerSynchronization(
+          new TransactionSynchronizationAdapter() {
+            @Override
+            public void beforeCommit(boolean readOnly) {
+              synchronizeAll(new ArrayList<>(locations.values()));
+            }
+
+            @Override
+            public void afterCompletion(int status) {
+              TransactionSynchronizationManager.unbindResourceIfPossible(
+                  OpenLmisResourceCreatorInterceptor.this);
+            }
+          });
+      pending = locations;
+    }
+
+    return pending;
+  }
+
+  private void synchronizeAll(List<Location> locations) {
+    logger.debug("Update {} resources in bulk", locations.size());
+    prefetch(locations);
+
+    List<T> resources = new ArrayList<>();
+    for (Location location : locations) {
+      T resource = buildResource(location);
       resource.addExtraDataEntry(IS_MANAGED_EXTERNALLY, true);
-      logger.trace("Update the existing resource");
-      communicationService.update(resource);
+      resources.add(resource);
     }
+
+    getCommunicationService()
+        .updateAll(resources)
+        .rethrowFailures();
+  }
+
+  /**
+   * Tells whether locations changed in one transaction can be sent together at its end instead
+   * of one by one. It is safe only for resources which are not referenced by other locations in
+   * the same transaction.
+   */
+  protected boolean isBulkUpdateSupported() {
+    return false;
   }
 
   protected abstract boolean supports(LocationPhysicalType type);
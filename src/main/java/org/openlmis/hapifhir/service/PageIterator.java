@@ -0,0 +1,122 @@
+/*
+ * This program is part of the OpenLMIS logistics management information system platform software.
+ * Copyright © 2017 VillageReach
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms
+ * of the GNU Affero General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details. You should have received a copy of
+ * the GNU Affero General Public License along with this program. If not, see
+ * http://www.gnu.org/licenses.  For additional information contact info@OpenLMIS.org.
+ */
+
+package org.openlmis.hapifhir.service;
+
+import com.google.common.base.Throwables;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.NoSuchElementException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.function.IntFunction;
+import org.springframework.data.domain.Page;
+
+/**
+ * Iterates over pages of a paged endpoint in order, starting from the given page. The page loader
+ * only starts a request, so no thread is held while a page is on its way. The first page is
+ * awaited by {@link #next()}, which tells the total number of pages. Then the next pages are
+ * requested before they are needed, but no more than the prefetch limit at a time, so the number
+ * of pages held in memory is bounded. If the page count is unknown, pages are requested one by
+ * one. An empty page is treated as the last one, so a wrong page count can't cause endless
+ * iteration.
+ *
+ * @param <T> type of page content
+ */
+public class PageIterator<T> implements AutoCloseable {
+  private final IntFunction<CompletableFuture<Page<T>>> pageLoader;
+  private final int prefetch;
+  private final Deque<CompletableFuture<Page<T>>> pending = new ArrayDeque<>();
+
+  private int nextPageNumber;
+  private int totalPages;
+  private boolean finished;
+
+  /**
+   * Creates a new instance.
+   *
+   * @param pageLoader starts retrieving the page with the given number
+   * @param firstPage  number of the first page to retrieve
+   * @param prefetch   how many pages can be requested in advance
+   */
+  public PageIterator(IntFunction<CompletableFuture<Page<T>>> pageLoader, int firstPage,
+      int prefetch) {
+    this.pageLoader = pageLoader;
+    this.nextPageNumber = firstPage;
+    this.prefetch = prefetch;
+  }
+
+  public boolean hasNext() {
+    return !finished;
+  }
+
+  /**
+   * Returns the next page, waiting for it if it has been requested in advance.
+   */
+  public Page<T> next() throws InterruptedException {
+    if (finished) {
+      throw new NoSuchElementException();
+    }
+
+    CompletableFuture<Page<T>> request = pending.isEmpty()
+        ? pageLoader.apply(nextPageNumber++)
+        : pending.poll();
+    Page<T> page;
+
+    try {
+      page = await(request);
+    } catch (RuntimeException | InterruptedException exp) {
+      request.cancel(true);
+      close();
+      throw exp;
+    }
+
+    if (page.hasNext() && page.hasContent()) {
+      totalPages = Math.max(totalPages, page.getTotalPages());
+      requestNextPages();
+    } else {
+      close();
+    }
+
+    return page;
+  }
+
+  /**
+   * Stops the iteration and cancels pages requested in advance.
+   */
+  @Override
+  public void close() {
+    finished = true;
+    pending.forEach(future -> future.cancel(true));
+    pending.clear();
+  }
+
+  private void requestNextPages() {
+    while (pending.size() < prefetch && nextPageNumber < totalPages) {
+      int pageNumber = nextPageNumber++;
+      pending.add(pageLoader.apply(pageNumber));
+    }
+  }
+
+  private Page<T> await(CompletableFuture<Page<T>> future) throws InterruptedException {
+    try {
+      return future.get();
+    } catch (ExecutionException exp) {
+      Throwables.throwIfUnchecked(exp.getCause());
+      throw new IllegalStateException(exp.getCause());
+    }
+  }
+
+}
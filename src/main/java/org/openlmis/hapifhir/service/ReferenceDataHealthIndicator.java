@@ -0,0 +1,50 @@
+/*
+ * This program is part of the OpenLMIS logistics management information system platform software.
+ * Copyright © 2017 VillageReach
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms
+ * of the GNU Affero General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details. You should have received a copy of
+ * the GNU Affero General Public License along with this program. If not, see
+ * http://www.gnu.org/licenses.  For additional information contact info@OpenLMIS.org.
+ */
+
+package org.openlmis.hapifhir.service;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.actuate.health.Health;
+import org.springframework.boot.actuate.health.HealthIndicator;
+import org.springframework.stereotype.Component;
+
+/**
+ * Reports whether the reference data service has responded since the application was started.
+ * The application is out of service until then, and down while the service has not responded
+ * within the max wait time.
+ */
+@Component
+public class ReferenceDataHealthIndicator implements HealthIndicator {
+
+  private static final String STATE = "state";
+
+  @Autowired
+  private ReferenceDataReadinessWatcher readinessWatcher;
+
+  @Override
+  public Health health() {
+    ReferenceDataReadinessWatcher.State state = readinessWatcher.getState();
+
+    switch (state) {
+      case READY:
+        return Health.up().withDetail(STATE, state).build();
+      case UNAVAILABLE:
+        return Health.down().withDetail(STATE, state).build();
+      default:
+        return Health.outOfService().withDetail(STATE, state).build();
+    }
+  }
+
+}
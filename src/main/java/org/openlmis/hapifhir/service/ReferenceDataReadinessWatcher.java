@@ -0,0 +1,148 @@
+/*
+ * This program is part of the OpenLMIS logistics management information system platform software.
+ * Copyright © 2017 VillageReach
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms
+ * of the GNU Affero General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details. You should have received a copy of
+ * the GNU Affero General Public License along with this program. If not, see
+ * http://www.gnu.org/licenses.  For additional information contact info@OpenLMIS.org.
+ */
+
+package org.openlmis.hapifhir.service;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
+import javax.annotation.PreDestroy;
+import org.openlmis.hapifhir.service.referencedata.ReferenceDataVersionService;
+import org.slf4j.ext.XLogger;
+import org.slf4j.ext.XLoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationStartedEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+/**
+ * Watches the reference data service until it returns its version info. The service is polled
+ * in the background with exponential backoff and jitter, so application startup is not blocked.
+ * Callers that need the service can chain their work on {@link #whenReady()}, which completes as
+ * soon as the service has responded, or exceptionally when it has not responded within the max
+ * wait time. In the latter case the service is reported as unavailable, but it is still polled
+ * with the max backoff, and the watcher becomes ready as soon as the service responds.
+ */
+@Component
+public class ReferenceDataReadinessWatcher {
+
+  public enum State {
+    WAITING, READY, UNAVAILABLE
+  }
+
+  private final XLogger logger = XLoggerFactory.getXLogger(getClass());
+
+  @Value("${referencedata.readiness.initialBackoff}")
+  private long initialBackoff;
+
+  @Value("${referencedata.readiness.maxBackoff}")
+  private long maxBackoff;
+
+  @Value("${referencedata.readiness.maxWait}")
+  private long maxWait;
+
+  @Autowired
+  private ReferenceDataVersionService referenceDataVersionService;
+
+  private final AtomicBoolean started = new AtomicBoolean();
+  private final AtomicReference<CompletableFuture<VersionDto>> ready =
+      new AtomicReference<>(new CompletableFuture<>());
+  private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(
+      new ThreadFactoryBuilder()
+          .setNameFormat("referencedata-readiness-%d")
+          .setDaemon(true)
+          .build());
+
+  private volatile State state = State.WAITING;
+
+  /**
+   * Starts watching the reference data service. Calls after the first one have no effect.
+   */
+  @EventListener(ApplicationStartedEvent.class)
+  public void start() {
+    if (started.compareAndSet(false, true)) {
+      long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(maxWait);
+      scheduler.execute(() -> check(1, deadline));
+    }
+  }
+
+  /**
+   * Returns a future completed with the version info of the reference data service once it has
+   * responded. Watching is started if it has not been started yet. Futures returned before the
+   * max wait time has passed fail when it passes; the ones returned later wait for the service
+   * without a limit, so a caller can retry by calling this method again.
+   */
+  public CompletableFuture<VersionDto> whenReady() {
+    start();
+    return ready.get().thenApply(Function.identity());
+  }
+
+  public State getState() {
+    return state;
+  }
+
+  @PreDestroy
+  void shutdown() {
+    scheduler.shutdownNow();
+  }
+
+  private void check(int attempt, long deadline) {
+    try {
+      VersionDto version = referenceDataVersionService.getInfo();
+
+      if (null != version) {
+        logger.info("Reference data version found after {} attempt(s)", attempt);
+        state = State.READY;
+        ready.get().complete(version);
+        scheduler.shutdown();
+        return;
+      }
+
+      logger.info("Reference data version not found");
+    } catch (RuntimeException exp) {
+      logger.info("Reference data service is not available yet: {}", exp.getMessage());
+    }
+
+    long delay = State.UNAVAILABLE == state ? maxBackoff : getBackoff(attempt);
+
+    if (State.WAITING == state && maxWait > 0
+        && System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(delay) - deadline > 0) {
+      logger.error("Reference data service has not responded within {} ms", maxWait);
+      state = State.UNAVAILABLE;
+      ready.getAndSet(new CompletableFuture<>()).completeExceptionally(new TimeoutException(
+          "Reference data service has not responded within " + maxWait + " ms"));
+      delay = maxBackoff;
+    }
+
+    logger.debug("Check reference data service again in {} ms", delay);
+    scheduler.schedule(() -> check(attempt + 1, deadline), delay, TimeUnit.MILLISECONDS);
+  }
+
+  private long getBackoff(int attempt) {
+    // initial backoff doubled after each failed attempt, with a random part so that instances
+    // started at the same time do not poll the service together
+    long backoff = Math.min(maxBackoff, initialBackoff << Math.min(attempt - 1, 30));
+    return backoff / 2 + ThreadLocalRandom.current().nextLong(backoff / 2 + 1);
+  }
+
+}
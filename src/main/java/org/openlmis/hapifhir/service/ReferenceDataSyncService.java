@@ -0,0 +1,258 @@
+/*
+ * This program is part of the OpenLMIS logistics management information system platform software.
+ * Copyright © 2017 VillageReach
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms
+ * of the GNU Affero General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details. You should have received a copy of
+ * the GNU Affero General Public License along with this program. If not, see
+ * http://www.gnu.org/licenses.  For additional information contact info@OpenLMIS.org.
+ */
+
+package org.openlmis.hapifhir.service;
+
+import ca.uhn.fhir.context.FhirContext;
+import ca.uhn.fhir.parser.IParser;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import io.micrometer.core.instrument.MeterRegistry;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import org.hl7.fhir.r4.model.Location;
+import org.hl7.fhir.r4.model.codesystems.LocationPhysicalType;
+import org.openlmis.hapifhir.repository.ReferenceDataSyncBacklog;
+import org.openlmis.hapifhir.repository.ReferenceDataSyncJob;
+import org.openlmis.hapifhir.repository.ReferenceDataSyncJobRepository;
+import org.slf4j.ext.XLogger;
+import org.slf4j.ext.XLoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationStartedEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+
+/**
+ * Synchronizes FHIR locations with the reference data service asynchronously. Locations are
+ * queued in the outbox table in the same transaction in which they are saved, so a saved location
+ * always has its synchronization queued. The queue is drained by a pool of workers, and FHIR
+ * writes do not wait for reference data. Jobs of one location are processed in the order they
+ * have been added, and several queued changes of one location are sent as a single update. Failed
+ * jobs are retried with exponential backoff and moved to the dead letter table after the last
+ * attempt. The queue is polled by a scheduler thread of its own, and only when the asynchronous
+ * synchronization is enabled.
+ */
+@Service
+public class ReferenceDataSyncService {
+
+  private final XLogger logger = XLoggerFactory.getXLogger(getClass());
+
+  @Value("${referencedata.sync.async}")
+  private boolean async;
+
+  @Value("${referencedata.sync.pollInterval}")
+  private long pollInterval;
+
+  @Value("${referencedata.sync.workers}")
+  private int workers;
+
+  @Value("${referencedata.sync.batchSize}")
+  private int batchSize;
+
+  @Value("${referencedata.sync.lockDuration}")
+  private long lockDuration;
+
+  @Value("${referencedata.sync.maxAttempts}")
+  private int maxAttempts;
+
+  @Value("${referencedata.sync.initialBackoff}")
+  private long initialBackoff;
+
+  @Value("${referencedata.sync.maxBackoff}")
+  private long maxBackoff;
+
+  @Autowired
+  private ReferenceDataSyncJobRepository referenceDataSyncJobRepository;
+
+  @Autowired
+  private FhirContext fhirContext;
+
+  @Autowired
+  private List<OpenLmisResourceCreatorInterceptor<?>> interceptors;
+
+  @Autowired
+  private MeterRegistry meterRegistry;
+
+  private ExecutorService executor;
+
+  private final ScheduledExecutorService poller = Executors.newSingleThreadScheduledExecutor(
+      new ThreadFactoryBuilder()
+          .setNameFormat("referencedata-sync-poller-%d")
+          .setDaemon(true)
+          .build());
+
+  private final AtomicLong backlogSize = new AtomicLong();
+  private final AtomicLong backlogLag = new AtomicLong();
+  private final AtomicLong deadLetters = new AtomicLong();
+
+  @PostConstruct
+  void init() {
+    executor = Executors.newFixedThreadPool(workers, new ThreadFactoryBuilder()
+        .setNameFormat("referencedata-sync-%d")
+        .setDaemon(true)
+        .build());
+
+    meterRegistry.gauge("referencedata.sync.backlog.size", backlogSize);
+    meterRegistry.gauge("referencedata.sync.backlog.lag", backlogLag);
+    meterRegistry.gauge("referencedata.sync.deadLetters", deadLetters);
+  }
+
+  /**
+   * Starts polling the queue, if the asynchronous synchronization is enabled.
+   */
+  @EventListener(ApplicationStartedEvent.class)
+  public void start() {
+    if (async) {
+      poller.scheduleWithFixedDelay(this::poll, pollInterval, pollInterval, TimeUnit.MILLISECONDS);
+    }
+  }
+
+  @PreDestroy
+  void shutdown() {
+    poller.shutdownNow();
+    executor.shutdownNow();
+  }
+
+  /**
+   * Adds the location to the synchronization queue.
+   *
+   * @param type     the physical type that decides which reference data resource is updated.
+   * @param location the FHIR location that has been created or updated.
+   */
+  public void enqueue(LocationPhysicalType type, Location location) {
+    referenceDataSyncJobRepository.save(type.toCode(), location.getIdElement().getIdPart(),
+        newParser().encodeResourceToString(location));
+  }
+
+  /**
+   * Processes jobs that are ready, as long as there are any, and then refreshes backlog metrics.
+   */
+  public void processJobs() {
+    processReadyJobs();
+
+    ReferenceDataSyncBacklog backlog = referenceDataSyncJobRepository.getBacklog();
+    backlogSize.set(backlog.getSize());
+    backlogLag.set(backlog.getLag());
+    deadLetters.set(backlog.getDeadLetters());
+  }
+
+  private void poll() {
+    try {
+      processJobs();
+    } catch (RuntimeException exp) {
+      // an exception would cancel further runs of the poller
+      logger.error("Unable to process reference data sync jobs", exp);
+    }
+  }
+
+  private void processReadyJobs() {
+    List<ReferenceDataSyncJob> jobs;
+
+    do {
+      jobs = referenceDataSyncJobRepository.lock(batchSize, lockDuration);
+      prefetch(jobs);
+
+      List<Future<?>> tasks = new ArrayList<>();
+      jobs.forEach(job -> tasks.add(executor.submit(() -> process(job))));
+
+      // the whole batch has to end before the next one is locked
+      for (Future<?> task : tasks) {
+        try {
+          task.get();
+        } catch (InterruptedException exp) {
+          Thread.currentThread().interrupt();
+          return;
+        } catch (ExecutionException exp) {
+          // failures are handled by workers, so this can only be a broken worker
+          logger.error("Unable to process reference data sync job", exp.getCause());
+        }
+      }
+    } while (jobs.size() == batchSize);
+  }
+
+  private void prefetch(List<ReferenceDataSyncJob> jobs) {
+    try {
+      Map<LocationPhysicalType, List<Location>> locations = jobs
+          .stream()
+          .collect(Collectors.groupingBy(
+              job -> LocationPhysicalType.fromCode(job.getSyncType()),
+              Collectors.mapping(this::parseLocation, Collectors.toList())));
+
+      locations.forEach((type, list) -> interceptors
+          .stream()
+          .filter(interceptor -> interceptor.supports(type))
+          .forEach(interceptor -> interceptor.prefetch(list)));
+    } catch (RuntimeException exp) {
+      // each job will load its resources on its own
+      logger.warn("Unable to prefetch reference data for {} jobs", jobs.size(), exp);
+    }
+  }
+
+  private void process(ReferenceDataSyncJob job) {
+    try {
+      LocationPhysicalType type = LocationPhysicalType.fromCode(job.getSyncType());
+      Location location = parseLocation(job);
+
+      interceptors
+          .stream()
+          .filter(interceptor -> interceptor.supports(type))
+          .forEach(interceptor -> interceptor.synchronize(location));
+
+      referenceDataSyncJobRepository.delete(job);
+    } catch (RuntimeException exp) {
+      handleFailure(job, exp);
+    }
+  }
+
+  private void handleFailure(ReferenceDataSyncJob job, RuntimeException exp) {
+    int attempts = job.getAttempts() + 1;
+
+    if (attempts >= maxAttempts) {
+      logger.error("Unable to synchronize location {} after {} attempts",
+          job.getResourceId(), attempts, exp);
+      referenceDataSyncJobRepository.moveToDeadLetters(job, exp.toString());
+    } else {
+      long delay = getBackoff(attempts);
+      logger.warn("Unable to synchronize location {}, retry in {} seconds",
+          job.getResourceId(), delay, exp);
+      referenceDataSyncJobRepository.retryLater(job.getId(), delay, exp.toString());
+    }
+  }
+
+  private long getBackoff(int attempts) {
+    // initial backoff doubled after each failed attempt
+    return Math.min(maxBackoff, initialBackoff << Math.min(attempts - 1, 30));
+  }
+
+  private Location parseLocation(ReferenceDataSyncJob job) {
+    return newParser().parseResource(Location.class, job.getPayload());
+  }
+
+  private IParser newParser() {
+    return fhirContext.newJsonParser();
+  }
+
+}
@@ -0,0 +1,92 @@
+/*
+ * This program is part of the OpenLMIS logistics management information system platform software.
+ * Copyright © 2017 VillageReach
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms
+ * of the GNU Affero General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details. You should have received a copy of
+ * the GNU Affero General Public License along with this program. If not, see
+ * http://www.gnu.org/licenses.  For additional information contact info@OpenLMIS.org.
+ */
+
+package org.openlmis.hapifhir.service;
+
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.LoadingCache;
+import com.github.benmanes.caffeine.cache.Ticker;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Lazily loaded value which is refreshed periodically. Concurrent callers of {@link #get()} wait
+ * for a single load of a missing value. When the value is older than the refresh interval, the
+ * next caller triggers a reload in the background and the current value is returned until the new
+ * one is ready. If a reload fails, the current value is kept. A failed or empty first load is not
+ * cached, so the next caller will try again.
+ *
+ * @param <T> type of the value
+ */
+public class RefreshableValue<T> {
+  private static final Logger LOGGER = LoggerFactory.getLogger(RefreshableValue.class);
+  private static final Object KEY = new Object();
+
+  private final String name;
+  private final Executor executor;
+  private final LoadingCache<Object, T> cache;
+
+  /**
+   * Creates a new instance.
+   *
+   * @param name            name of the value used in logs
+   * @param loader          loads the value, it can return {@code null} if the value is missing
+   * @param refreshInterval how many seconds the value is used before it is reloaded
+   */
+  public RefreshableValue(String name, Supplier<T> loader, long refreshInterval) {
+    this(name, loader, refreshInterval, Ticker.systemTicker(), ForkJoinPool.commonPool());
+  }
+
+  RefreshableValue(String name, Supplier<T> loader, long refreshInterval, Ticker ticker,
+      Executor executor) {
+    this.name = name;
+    this.executor = executor;
+    this.cache = Caffeine
+        .newBuilder()
+        .refreshAfterWrite(refreshInterval, TimeUnit.SECONDS)
+        .ticker(ticker)
+        .executor(executor)
+        .build(key -> loader.get());
+  }
+
+  /**
+   * Returns the current value, loading it if it is missing.
+   *
+   * @return the value or {@code null} if the loader has not found it.
+   */
+  public T get() {
+    return cache.get(KEY);
+  }
+
+  /**
+   * Loads the value in the background, so the first caller of {@link #get()} does not have to
+   * wait for it. Failures are only logged.
+   */
+  public void warmUp() {
+    CompletableFuture
+        .runAsync(this::get, executor)
+        .whenComplete((result, exp) -> {
+          if (null != exp) {
+            LOGGER.warn("Unable to load {} in advance", name, exp);
+          }
+        });
+  }
+
+}
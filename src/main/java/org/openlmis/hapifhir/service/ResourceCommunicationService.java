@@ -15,32 +15,145 @@
 
 package org.openlmis.hapifhir.service;
 
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 import org.openlmis.hapifhir.i18n.Message;
 import org.openlmis.hapifhir.i18n.MessageKeys;
+import org.springframework.beans.BeanUtils;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.env.Environment;
 import org.springframework.data.domain.Page;
 import org.springframework.http.HttpMethod;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.client.ClientHttpResponse;
 import org.springframework.web.client.HttpStatusCodeException;
+import reactor.core.publisher.Mono;
 
 public abstract class ResourceCommunicationService<T extends BaseDto>
     extends BaseCommunicationService {
+  private static final String ALL = "all";
+  private static final String ID = "id";
+  private static final String PAGE = "page";
+  private static final String SIZE = "size";
+  private static final String CONTENT = "content";
 
   @Autowired
   private ObjectMapper objectMapper;
 
+  @Autowired
+  private Environment environment;
+
+  @Autowired
+  private MeterRegistry meterRegistry;
+
+  @Value("${referencedata.findByIds.chunkSize}")
+  private int idsChunkSize;
+
+  @Value("${referencedata.bulkUpdate.parallelism}")
+  private int bulkUpdateParallelism;
+
+  private Cache<UUID, T> resourceCache;
+  private Cache<String, List<T>> resourceListCache;
+
+  private ExecutorService updateExecutor;
+
   protected abstract Class<T> getResultClass();
 
   protected abstract Class<T[]> getArrayResultClass();
 
   /**
-   * Creates new resource.
+   * Returns the prefix of properties ({@code <prefix>.ttl} and {@code <prefix>.maxSize}) which
+   * configure the cache of this service. By default responses are not cached.
+   */
+  protected String getCacheName() {
+    return null;
+  }
+
+  /**
+   * Creates the executor of {@link #updateAll(Collection)} and the caches of the service. The
+   * executor is shared by all bulk updates, so at most the configured number of updates are sent
+   * at the same time.
+   */
+  @PostConstruct
+  void init() {
+    updateExecutor = Executors.newFixedThreadPool(Math.max(1, bulkUpdateParallelism),
+        new ThreadFactoryBuilder()
+            .setNameFormat("referencedata-update-%d")
+            .setDaemon(true)
+            .build());
+
+    initCache();
+  }
+
+  @PreDestroy
+  void shutdown() {
+    updateExecutor.shutdownNow();
+  }
+
+  /**
+   * Creates caches for {@link #findOne(UUID)} and {@link #findAll()} if the service has a cache
+   * with positive time-to-live configured. Hit ratios of both caches are published as metrics.
+   */
+  void initCache() {
+    String cacheName = getCacheName();
+
+    if (null == cacheName) {
+      return;
+    }
+
+    long timeToLive = environment.getProperty(cacheName + ".ttl", Long.class, 0L);
+    long maxSize = environment.getProperty(cacheName + ".maxSize", Long.class, 0L);
+
+    if (timeToLive <= 0 || maxSize <= 0) {
+      return;
+    }
+
+    resourceCache = CaffeineCacheMetrics.monitor(meterRegistry,
+        buildCache(timeToLive, maxSize), cacheName, "lookup", "findOne");
+    resourceListCache = CaffeineCacheMetrics.monitor(meterRegistry,
+        buildCache(timeToLive, 1), cacheName, "lookup", "findAll");
+  }
+
+  private <K, V> Cache<K, V> buildCache(long timeToLive, long maxSize) {
+    return Caffeine
+        .newBuilder()
+        .expireAfterWrite(timeToLive, TimeUnit.SECONDS)
+        .maximumSize(maxSize)
+        .recordStats()
+        .build();
+  }
+
+  /**
+   * Creates new resource. Cached lists of resources are dropped.
    */
   public T create(T payload) {
     logger.debug("Create resource {}: {}", getResultClass().getSimpleName(), payload);
@@ -52,11 +165,14 @@ public abstract class ResourceCommunicationService<T extends BaseDto>
           .getBody();
     } catch (HttpStatusCodeException exp) {
       throw handleException(exp);
+    } finally {
+      invalidateCache(payload.getId());
     }
   }
 
   /**
-   * Updates existing resource.
+   * Updates existing resource. The resource is removed from the cache whether or not the update
+   * succeeds, because its state in the service is not known after a failure.
    */
   public T update(T payload) {
     logger.debug("Update resource {}: {}", getResultClass().getSimpleName(), payload);
@@ -69,9 +185,80 @@ public abstract class ResourceCommunicationService<T extends BaseDto>
           .getBody();
     } catch (HttpStatusCodeException exp) {
       throw handleException(exp);
+    } finally {
+      invalidateCache(payload.getId());
+    }
+  }
+
+  /**
+   * Updates existing resources. At most the configured number of updates are sent at the same
+   * time. A failed update does not stop the others, all outcomes are collected in the result.
+   * If the calling thread is interrupted, updates which have not ended yet are cancelled.
+   *
+   * @param payloads resources to update.
+   * @return updated resources and failures by resource id.
+   */
+  public BulkUpdateResult<T> updateAll(Collection<T> payloads) {
+    BulkUpdateResult<T> result = new BulkUpdateResult<>();
+
+    if (bulkUpdateParallelism <= 1 || payloads.size() <= 1) {
+      payloads.forEach(payload -> updateOne(payload, result));
+      return result;
+    }
+
+    List<Future<T>> tasks = new ArrayList<>();
+    payloads.forEach(payload -> tasks.add(updateExecutor.submit(() -> update(payload))));
+
+    Iterator<Future<T>> iterator = tasks.iterator();
+    for (T payload : payloads) {
+      Future<T> task = iterator.next();
+
+      if (Thread.currentThread().isInterrupted()) {
+        task.cancel(true);
+        result.addFailure(payload, new IllegalStateException("Update has been interrupted"));
+      } else {
+        collect(payload, task, result);
+      }
+    }
+
+    return result;
+  }
+
+  private void updateOne(T payload, BulkUpdateResult<T> result) {
+    try {
+      result.addUpdated(update(payload));
+    } catch (RuntimeException exp) {
+      result.addFailure(payload, exp);
+    }
+  }
+
+  private void collect(T payload, Future<T> task, BulkUpdateResult<T> result) {
+    try {
+      result.addUpdated(task.get());
+    } catch (InterruptedException exp) {
+      Thread.currentThread().interrupt();
+      task.cancel(true);
+      result.addFailure(payload, new IllegalStateException("Update has been interrupted", exp));
+    } catch (ExecutionException exp) {
+      Throwable cause = exp.getCause();
+      result.addFailure(payload, cause instanceof RuntimeException
+          ? (RuntimeException) cause
+          : new IllegalStateException(cause));
     }
   }
 
+  private void invalidateCache(UUID id) {
+    if (null == resourceCache) {
+      return;
+    }
+
+    if (null != id) {
+      resourceCache.invalidate(id);
+    }
+
+    resourceListCache.invalidateAll();
+  }
+
   private RuntimeException handleException(HttpStatusCodeException exp) {
     if (exp.getStatusCode() == HttpStatus.BAD_REQUEST) {
       try {
@@ -88,12 +275,96 @@ public abstract class ResourceCommunicationService<T extends BaseDto>
   }
 
   /**
-   * Return one object from service.
+   * Return one object from service. If the cache is enabled, the found object is kept in it and
+   * the caller gets a shallow copy, so its properties can be set without changing the cached
+   * object. Extra data is copied too, other nested objects are shared and must not be modified.
+   * Missing objects are not cached.
    *
    * @param id UUID of requesting object.
    * @return Requesting reference data object.
    */
   public T findOne(UUID id) {
+    return null == resourceCache
+        ? fetchOne(id)
+        : copy(resourceCache.get(id, this::fetchOne));
+  }
+
+  /**
+   * Return objects with the given ids. Objects which are in the cache are not requested again,
+   * the others are requested with one query per chunk of ids and put into the cache. Responses
+   * are read as a stream, so found objects are not collected in a page first. Like
+   * {@link #findOne(UUID)}, it returns shallow copies of cached objects.
+   *
+   * @param ids UUIDs of requesting objects.
+   * @return found objects by their ids, missing objects are not included.
+   */
+  public Map<UUID, T> findByIds(Collection<UUID> ids) {
+    Map<UUID, T> found = new HashMap<>();
+
+    if (null != resourceCache) {
+      found.putAll(resourceCache.getAllPresent(ids));
+    }
+
+    List<UUID> missing = ids
+        .stream()
+        .distinct()
+        .filter(id -> !found.containsKey(id))
+        .collect(Collectors.toList());
+
+    for (List<UUID> chunk : Lists.partition(missing, idsChunkSize)) {
+      RequestParameters parameters = RequestParameters
+          .init()
+          .set(ID, chunk)
+          .set(PAGE, 0)
+          .set(SIZE, chunk.size());
+
+      getPage("", parameters, resource -> found.put(resource.getId(), resource));
+    }
+
+    if (null != resourceCache) {
+      missing
+          .stream()
+          .filter(found::containsKey)
+          .forEach(id -> resourceCache.put(id, found.get(id)));
+      found.replaceAll((id, resource) -> copy(resource));
+    }
+
+    return found;
+  }
+
+  /**
+   * Loads objects with the given ids into the cache, so they do not have to be requested one by
+   * one by {@link #findOne(UUID)}. Does nothing if the cache is disabled.
+   *
+   * @param ids UUIDs of objects that will be requested soon.
+   */
+  public void prefetch(Collection<UUID> ids) {
+    if (null != resourceCache && !ids.isEmpty()) {
+      findByIds(ids);
+    }
+  }
+
+  private T copy(T resource) {
+    if (null == resource) {
+      return null;
+    }
+
+    T copy = BeanUtils.instantiateClass(getResultClass());
+    BeanUtils.copyProperties(resource, copy);
+
+    // interceptors add entries to extra data of found objects
+    if (copy instanceof ExtraDataContainer) {
+      ExtraDataContainer container = (ExtraDataContainer) copy;
+
+      if (null != container.getExtraData()) {
+        container.setExtraData(new HashMap<>(container.getExtraData()));
+      }
+    }
+
+    return copy;
+  }
+
+  private T fetchOne(UUID id) {
     try {
       return execute(id.toString(), null, null, null, HttpMethod.GET, getResultClass()).getBody();
     } catch (HttpStatusCodeException ex) {
@@ -111,8 +382,15 @@ public abstract class ResourceCommunicationService<T extends BaseDto>
     }
   }
 
+  /**
+   * Return all reference data T objects. If the cache is enabled, the returned list is read-only
+   * and it is shared between callers.
+   */
   public List<T> findAll() {
-    return findAll("", RequestParameters.init());
+    return null == resourceListCache
+        ? findAll("", RequestParameters.init())
+        : resourceListCache.get(ALL, key ->
+            Collections.unmodifiableList(findAll("", RequestParameters.init())));
   }
 
   /**
@@ -177,4 +455,67 @@ public abstract class ResourceCommunicationService<T extends BaseDto>
       throw DataRetrievalException.build(getResultClass().getSimpleName(), ex);
     }
   }
+
+  /**
+   * Retrieves a page with GET request and passes its elements to the consumer one by one, while
+   * the response is still being read. Elements are never collected in a list, so memory usage
+   * does not depend on the page size.
+   *
+   * @param resourceUrl Endpoint url.
+   * @param parameters  Map of query parameters.
+   * @param consumer    receives each element of the page content.
+   * @return page metadata; its content is always empty.
+   */
+  protected PageDto<T> getPage(String resourceUrl, RequestParameters parameters,
+      Consumer<T> consumer) {
+    try {
+      return execute(resourceUrl, parameters, response -> readPage(response, consumer));
+    } catch (HttpStatusCodeException ex) {
+      throw DataRetrievalException.build(getResultClass().getSimpleName(), ex);
+    }
+  }
+
+  private PageDto<T> readPage(ClientHttpResponse response, Consumer<T> consumer)
+      throws IOException {
+    ObjectNode metadata = objectMapper.createObjectNode();
+
+    try (JsonParser parser = objectMapper.getFactory().createParser(response.getBody())) {
+      if (parser.nextToken() != JsonToken.START_OBJECT) {
+        throw new JsonParseException(parser, "Page object expected");
+      }
+
+      while (parser.nextToken() == JsonToken.FIELD_NAME) {
+        String field = parser.getCurrentName();
+        JsonToken value = parser.nextToken();
+
+        if (CONTENT.equals(field) && value == JsonToken.START_ARRAY) {
+          while (parser.nextToken() != JsonToken.END_ARRAY) {
+            consumer.accept(objectMapper.readValue(parser, getResultClass()));
+          }
+        } else {
+          metadata.set(field, objectMapper.readTree(parser));
+        }
+      }
+    }
+
+    @SuppressWarnings("unchecked")
+    PageDto<T> page = objectMapper.treeToValue(metadata, PageDto.class);
+    return page;
+  }
+
+  /**
+   * Return all reference data T objects for Page that need to be retrieved with GET request,
+   * without blocking the calling thread.
+   *
+   * @param resourceUrl Endpoint url.
+   * @param parameters  Map of query parameters.
+   * @return Page of reference data T objects.
+   */
+  protected Mono<Page<T>> getPageAsync(String resourceUrl, RequestParameters parameters) {
+    DynamicPageTypeReference<T> type = new DynamicPageTypeReference<>(getResultClass());
+    return executeAsync(resourceUrl, parameters, type)
+        .<Page<T>>map(page -> page)
+        .onErrorMap(HttpStatusCodeException.class,
+            ex -> DataRetrievalException.build(getResultClass().getSimpleName(), ex));
+  }
 }
@@ -17,9 +17,11 @@ package org.openlmis.hapifhir.service.referencedata;
 
 import com.vividsolutions.jts.geom.Coordinate;
 import com.vividsolutions.jts.geom.GeometryFactory;
+import java.util.List;
 import java.util.Objects;
 import java.util.Optional;
 import java.util.UUID;
+import javax.annotation.PostConstruct;
 import org.hl7.fhir.r4.model.Location;
 import org.hl7.fhir.r4.model.Location.LocationStatus;
 import org.hl7.fhir.r4.model.PrimitiveType;
@@ -28,10 +30,13 @@ import org.hl7.fhir.r4.model.codesystems.LocationPhysicalType;
 import org.openlmis.hapifhir.i18n.Message;
 import org.openlmis.hapifhir.i18n.MessageKeys;
 import org.openlmis.hapifhir.service.OpenLmisResourceCreatorInterceptor;
+import org.openlmis.hapifhir.service.RefreshableValue;
 import org.openlmis.hapifhir.service.ResourceCommunicationService;
 import org.openlmis.hapifhir.service.ValidationMessageException;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
 import org.springframework.stereotype.Component;
 
 @Component
@@ -49,8 +54,27 @@ public class FacilityCreatorInterceptor extends OpenLmisResourceCreatorIntercept
   @Value("${facilityTypeId}")
   private UUID facilityTypeId;
 
+  @Value("${facilityType.refreshInterval}")
+  private long facilityTypeRefreshInterval;
+
   private GeometryFactory geometryFactory = new GeometryFactory();
-  private FacilityTypeDto facilityType;
+  private RefreshableValue<FacilityTypeDto> facilityType;
+
+  @PostConstruct
+  void init() {
+    facilityType = new RefreshableValue<>("facility type",
+        () -> facilityTypeReferenceDataService.findOne(facilityTypeId),
+        facilityTypeRefreshInterval);
+  }
+
+  /**
+   * Loads the configured facility type when the application has started, so the first request
+   * does not have to wait for it.
+   */
+  @EventListener(ApplicationReadyEvent.class)
+  public void warmUp() {
+    facilityType.warmUp();
+  }
 
   @Override
   protected boolean supports(LocationPhysicalType type) {
@@ -102,20 +126,32 @@ public class FacilityCreatorInterceptor extends OpenLmisResourceCreatorIntercept
     return facility;
   }
 
+  /**
+   * Facilities are not referenced by other locations, so their updates can wait for the end of
+   * the transaction and be sent together.
+   */
+  @Override
+  protected boolean isBulkUpdateSupported() {
+    return true;
+  }
+
+  @Override
+  public void prefetch(List<Location> locations) {
+    super.prefetch(locations);
+    geographicZoneReferenceDataService.prefetch(getIds(locations,
+        location -> location.getPartOf().getReferenceElement()));
+  }
+
   @Override
   protected ResourceCommunicationService<FacilityDto> getCommunicationService() {
     return facilityReferenceDataService;
   }
 
   private FacilityTypeDto getFacilityType() {
-    if (null == facilityType) {
-      facilityType = Optional
-          .ofNullable(facilityTypeReferenceDataService.findOne(facilityTypeId))
-          .orElseThrow(() -> new ValidationMessageException(
-              new Message(MessageKeys.ERROR_NOT_FOUND_FACILITY_TYPE, facilityTypeId)));
-    }
-
-    return facilityType;
+    return Optional
+        .ofNullable(facilityType.get())
+        .orElseThrow(() -> new ValidationMessageException(
+            new Message(MessageKeys.ERROR_NOT_FOUND_FACILITY_TYPE, facilityTypeId)));
   }
 
   private FacilityDto findFacility(String id) {
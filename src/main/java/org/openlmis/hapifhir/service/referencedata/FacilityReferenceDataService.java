@@ -35,4 +35,9 @@ public class FacilityReferenceDataService extends BaseReferenceDataService<Facil
     return "/api/facilities/";
   }
 
+  @Override
+  protected String getCacheName() {
+    return "referencedata.cache.facilities";
+  }
+
 }
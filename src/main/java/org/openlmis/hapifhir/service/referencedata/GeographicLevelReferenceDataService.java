@@ -35,4 +35,9 @@ public class GeographicLevelReferenceDataService
   protected String getUrl() {
     return "/api/geographicLevels/";
   }
+
+  @Override
+  protected String getCacheName() {
+    return "referencedata.cache.geographicLevels";
+  }
 }
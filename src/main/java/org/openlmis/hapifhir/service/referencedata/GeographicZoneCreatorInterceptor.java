@@ -21,6 +21,7 @@ import java.math.BigDecimal;
 import java.util.List;
 import java.util.Objects;
 import java.util.Optional;
+import java.util.Set;
 import java.util.UUID;
 import org.hl7.fhir.instance.model.api.IIdType;
 import org.hl7.fhir.r4.model.Location;
@@ -102,6 +103,14 @@ public class GeographicZoneCreatorInterceptor extends
     return geographicZone;
   }
 
+  @Override
+  public void prefetch(List<Location> locations) {
+    // zones and their parents are read from the same service, so they are requested together
+    Set<UUID> ids = getIds(locations, Location::getIdElement);
+    ids.addAll(getIds(locations, location -> location.getPartOf().getReferenceElement()));
+    geographicZoneReferenceDataService.prefetch(ids);
+  }
+
   @Override
   protected ResourceCommunicationService<GeographicZoneDto> getCommunicationService() {
     return geographicZoneReferenceDataService;
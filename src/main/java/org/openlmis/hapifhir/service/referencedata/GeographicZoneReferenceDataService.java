@@ -36,4 +36,9 @@ public class GeographicZoneReferenceDataService
     return "/api/geographicZones/";
   }
 
+  @Override
+  protected String getCacheName() {
+    return "referencedata.cache.geographicZones";
+  }
+
 }
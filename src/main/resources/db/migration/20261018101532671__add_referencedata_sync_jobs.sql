@@ -0,0 +1,33 @@
+-- WHEN COMMITTING OR REVIEWING THIS FILE: Make sure that the timestamp in the file name (that serves as a version) is the latest timestamp, and that no new migration have been added in the meanwhile.
+-- Adding migrations out of order may cause this migration to never execute or behave in an unexpected way.
+-- Migrations should NOT BE EDITED. Add a new migration to apply changes.
+
+CREATE TABLE referencedata_sync_jobs (
+  id bigserial NOT NULL,
+  synctype varchar(50) NOT NULL,
+  resourceid varchar(100) NOT NULL,
+  payload text NOT NULL,
+  attempts int NOT NULL DEFAULT 0,
+  createdat timestamptz NOT NULL DEFAULT now(),
+  nextattemptat timestamptz NOT NULL DEFAULT now(),
+  lockeduntil timestamptz,
+  lasterror text,
+  PRIMARY KEY (id)
+);
+
+CREATE INDEX referencedata_sync_jobs_resource_idx
+  ON referencedata_sync_jobs (synctype, resourceid, id);
+CREATE INDEX referencedata_sync_jobs_nextattemptat_idx
+  ON referencedata_sync_jobs (nextattemptat);
+
+CREATE TABLE referencedata_sync_dead_letters (
+  id bigint NOT NULL,
+  synctype varchar(50) NOT NULL,
+  resourceid varchar(100) NOT NULL,
+  payload text NOT NULL,
+  attempts int NOT NULL,
+  createdat timestamptz NOT NULL,
+  failedat timestamptz NOT NULL DEFAULT now(),
+  lasterror text,
+  PRIMARY KEY (id)
+);
@@ -0,0 +1,12 @@
+-- WHEN COMMITTING OR REVIEWING THIS FILE: Make sure that the timestamp in the file name (that serves as a version) is the latest timestamp, and that no new migration have been added in the meanwhile.
+-- Adding migrations out of order may cause this migration to never execute or behave in an unexpected way.
+-- Migrations should NOT BE EDITED. Add a new migration to apply changes.
+
+-- Binary values are kept inline in bytea columns. Existing large objects stay in the renamed
+-- columns until they are copied by the application in small batches, and they are read from there
+-- in the meantime. The statements only change the catalog, so they do not rewrite the tables.
+ALTER TABLE HFJ_RES_VER RENAME COLUMN RES_TEXT TO RES_TEXT_LOB;
+ALTER TABLE HFJ_RES_VER ADD COLUMN RES_TEXT bytea;
+
+ALTER TABLE HFJ_SEARCH RENAME COLUMN SEARCH_PARAM_MAP TO SEARCH_PARAM_MAP_LOB;
+ALTER TABLE HFJ_SEARCH ADD COLUMN SEARCH_PARAM_MAP bytea;
@@ -0,0 +1,85 @@
+/*
+ * This program is part of the OpenLMIS logistics management information system platform software.
+ * Copyright © 2017 VillageReach
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms
+ * of the GNU Affero General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details. You should have received a copy of
+ * the GNU Affero General Public License along with this program. If not, see
+ * http://www.gnu.org/licenses.  For additional information contact info@OpenLMIS.org.
+ */
+
+package org.openlmis.hapifhir.config;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import ca.uhn.fhir.jpa.model.entity.ForcedId;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.util.HashMap;
+import java.util.Map;
+import net.sf.ehcache.CacheManager;
+import net.sf.ehcache.config.CacheConfiguration;
+import org.hibernate.cache.ehcache.ConfigSettings;
+import org.hibernate.cfg.AvailableSettings;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+public class HibernateCacheConfigurationTest {
+
+  private MeterRegistry meterRegistry = new SimpleMeterRegistry();
+  private HibernateCacheConfiguration configuration = new HibernateCacheConfiguration();
+  private CacheManager cacheManager;
+
+  @Before
+  public void setUp() {
+    ReflectionTestUtils.setField(configuration, "ttl", 60L);
+    ReflectionTestUtils.setField(configuration, "maxSize", 100);
+
+    cacheManager = configuration.hibernateCacheManager(meterRegistry);
+  }
+
+  @After
+  public void tearDown() {
+    cacheManager.shutdown();
+  }
+
+  @Test
+  public void shouldCreateBoundedRegions() {
+    HibernateCacheConfiguration.REGIONS.values().forEach(region -> {
+      CacheConfiguration config = cacheManager.getEhcache(region).getCacheConfiguration();
+
+      assertThat(config.getMaxEntriesLocalHeap()).isEqualTo(100L);
+      assertThat(config.getTimeToLiveSeconds()).isEqualTo(60L);
+    });
+  }
+
+  @Test
+  public void shouldExposeRegionMetrics() {
+    HibernateCacheConfiguration.REGIONS.values().forEach(region -> {
+      assertThat(meterRegistry.find("cache.gets").tag("cache", region).meters()).isNotEmpty();
+      assertThat(meterRegistry.find("cache.evictions").tag("cache", region).meters())
+          .isNotEmpty();
+    });
+  }
+
+  @Test
+  public void shouldEnableSecondLevelCacheForEntities() {
+    Map<String, Object> properties = new HashMap<>();
+
+    configuration.secondLevelCacheCustomizer(cacheManager).customize(properties);
+
+    assertThat(properties)
+        .containsEntry(AvailableSettings.USE_SECOND_LEVEL_CACHE, true)
+        .containsEntry(ConfigSettings.CACHE_MANAGER, cacheManager)
+        .containsEntry(AvailableSettings.CLASS_CACHE_PREFIX + "." + ForcedId.class.getName(),
+            "read-write,hapifhir.forcedIds");
+  }
+
+}
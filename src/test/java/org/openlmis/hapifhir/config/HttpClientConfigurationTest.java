@@ -0,0 +1,141 @@
+/*
+ * This program is part of the OpenLMIS logistics management information system platform software.
+ * Copyright © 2017 VillageReach
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms
+ * of the GNU Affero General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details. You should have received a copy of
+ * the GNU Affero General Public License along with this program. If not, see
+ * http://www.gnu.org/licenses.  For additional information contact info@OpenLMIS.org.
+ */
+
+package org.openlmis.hapifhir.config;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.GZIPInputStream;
+import org.apache.commons.io.IOUtils;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Captor;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.client.ClientHttpRequestExecution;
+import org.springframework.mock.http.client.MockClientHttpRequest;
+import org.springframework.mock.http.client.MockClientHttpResponse;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.web.client.RestTemplate;
+
+@RunWith(MockitoJUnitRunner.class)
+public class HttpClientConfigurationTest {
+
+  private static final byte[] BODY = "{\"name\":\"value\"}".getBytes(StandardCharsets.UTF_8);
+
+  @Mock
+  private ClientHttpRequestExecution execution;
+
+  @Captor
+  private ArgumentCaptor<byte[]> bodyCaptor;
+
+  private MeterRegistry meterRegistry = new SimpleMeterRegistry();
+  private HttpClientConfiguration configuration = new HttpClientConfiguration();
+  private MockClientHttpRequest request = new MockClientHttpRequest(
+      HttpMethod.PUT, URI.create("http://localhost/api/facilities"));
+
+  @Before
+  public void setUp() throws IOException {
+    ReflectionTestUtils.setField(configuration, "maxConnections", 10);
+    ReflectionTestUtils.setField(configuration, "maxConnectionsPerRoute", 5);
+    ReflectionTestUtils.setField(configuration, "idleTimeout", 1000L);
+    ReflectionTestUtils.setField(configuration, "keepAlive", 1000L);
+
+    when(execution.execute(any(), any()))
+        .thenReturn(new MockClientHttpResponse(new byte[0], HttpStatus.OK));
+  }
+
+  @Test
+  public void shouldCreatePooledRestTemplate() {
+    PoolingHttpClientConnectionManager connectionManager =
+        configuration.httpConnectionManager(meterRegistry);
+    RestTemplate restTemplate = configuration
+        .restTemplate(configuration.httpClient(connectionManager), meterRegistry);
+
+    assertThat(connectionManager.getMaxTotal()).isEqualTo(10);
+    assertThat(connectionManager.getDefaultMaxPerRoute()).isEqualTo(5);
+    assertThat(restTemplate.getInterceptors())
+        .hasSize(1)
+        .hasOnlyElementsOfType(HttpClientMetricsInterceptor.class);
+    assertThat(meterRegistry.get("http.client.pool.max").gauge().value()).isEqualTo(10);
+  }
+
+  @Test
+  public void shouldAddGzipInterceptorIfRequestCompressionIsEnabled() {
+    ReflectionTestUtils.setField(configuration, "compressRequests", true);
+
+    RestTemplate restTemplate = configuration.restTemplate(
+        configuration.httpClient(configuration.httpConnectionManager(meterRegistry)),
+        meterRegistry);
+
+    assertThat(restTemplate.getInterceptors())
+        .hasAtLeastOneElementOfType(GzipRequestInterceptor.class);
+  }
+
+  @Test
+  public void shouldCompressRequestBody() throws IOException {
+    new GzipRequestInterceptor().intercept(request, BODY, execution);
+
+    verify(execution).execute(eq(request), bodyCaptor.capture());
+
+    byte[] decompressed = IOUtils.toByteArray(
+        new GZIPInputStream(new ByteArrayInputStream(bodyCaptor.getValue())));
+
+    assertThat(decompressed).isEqualTo(BODY);
+    assertThat(request.getHeaders().getFirst(HttpHeaders.CONTENT_ENCODING))
+        .isEqualTo(GzipRequestInterceptor.GZIP);
+  }
+
+  @Test
+  public void shouldNotCompressEmptyBody() throws IOException {
+    byte[] empty = new byte[0];
+    new GzipRequestInterceptor().intercept(request, empty, execution);
+
+    verify(execution).execute(request, empty);
+    assertThat(request.getHeaders()).doesNotContainKey(HttpHeaders.CONTENT_ENCODING);
+  }
+
+  @Test
+  public void shouldRecordRequestLatency() throws IOException {
+    new HttpClientMetricsInterceptor(meterRegistry).intercept(request, BODY, execution);
+
+    Timer timer = meterRegistry
+        .get(HttpClientMetricsInterceptor.METRIC_NAME)
+        .tag("method", "PUT")
+        .tag("host", "localhost")
+        .tag("status", "200")
+        .timer();
+
+    assertThat(timer.count()).isEqualTo(1);
+  }
+
+}
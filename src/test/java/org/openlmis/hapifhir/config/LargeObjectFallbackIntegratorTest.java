@@ -0,0 +1,82 @@
+/*
+ * This program is part of the OpenLMIS logistics management information system platform software.
+ * Copyright © 2017 VillageReach
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms
+ * of the GNU Affero General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details. You should have received a copy of
+ * the GNU Affero General Public License along with this program. If not, see
+ * http://www.gnu.org/licenses.  For additional information contact info@OpenLMIS.org.
+ */
+
+package org.openlmis.hapifhir.config;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.BDDMockito.given;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyZeroInteractions;
+
+import ca.uhn.fhir.jpa.entity.Search;
+import ca.uhn.fhir.jpa.model.entity.ResourceHistoryTable;
+import java.util.Collections;
+import org.hibernate.boot.Metadata;
+import org.hibernate.mapping.Column;
+import org.hibernate.mapping.PersistentClass;
+import org.hibernate.mapping.Property;
+import org.hibernate.mapping.Selectable;
+import org.junit.Rule;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnit;
+import org.mockito.junit.MockitoRule;
+
+public class LargeObjectFallbackIntegratorTest {
+
+  @Rule
+  public MockitoRule mockitoRule = MockitoJUnit.rule();
+
+  @Mock
+  private Metadata metadata;
+
+  @Mock
+  private PersistentClass binding;
+
+  @Mock
+  private Property property;
+
+  private LargeObjectFallbackIntegrator integrator = new LargeObjectFallbackIntegrator();
+
+  @Test
+  public void shouldReadFromLargeObjectWhenValueHasNotBeenCopied() {
+    // given
+    Column column = new Column("RES_TEXT");
+    given(metadata.getEntityBinding(ResourceHistoryTable.class.getName())).willReturn(binding);
+    given(binding.getProperty("myResource")).willReturn(property);
+    given(property.getColumnIterator())
+        .willReturn(Collections.<Selectable>singletonList(column).iterator());
+
+    // when
+    integrator.integrate(metadata, null, null);
+
+    // then
+    assertThat(column.getCustomRead()).isEqualTo("coalesce(res_text, lo_get(res_text_lob))");
+  }
+
+  @Test
+  public void shouldSkipEntitiesThatAreNotMapped() {
+    // given
+    given(metadata.getEntityBinding(Search.class.getName())).willReturn(null);
+
+    // when
+    integrator.integrate(metadata, null, null);
+
+    // then
+    verify(metadata).getEntityBinding(Search.class.getName());
+    verifyZeroInteractions(binding);
+  }
+
+}
@@ -0,0 +1,105 @@
+/*
+ * This program is part of the OpenLMIS logistics management information system platform software.
+ * Copyright © 2017 VillageReach
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms
+ * of the GNU Affero General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details. You should have received a copy of
+ * the GNU Affero General Public License along with this program. If not, see
+ * http://www.gnu.org/licenses.  For additional information contact info@OpenLMIS.org.
+ */
+
+package org.openlmis.hapifhir.config;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import io.github.resilience4j.bulkhead.Bulkhead;
+import io.github.resilience4j.bulkhead.BulkheadRegistry;
+import io.github.resilience4j.circuitbreaker.CircuitBreaker;
+import io.github.resilience4j.circuitbreaker.CircuitBreaker.State;
+import io.github.resilience4j.circuitbreaker.CircuitBreakerRegistry;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.http.HttpStatus;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.web.client.HttpClientErrorException;
+import org.springframework.web.client.HttpServerErrorException;
+import org.springframework.web.client.ResourceAccessException;
+
+public class ResilienceConfigurationTest {
+
+  private MeterRegistry meterRegistry = new SimpleMeterRegistry();
+  private ResilienceConfiguration configuration = new ResilienceConfiguration();
+
+  @Before
+  public void setUp() {
+    ReflectionTestUtils.setField(configuration, "failureRateThreshold", 50F);
+    ReflectionTestUtils.setField(configuration, "ringBufferSizeInClosedState", 4);
+    ReflectionTestUtils.setField(configuration, "ringBufferSizeInHalfOpenState", 2);
+    ReflectionTestUtils.setField(configuration, "waitDurationInOpenState", 60000L);
+    ReflectionTestUtils.setField(configuration, "maxConcurrentCalls", 1);
+    ReflectionTestUtils.setField(configuration, "maxWaitTime", 0L);
+  }
+
+  @Test
+  public void shouldOpenCircuitBreakerIfServiceKeepsFailing() {
+    CircuitBreaker circuitBreaker = configuration
+        .referenceDataCircuitBreaker(configuration.circuitBreakerRegistry());
+
+    circuitBreaker.onSuccess(0);
+    circuitBreaker.onError(0, new HttpServerErrorException(HttpStatus.BAD_GATEWAY));
+    circuitBreaker.onSuccess(0);
+    circuitBreaker.onError(0, new ResourceAccessException("Read timed out"));
+
+    assertThat(circuitBreaker.getState()).isEqualTo(State.OPEN);
+    assertThat(circuitBreaker.isCallPermitted()).isFalse();
+  }
+
+  @Test
+  public void shouldNotRecordClientErrorsAsFailures() {
+    CircuitBreaker circuitBreaker = configuration
+        .referenceDataCircuitBreaker(configuration.circuitBreakerRegistry());
+
+    for (int i = 0; i < 4; ++i) {
+      circuitBreaker.onError(0, new HttpClientErrorException(HttpStatus.BAD_REQUEST));
+    }
+
+    assertThat(circuitBreaker.getState()).isEqualTo(State.CLOSED);
+    assertThat(circuitBreaker.getMetrics().getNumberOfFailedCalls()).isZero();
+  }
+
+  @Test
+  public void shouldLimitConcurrentCalls() {
+    Bulkhead bulkhead = configuration.referenceDataBulkhead(configuration.bulkheadRegistry());
+
+    assertThat(bulkhead.isCallPermitted()).isTrue();
+    assertThat(bulkhead.isCallPermitted()).isFalse();
+
+    bulkhead.onComplete();
+
+    assertThat(bulkhead.isCallPermitted()).isTrue();
+  }
+
+  @Test
+  public void shouldExposeMetrics() {
+    CircuitBreakerRegistry circuitBreakers = configuration.circuitBreakerRegistry();
+    BulkheadRegistry bulkheads = configuration.bulkheadRegistry();
+
+    configuration.referenceDataCircuitBreaker(circuitBreakers);
+    configuration.referenceDataBulkhead(bulkheads);
+    configuration.circuitBreakerMetrics(circuitBreakers).bindTo(meterRegistry);
+    configuration.bulkheadMetrics(bulkheads).bindTo(meterRegistry);
+
+    assertThat(meterRegistry.getMeters())
+        .extracting(meter -> meter.getId().getName())
+        .anyMatch(name -> name.startsWith("resilience4j.circuitbreaker"))
+        .anyMatch(name -> name.startsWith("resilience4j.bulkhead"));
+  }
+
+}
@@ -0,0 +1,379 @@
+/*
+ * This program is part of the OpenLMIS logistics management information system platform software.
+ * Copyright © 2017 VillageReach
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms
+ * of the GNU Affero General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details. You should have received a copy of
+ * the GNU Affero General Public License along with this program. If not, see
+ * http://www.gnu.org/licenses.  For additional information contact info@OpenLMIS.org.
+ */
+
+package org.openlmis.hapifhir.config;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyZeroInteractions;
+import static org.mockito.Mockito.when;
+
+import ca.uhn.fhir.context.FhirContext;
+import ca.uhn.fhir.context.FhirVersionEnum;
+import ca.uhn.fhir.jpa.dao.BaseHapiFhirDao;
+import ca.uhn.fhir.jpa.model.entity.ResourceEncodingEnum;
+import ca.uhn.fhir.jpa.model.entity.ResourceHistoryTable;
+import ca.uhn.fhir.jpa.searchparam.ResourceMetaParams;
+import ca.uhn.fhir.rest.api.Constants;
+import ca.uhn.fhir.rest.api.EncodingEnum;
+import ca.uhn.fhir.rest.api.RequestTypeEnum;
+import ca.uhn.fhir.rest.api.RestOperationTypeEnum;
+import ca.uhn.fhir.rest.api.server.ResponseDetails;
+import ca.uhn.fhir.rest.server.ETagSupportEnum;
+import ca.uhn.fhir.rest.server.RestfulServer;
+import ca.uhn.fhir.rest.server.servlet.ServletRequestDetails;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.util.Collections;
+import java.util.Date;
+import org.hl7.fhir.r4.model.IdType;
+import org.hl7.fhir.r4.model.Location;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+import org.openlmis.hapifhir.repository.ResourceVersionRepository;
+import org.openlmis.hapifhir.repository.StoredResourceRepository;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.test.util.ReflectionTestUtils;
+
+@RunWith(MockitoJUnitRunner.class)
+public class ResponseCacheInterceptorTest {
+
+  private static final String ID = "a2a5e5a3-6a3f-4bfc-9e5b-3d2d6ac1e8c4";
+
+  @Mock
+  private ResourceVersionRepository resourceVersionRepository;
+
+  @Mock
+  private StoredResourceRepository storedResourceRepository;
+
+  @InjectMocks
+  private ResponseCacheInterceptor interceptor;
+
+  private RestfulServer server;
+  private Location location;
+
+  @Before
+  public void setUp() {
+    ReflectionTestUtils.setField(interceptor, "maxSize", 100L);
+    ReflectionTestUtils.setField(interceptor, "versionTtl", 30L);
+    ReflectionTestUtils.setField(interceptor, "passthrough", true);
+    ReflectionTestUtils.setField(interceptor, "meterRegistry", new SimpleMeterRegistry());
+    interceptor.init();
+
+    server = new RestfulServer(FhirContext.forR4());
+    server.setETagSupport(ETagSupportEnum.ENABLED);
+    server.setDefaultResponseEncoding(EncodingEnum.JSON);
+
+    location = new Location();
+    location.setId(new IdType("Location", ID, "2"));
+    location.setName("Balaka District Hospital");
+  }
+
+  @Test
+  public void shouldRespondWithNotModifiedIfVersionMatches() {
+    // given
+    when(resourceVersionRepository.findVersion("Location", ID)).thenReturn("2");
+    ServletRequestDetails details = readRequest(RestOperationTypeEnum.READ, null);
+    addHeader(details, Constants.HEADER_IF_NONE_MATCH, "W/\"2\"");
+    MockHttpServletResponse response = new MockHttpServletResponse();
+
+    // when
+    boolean proceed = interceptor
+        .incomingRequestPostProcessed(details, details.getServletRequest(), response);
+
+    // then
+    assertThat(proceed).isFalse();
+    assertThat(response.getStatus()).isEqualTo(Constants.STATUS_HTTP_304_NOT_MODIFIED);
+    assertThat(response.getHeader(Constants.HEADER_ETAG)).isEqualTo("W/\"2\"");
+  }
+
+  @Test
+  public void shouldProceedIfVersionDoesNotMatch() {
+    // given
+    when(resourceVersionRepository.findVersion("Location", ID)).thenReturn("3");
+    ServletRequestDetails details = readRequest(RestOperationTypeEnum.READ, null);
+    addHeader(details, Constants.HEADER_IF_NONE_MATCH, "W/\"2\"");
+
+    // when
+    boolean proceed = interceptor.incomingRequestPostProcessed(details,
+        details.getServletRequest(), new MockHttpServletResponse());
+
+    // then
+    assertThat(proceed).isTrue();
+  }
+
+  @Test
+  public void shouldProceedIfResourceDoesNotExist() {
+    // given
+    ServletRequestDetails details = readRequest(RestOperationTypeEnum.READ, null);
+
+    // when
+    boolean proceed = interceptor.incomingRequestPostProcessed(details,
+        details.getServletRequest(), new MockHttpServletResponse());
+
+    // then
+    assertThat(proceed).isTrue();
+  }
+
+  @Test
+  public void shouldNotHandleRequestsWithOtherParameters() {
+    // given
+    ServletRequestDetails details = readRequest(RestOperationTypeEnum.READ, null);
+    details.setParameters(Collections.singletonMap(
+        Constants.PARAM_SUMMARY, new String[]{"true"}));
+
+    // when
+    boolean proceed = interceptor.incomingRequestPostProcessed(details,
+        details.getServletRequest(), new MockHttpServletResponse());
+
+    // then
+    assertThat(proceed).isTrue();
+    verifyZeroInteractions(resourceVersionRepository);
+  }
+
+  @Test
+  public void shouldServeEncodedResponseFromCache() throws Exception {
+    // given
+    when(resourceVersionRepository.findVersion("Location", ID)).thenReturn("2");
+    MockHttpServletResponse first = new MockHttpServletResponse();
+    ServletRequestDetails details = readRequest(RestOperationTypeEnum.READ, null);
+    interceptor.outgoingResponse(details, readResponse(),
+        details.getServletRequest(), first);
+
+    // when
+    MockHttpServletResponse second = new MockHttpServletResponse();
+    details = readRequest(RestOperationTypeEnum.READ, null);
+    boolean proceed = interceptor
+        .incomingRequestPostProcessed(details, details.getServletRequest(), second);
+
+    // then
+    assertThat(proceed).isFalse();
+    assertThat(second.getStatus()).isEqualTo(Constants.STATUS_HTTP_200_OK);
+    assertThat(second.getHeader(Constants.HEADER_ETAG)).isEqualTo("W/\"2\"");
+    assertThat(second.getContentType()).startsWith(Constants.CT_FHIR_JSON_NEW);
+    assertThat(second.getContentAsString())
+        .isEqualTo(first.getContentAsString())
+        .contains("Balaka District Hospital");
+  }
+
+  @Test
+  public void shouldNotReuseResponseOfOtherEncoding() {
+    // given
+    when(resourceVersionRepository.findVersion("Location", ID)).thenReturn("2");
+    ServletRequestDetails details = readRequest(RestOperationTypeEnum.READ, null);
+    interceptor.outgoingResponse(details, readResponse(),
+        details.getServletRequest(), new MockHttpServletResponse());
+
+    // when
+    details = readRequest(RestOperationTypeEnum.READ, null);
+    details.setParameters(Collections.singletonMap(
+        Constants.PARAM_FORMAT, new String[]{Constants.FORMAT_XML}));
+    boolean proceed = interceptor.incomingRequestPostProcessed(details,
+        details.getServletRequest(), new MockHttpServletResponse());
+
+    // then
+    assertThat(proceed).isTrue();
+  }
+
+  @Test
+  public void shouldServeVersionReadWithoutVersionLookup() {
+    // given
+    ServletRequestDetails details = readRequest(RestOperationTypeEnum.VREAD, "2");
+    interceptor.outgoingResponse(details, readResponse(),
+        details.getServletRequest(), new MockHttpServletResponse());
+
+    // when
+    details = readRequest(RestOperationTypeEnum.VREAD, "2");
+    boolean proceed = interceptor.incomingRequestPostProcessed(details,
+        details.getServletRequest(), new MockHttpServletResponse());
+
+    // then
+    assertThat(proceed).isFalse();
+    verifyZeroInteractions(resourceVersionRepository);
+  }
+
+  @Test
+  public void shouldLookUpVersionAgainAfterResourceIsUpdated() {
+    // given
+    when(resourceVersionRepository.findVersion("Location", ID)).thenReturn("2");
+    ServletRequestDetails details = readRequest(RestOperationTypeEnum.READ, null);
+    interceptor.incomingRequestPostProcessed(details,
+        details.getServletRequest(), new MockHttpServletResponse());
+
+    // when
+    interceptor.resourceUpdated(details, location, location);
+    interceptor.incomingRequestPostProcessed(details,
+        details.getServletRequest(), new MockHttpServletResponse());
+
+    // then
+    verify(resourceVersionRepository, times(2)).findVersion("Location", ID);
+  }
+
+  @Test
+  public void shouldRemoveResponsesOfDeletedResource() {
+    // given
+    ServletRequestDetails details = readRequest(RestOperationTypeEnum.VREAD, "2");
+    interceptor.outgoingResponse(details, readResponse(),
+        details.getServletRequest(), new MockHttpServletResponse());
+
+    // when
+    interceptor.resourceDeleted(details, location);
+    boolean proceed = interceptor.incomingRequestPostProcessed(details,
+        details.getServletRequest(), new MockHttpServletResponse());
+
+    // then
+    assertThat(proceed).isTrue();
+  }
+
+  @Test
+  public void shouldKeepResponsesOfOtherResourcesWhenResourceIsDeleted() {
+    // given
+    ServletRequestDetails details = readRequest(RestOperationTypeEnum.VREAD, "2");
+    interceptor.outgoingResponse(details, readResponse(),
+        details.getServletRequest(), new MockHttpServletResponse());
+
+    Location other = new Location();
+    other.setId(new IdType("Location", "2b8e3fa7-0a8c-4bd8-9b21-4d1f0a7e8b5c", "1"));
+
+    // when
+    interceptor.resourceDeleted(null, other);
+    boolean proceed = interceptor.incomingRequestPostProcessed(details,
+        details.getServletRequest(), new MockHttpServletResponse());
+
+    // then
+    assertThat(proceed).isFalse();
+  }
+
+  @Test
+  public void shouldLookUpVersionAgainAfterResourceIsUpdatedWithoutRequest() {
+    // given
+    when(resourceVersionRepository.findVersion("Location", ID)).thenReturn("2");
+    ServletRequestDetails details = readRequest(RestOperationTypeEnum.READ, null);
+    interceptor.incomingRequestPostProcessed(details,
+        details.getServletRequest(), new MockHttpServletResponse());
+
+    // when
+    // changes made by a system DAO transaction are reported without request details
+    interceptor.resourceUpdated(null, location, location);
+    interceptor.incomingRequestPostProcessed(details,
+        details.getServletRequest(), new MockHttpServletResponse());
+
+    // then
+    verify(resourceVersionRepository, times(2)).findVersion("Location", ID);
+  }
+
+  @Test
+  public void shouldWriteStoredResourceWithoutParsingIt() throws Exception {
+    // given
+    when(resourceVersionRepository.findVersion("Location", ID)).thenReturn("2");
+    when(storedResourceRepository.findVersion("Location", ID, 2L)).thenReturn(store(false));
+
+    // when
+    ServletRequestDetails details = readRequest(RestOperationTypeEnum.READ, null);
+    MockHttpServletResponse first = new MockHttpServletResponse();
+    boolean proceed = interceptor
+        .incomingRequestPostProcessed(details, details.getServletRequest(), first);
+
+    details = readRequest(RestOperationTypeEnum.READ, null);
+    MockHttpServletResponse second = new MockHttpServletResponse();
+    interceptor.incomingRequestPostProcessed(details, details.getServletRequest(), second);
+
+    // then
+    assertThat(proceed).isFalse();
+    assertThat(first.getHeader(Constants.HEADER_ETAG)).isEqualTo("W/\"2\"");
+    assertThat(first.getHeader(Constants.HEADER_LAST_MODIFIED)).isNotBlank();
+    assertThat(first.getContentAsString())
+        .isEqualTo(second.getContentAsString())
+        .contains("\"versionId\":\"2\"")
+        .contains("Balaka District Hospital");
+    verify(storedResourceRepository).findVersion("Location", ID, 2L);
+  }
+
+  @Test
+  public void shouldLeaveStoredResourcesWithTagsToHapi() {
+    // given
+    when(resourceVersionRepository.findVersion("Location", ID)).thenReturn("2");
+    when(storedResourceRepository.findVersion("Location", ID, 2L)).thenReturn(store(true));
+
+    // when
+    ServletRequestDetails details = readRequest(RestOperationTypeEnum.READ, null);
+    boolean proceed = interceptor.incomingRequestPostProcessed(details,
+        details.getServletRequest(), new MockHttpServletResponse());
+
+    // then
+    assertThat(proceed).isTrue();
+  }
+
+  @Test
+  public void shouldNotWriteStoredResourceIfPassthroughIsDisabled() {
+    // given
+    ReflectionTestUtils.setField(interceptor, "passthrough", false);
+    when(resourceVersionRepository.findVersion("Location", ID)).thenReturn("2");
+
+    // when
+    ServletRequestDetails details = readRequest(RestOperationTypeEnum.READ, null);
+    boolean proceed = interceptor.incomingRequestPostProcessed(details,
+        details.getServletRequest(), new MockHttpServletResponse());
+
+    // then
+    assertThat(proceed).isTrue();
+    verifyZeroInteractions(storedResourceRepository);
+  }
+
+  private ResourceHistoryTable store(boolean hasTags) {
+    ResourceHistoryTable history = new ResourceHistoryTable();
+    history.setResourceType("Location");
+    history.setVersion(2);
+    history.setUpdated(new Date());
+    history.setHasTags(hasTags);
+    history.setFhirVersion(FhirVersionEnum.R4);
+    history.setEncoding(ResourceEncodingEnum.JSONC);
+    history.setResource(BaseHapiFhirDao.encodeResource(location, ResourceEncodingEnum.JSONC,
+        ResourceMetaParams.EXCLUDE_ELEMENTS_IN_ENCODED, server.getFhirContext()));
+
+    return history;
+  }
+
+  private ServletRequestDetails readRequest(RestOperationTypeEnum operation, String version) {
+    MockHttpServletRequest request = new MockHttpServletRequest();
+
+    ServletRequestDetails details = new ServletRequestDetails();
+    details.setServer(server);
+    details.setServletRequest(request);
+    details.setRestOperationType(operation);
+    details.setRequestType(RequestTypeEnum.GET);
+    details.setResourceName("Location");
+    details.setId(new IdType("Location", ID, version));
+    details.setParameters(Collections.emptyMap());
+
+    return details;
+  }
+
+  private ResponseDetails readResponse() {
+    ResponseDetails response = new ResponseDetails(location);
+    response.setResponseCode(Constants.STATUS_HTTP_200_OK);
+    return response;
+  }
+
+  private void addHeader(ServletRequestDetails details, String name, String value) {
+    ((MockHttpServletRequest) details.getServletRequest()).addHeader(name, value);
+  }
+
+}
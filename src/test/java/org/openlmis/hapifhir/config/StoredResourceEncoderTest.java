@@ -0,0 +1,145 @@
+/*
+ * This program is part of the OpenLMIS logistics management information system platform software.
+ * Copyright © 2017 VillageReach
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms
+ * of the GNU Affero General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details. You should have received a copy of
+ * the GNU Affero General Public License along with this program. If not, see
+ * http://www.gnu.org/licenses.  For additional information contact info@OpenLMIS.org.
+ */
+
+package org.openlmis.hapifhir.config;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import ca.uhn.fhir.context.FhirContext;
+import ca.uhn.fhir.context.FhirVersionEnum;
+import ca.uhn.fhir.jpa.dao.BaseHapiFhirDao;
+import ca.uhn.fhir.jpa.dao.GZipUtil;
+import ca.uhn.fhir.jpa.model.entity.ResourceEncodingEnum;
+import ca.uhn.fhir.jpa.model.entity.ResourceHistoryTable;
+import ca.uhn.fhir.jpa.searchparam.ResourceMetaParams;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.util.Date;
+import org.hl7.fhir.r4.model.BooleanType;
+import org.hl7.fhir.r4.model.IntegerType;
+import org.hl7.fhir.r4.model.Location;
+import org.hl7.fhir.r4.model.Narrative;
+import org.hl7.fhir.r4.model.Organization;
+import org.hl7.fhir.r4.model.Reference;
+import org.hl7.fhir.r4.model.StringType;
+import org.junit.Before;
+import org.junit.Test;
+
+public class StoredResourceEncoderTest {
+
+  private static final String ID = "a2a5e5a3-6a3f-4bfc-9e5b-3d2d6ac1e8c4";
+
+  private FhirContext context = FhirContext.forR4();
+  private Location location;
+  private Date updated = new Date(1546300800123L);
+
+  @Before
+  public void setUp() {
+    location = new Location();
+    location.getText().setStatus(Narrative.NarrativeStatus.GENERATED);
+    location.getText().setDivAsString("<div>Balaka &amp; \"Machinga\"</div>");
+    location.addIdentifier().setSystem("http://openlmis.org").setValue("HC01");
+    location.setStatus(Location.LocationStatus.ACTIVE);
+    location.setName("Balaka District Hospital");
+    location.getNameElement().addExtension("http://openlmis.org/translation",
+        new StringType("Chipatala cha Balaka"));
+    location.addAlias("BDH").addAlias("Balaka");
+    location.getPhysicalType().addCoding().setSystem("http://hl7.org/fhir/location-physical-type")
+        .setCode("si");
+    location.getPosition()
+        .setLatitude(new BigDecimal("-14.98700"))
+        .setLongitude(new BigDecimal("34.9560"))
+        .setAltitude(new BigDecimal("600"));
+    location.addExtension("http://openlmis.org/enabled", new BooleanType(true));
+    location.addExtension("http://openlmis.org/level", new IntegerType(3));
+    location.getAddress().addLine("Main road ż").setCity("Balaka");
+
+    Organization organization = new Organization();
+    organization.setId("org");
+    organization.setName("Ministry of Health");
+    location.addContained(organization);
+    location.setManagingOrganization(new Reference("#org"));
+    location.setPartOf(new Reference("Location/0c5d6d8e-5a43-4ad4-9c83-1e0b7f54c5fd"));
+  }
+
+  @Test
+  public void shouldEncodeStoredResourceLikeHapi() throws Exception {
+    for (ResourceEncodingEnum encoding : new ResourceEncodingEnum[]{
+        ResourceEncodingEnum.JSON, ResourceEncodingEnum.JSONC}) {
+      for (boolean pretty : new boolean[]{true, false}) {
+        // given
+        ResourceHistoryTable history = store(encoding);
+
+        // when
+        byte[] encoded = StoredResourceEncoder.encode(history, ID, pretty);
+
+        // then
+        assertThat(new String(encoded, StandardCharsets.UTF_8))
+            .isEqualTo(encodeWithHapi(history, pretty));
+      }
+    }
+  }
+
+  @Test
+  public void shouldSupportStoredJson() {
+    assertThat(StoredResourceEncoder.supports(store(ResourceEncodingEnum.JSON))).isTrue();
+    assertThat(StoredResourceEncoder.supports(store(ResourceEncodingEnum.JSONC))).isTrue();
+  }
+
+  @Test
+  public void shouldNotSupportVersionsWhichNeedMoreThanBody() {
+    ResourceHistoryTable tagged = store(ResourceEncodingEnum.JSONC);
+    tagged.setHasTags(true);
+
+    ResourceHistoryTable deleted = store(ResourceEncodingEnum.JSONC);
+    deleted.setDeleted(updated);
+
+    ResourceHistoryTable dstu3 = store(ResourceEncodingEnum.JSONC);
+    dstu3.setFhirVersion(FhirVersionEnum.DSTU3);
+
+    assertThat(StoredResourceEncoder.supports(null)).isFalse();
+    assertThat(StoredResourceEncoder.supports(tagged)).isFalse();
+    assertThat(StoredResourceEncoder.supports(deleted)).isFalse();
+    assertThat(StoredResourceEncoder.supports(dstu3)).isFalse();
+  }
+
+  private ResourceHistoryTable store(ResourceEncodingEnum encoding) {
+    ResourceHistoryTable history = new ResourceHistoryTable();
+    history.setResourceType("Location");
+    history.setVersion(3);
+    history.setUpdated(updated);
+    history.setFhirVersion(FhirVersionEnum.R4);
+    history.setEncoding(encoding);
+    history.setResource(BaseHapiFhirDao.encodeResource(location, encoding,
+        ResourceMetaParams.EXCLUDE_ELEMENTS_IN_ENCODED, context));
+
+    return history;
+  }
+
+  // the same steps as a read, which parses the stored body and adds its metadata
+  private String encodeWithHapi(ResourceHistoryTable history, boolean pretty) {
+    String stored = ResourceEncodingEnum.JSONC == history.getEncoding()
+        ? GZipUtil.decompress(history.getResource())
+        : new String(history.getResource(), StandardCharsets.UTF_8);
+
+    Location read = context.newJsonParser().parseResource(Location.class, stored);
+    read.setId("Location/" + ID + "/_history/3");
+    read.getMeta().setVersionId("3");
+    read.getMeta().setLastUpdated(updated);
+
+    return context.newJsonParser().setPrettyPrint(pretty).encodeResourceToString(read);
+  }
+
+}
@@ -0,0 +1,109 @@
+/*
+ * This program is part of the OpenLMIS logistics management information system platform software.
+ * Copyright © 2017 VillageReach
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms
+ * of the GNU Affero General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details. You should have received a copy of
+ * the GNU Affero General Public License along with this program. If not, see
+ * http://www.gnu.org/licenses.  For additional information contact info@OpenLMIS.org.
+ */
+
+package org.openlmis.hapifhir.repository;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.contains;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.BDDMockito.given;
+import static org.mockito.Mockito.verify;
+
+import java.sql.ResultSet;
+import java.util.Collections;
+import java.util.List;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnit;
+import org.mockito.junit.MockitoRule;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.test.util.ReflectionTestUtils;
+
+public class LargeObjectMigrationRepositoryTest {
+
+  @Rule
+  public MockitoRule mockitoRule = MockitoJUnit.rule();
+
+  @Mock
+  private JdbcTemplate jdbcTemplate;
+
+  @Mock
+  private ResultSet resultSet;
+
+  @InjectMocks
+  private LargeObjectMigrationRepository repository;
+
+  @Before
+  public void setUp() {
+    ReflectionTestUtils.setField(repository, "defaultSchema", "hapifhir");
+    repository.init();
+  }
+
+  @Test
+  public void shouldCheckWhetherLargeObjectColumnExists() {
+    // given
+    given(jdbcTemplate.queryForObject(anyString(), eq(Boolean.class),
+        eq("hapifhir"), eq("hfj_search"), eq("search_param_map_lob"))).willReturn(true);
+
+    // when
+    boolean exists = repository.exists(LargeObjectColumn.SEARCH_PARAMETER_MAP);
+
+    // then
+    assertThat(exists).isTrue();
+  }
+
+  @Test
+  public void shouldCopyBatchOfRowsAfterGivenId() throws Exception {
+    // given
+    given(resultSet.getLong("pid")).willReturn(8L);
+    given(jdbcTemplate.query(anyString(), any(RowMapper.class), eq(7L), eq(100)))
+        .willAnswer(invocation -> Collections.singletonList(
+            invocation.<RowMapper<Long>>getArgument(1).mapRow(resultSet, 0)));
+
+    // when
+    List<Long> copied = repository.copy(LargeObjectColumn.RESOURCE_TEXT, 7L, 100);
+
+    // then
+    assertThat(copied).containsExactly(8L);
+    verify(jdbcTemplate).query(
+        contains("UPDATE hapifhir.hfj_res_ver t"
+            + "   SET res_text = coalesce(t.res_text, CASE WHEN s.found"
+            + " THEN lo_get(s.lob) END),"
+            + "     res_text_lob = NULL"),
+        any(RowMapper.class), eq(7L), eq(100));
+  }
+
+  @Test
+  public void shouldCheckWhetherAnyLargeObjectIsLeft() {
+    // given
+    given(jdbcTemplate.queryForObject(
+        "SELECT EXISTS ("
+            + "   SELECT 1 FROM hapifhir.hfj_res_ver WHERE res_text_lob IS NOT NULL)",
+        Boolean.class)).willReturn(false);
+
+    // when
+    boolean remaining = repository.hasRemaining(LargeObjectColumn.RESOURCE_TEXT);
+
+    // then
+    assertThat(remaining).isFalse();
+  }
+
+}
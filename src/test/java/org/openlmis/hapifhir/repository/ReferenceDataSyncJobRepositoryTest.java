@@ -0,0 +1,123 @@
+/*
+ * This program is part of the OpenLMIS logistics management information system platform software.
+ * Copyright © 2017 VillageReach
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms
+ * of the GNU Affero General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details. You should have received a copy of
+ * the GNU Affero General Public License along with this program. If not, see
+ * http://www.gnu.org/licenses.  For additional information contact info@OpenLMIS.org.
+ */
+
+package org.openlmis.hapifhir.repository;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.BDDMockito.given;
+import static org.mockito.Mockito.verify;
+
+import java.sql.ResultSet;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnit;
+import org.mockito.junit.MockitoRule;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.test.util.ReflectionTestUtils;
+
+public class ReferenceDataSyncJobRepositoryTest {
+
+  @Rule
+  public MockitoRule mockitoRule = MockitoJUnit.rule();
+
+  @Mock
+  private JdbcTemplate jdbcTemplate;
+
+  @Mock
+  private ResultSet resultSet;
+
+  @InjectMocks
+  private ReferenceDataSyncJobRepository repository;
+
+  @Before
+  public void setUp() {
+    ReflectionTestUtils.setField(repository, "defaultSchema", "hapifhir");
+    repository.init();
+  }
+
+  @Test
+  public void shouldSaveJob() {
+    // when
+    repository.save("si", "location-id", "payload");
+
+    // then
+    verify(jdbcTemplate).update(
+        eq("INSERT INTO hapifhir.referencedata_sync_jobs"
+            + "   (synctype, resourceid, payload)"
+            + " VALUES (?, ?, ?)"),
+        eq("si"), eq("location-id"), eq("payload"));
+  }
+
+  @Test
+  public void shouldMapLockedJobs() throws Exception {
+    // given
+    given(resultSet.getLong("id")).willReturn(1L);
+    given(resultSet.getString("synctype")).willReturn("si");
+    given(resultSet.getString("resourceid")).willReturn("location-id");
+    given(resultSet.getString("payload")).willReturn("payload");
+    given(resultSet.getInt("attempts")).willReturn(2);
+    given(resultSet.getLong("latestid")).willReturn(3L);
+    given(jdbcTemplate.query(anyString(), any(RowMapper.class), eq(300L), eq(10)))
+        .willAnswer(invocation -> Stream
+            .of(invocation.<RowMapper<ReferenceDataSyncJob>>getArgument(1).mapRow(resultSet, 0))
+            .collect(Collectors.toList()));
+
+    // when
+    List<ReferenceDataSyncJob> jobs = repository.lock(10, 300);
+
+    // then
+    assertThat(jobs).hasSize(1);
+    assertThat(jobs.get(0))
+        .extracting("id", "syncType", "resourceId", "payload", "attempts", "latestId")
+        .containsExactly(1L, "si", "location-id", "payload", 2, 3L);
+  }
+
+  @Test
+  public void shouldRemoveJobWithLaterJobsOfTheSameResource() {
+    // when
+    repository.delete(new ReferenceDataSyncJob(1L, "si", "location-id", "payload", 0, 3L));
+
+    // then
+    verify(jdbcTemplate).update(
+        eq("DELETE FROM hapifhir.referencedata_sync_jobs"
+            + " WHERE synctype = ? AND resourceid = ? AND id <= ?"),
+        eq("si"), eq("location-id"), eq(3L));
+  }
+
+  @Test
+  public void shouldCopyJobToDeadLettersBeforeRemovingIt() {
+    // when
+    repository.moveToDeadLetters(
+        new ReferenceDataSyncJob(1L, "si", "location-id", "payload", 0, 3L), "error");
+
+    // then
+    verify(jdbcTemplate).update(anyString(), eq("error"), eq("si"), eq("location-id"), eq(3L));
+    verify(jdbcTemplate).update(
+        eq("DELETE FROM hapifhir.referencedata_sync_jobs"
+            + " WHERE synctype = ? AND resourceid = ? AND id <= ?"),
+        eq("si"), eq("location-id"), eq(3L));
+  }
+
+}
@@ -0,0 +1,121 @@
+/*
+ * This program is part of the OpenLMIS logistics management information system platform software.
+ * Copyright © 2017 VillageReach
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms
+ * of the GNU Affero General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details. You should have received a copy of
+ * the GNU Affero General Public License along with this program. If not, see
+ * http://www.gnu.org/licenses.  For additional information contact info@OpenLMIS.org.
+ */
+
+package org.openlmis.hapifhir.repository;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.entry;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.contains;
+import static org.mockito.BDDMockito.given;
+import static org.mockito.BDDMockito.willAnswer;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyZeroInteractions;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Types;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Captor;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnit;
+import org.mockito.junit.MockitoRule;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.jdbc.core.SqlTypeValue;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.jdbc.core.namedparam.SqlParameterSource;
+import org.springframework.test.util.ReflectionTestUtils;
+
+public class ResourceHashRepositoryTest {
+
+  @Rule
+  public MockitoRule mockitoRule = MockitoJUnit.rule();
+
+  @Mock
+  private NamedParameterJdbcTemplate jdbcTemplate;
+
+  @Mock
+  private ResultSet resultSet;
+
+  @Mock
+  private PreparedStatement preparedStatement;
+
+  @Mock
+  private Connection connection;
+
+  @Captor
+  private ArgumentCaptor<SqlParameterSource> parametersCaptor;
+
+  @InjectMocks
+  private ResourceHashRepository repository;
+
+  @Before
+  public void setUp() {
+    ReflectionTestUtils.setField(repository, "defaultSchema", "hapifhir");
+    repository.init();
+  }
+
+  @Test
+  public void shouldReturnEmptyMapIfIdsAreEmpty() {
+    assertThat(repository.findHashes("Location", Collections.emptyList())).isEmpty();
+    verifyZeroInteractions(jdbcTemplate);
+  }
+
+  @Test
+  public void shouldReturnHashesForIds() throws Exception {
+    // given
+    given(resultSet.getString("id")).willReturn("location-id");
+    given(resultSet.getString("hash")).willReturn("location-hash");
+    willAnswer(invocation -> {
+      invocation.<RowCallbackHandler>getArgument(2).processRow(resultSet);
+      return null;
+    }).given(jdbcTemplate)
+        .query(contains("AND f.forced_id = ANY(:ids)"), any(SqlParameterSource.class),
+            any(RowCallbackHandler.class));
+
+    // when
+    Map<String, String> hashes = repository
+        .findHashes("Location", Collections.singleton("location-id"));
+
+    // then
+    assertThat(hashes).containsOnly(entry("location-id", "location-hash"));
+  }
+
+  @Test
+  public void shouldBindIdsAsArray() throws Exception {
+    // given
+    given(preparedStatement.getConnection()).willReturn(connection);
+
+    // when
+    repository.findHashes("Location", Arrays.asList("first-id", "second-id"));
+
+    // then
+    verify(jdbcTemplate).query(anyString(), parametersCaptor.capture(),
+        any(RowCallbackHandler.class));
+    ((SqlTypeValue) parametersCaptor.getValue().getValue("ids"))
+        .setTypeValue(preparedStatement, 1, Types.ARRAY, null);
+    verify(connection).createArrayOf("varchar", new Object[]{"first-id", "second-id"});
+  }
+
+}
@@ -0,0 +1,79 @@
+/*
+ * This program is part of the OpenLMIS logistics management information system platform software.
+ * Copyright © 2017 VillageReach
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms
+ * of the GNU Affero General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details. You should have received a copy of
+ * the GNU Affero General Public License along with this program. If not, see
+ * http://www.gnu.org/licenses.  For additional information contact info@OpenLMIS.org.
+ */
+
+package org.openlmis.hapifhir.repository;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.BDDMockito.given;
+
+import java.util.Collections;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnit;
+import org.mockito.junit.MockitoRule;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.jdbc.core.namedparam.SqlParameterSource;
+import org.springframework.test.util.ReflectionTestUtils;
+
+public class ResourceVersionRepositoryTest {
+
+  @Rule
+  public MockitoRule mockitoRule = MockitoJUnit.rule();
+
+  @Mock
+  private NamedParameterJdbcTemplate jdbcTemplate;
+
+  @InjectMocks
+  private ResourceVersionRepository repository;
+
+  @Before
+  public void setUp() {
+    ReflectionTestUtils.setField(repository, "defaultSchema", "hapifhir");
+    repository.init();
+  }
+
+  @Test
+  public void shouldReturnVersionOfResource() {
+    // given
+    given(jdbcTemplate.queryForList(anyString(), any(SqlParameterSource.class), eq(Long.class)))
+        .willReturn(Collections.singletonList(3L));
+
+    // when
+    String version = repository.findVersion("Location", "location-id");
+
+    // then
+    assertThat(version).isEqualTo("3");
+  }
+
+  @Test
+  public void shouldReturnNullIfResourceDoesNotExist() {
+    // given
+    given(jdbcTemplate.queryForList(anyString(), any(SqlParameterSource.class), eq(Long.class)))
+        .willReturn(Collections.emptyList());
+
+    // when
+    String version = repository.findVersion("Location", "location-id");
+
+    // then
+    assertThat(version).isNull();
+  }
+
+}
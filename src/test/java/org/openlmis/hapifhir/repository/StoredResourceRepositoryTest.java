@@ -0,0 +1,86 @@
+/*
+ * This program is part of the OpenLMIS logistics management information system platform software.
+ * Copyright © 2017 VillageReach
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms
+ * of the GNU Affero General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details. You should have received a copy of
+ * the GNU Affero General Public License along with this program. If not, see
+ * http://www.gnu.org/licenses.  For additional information contact info@OpenLMIS.org.
+ */
+
+package org.openlmis.hapifhir.repository;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.BDDMockito.given;
+import static org.mockito.Mockito.verify;
+
+import ca.uhn.fhir.jpa.model.entity.ResourceHistoryTable;
+import java.util.Collections;
+import javax.persistence.EntityManager;
+import javax.persistence.TypedQuery;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnit;
+import org.mockito.junit.MockitoRule;
+
+public class StoredResourceRepositoryTest {
+
+  @Rule
+  public MockitoRule mockitoRule = MockitoJUnit.rule();
+
+  @Mock
+  private EntityManager entityManager;
+
+  @Mock
+  private TypedQuery<ResourceHistoryTable> query;
+
+  @InjectMocks
+  private StoredResourceRepository repository;
+
+  @Before
+  public void setUp() {
+    given(entityManager.createQuery(anyString(), eq(ResourceHistoryTable.class)))
+        .willReturn(query);
+    given(query.setParameter(anyString(), any())).willReturn(query);
+  }
+
+  @Test
+  public void shouldReturnStoredVersion() {
+    // given
+    ResourceHistoryTable history = new ResourceHistoryTable();
+    given(query.getResultList()).willReturn(Collections.singletonList(history));
+
+    // when
+    ResourceHistoryTable found = repository.findVersion("Location", "location-id", 2L);
+
+    // then
+    assertThat(found).isSameAs(history);
+    verify(query).setParameter("resource_type", "Location");
+    verify(query).setParameter("forced_id", "location-id");
+    verify(query).setParameter("version", 2L);
+  }
+
+  @Test
+  public void shouldReturnNullIfVersionDoesNotExist() {
+    // given
+    given(query.getResultList()).willReturn(Collections.emptyList());
+
+    // when
+    ResourceHistoryTable found = repository.findVersion("Location", "location-id", 2L);
+
+    // then
+    assertThat(found).isNull();
+  }
+
+}
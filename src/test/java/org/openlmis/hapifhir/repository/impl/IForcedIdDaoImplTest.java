@@ -0,0 +1,243 @@
+/*
+ * This program is part of the OpenLMIS logistics management information system platform software.
+ * Copyright © 2017 VillageReach
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms
+ * of the GNU Affero General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details. You should have received a copy of
+ * the GNU Affero General Public License along with this program. If not, see
+ * http://www.gnu.org/licenses.  For additional information contact info@OpenLMIS.org.
+ */
+
+package org.openlmis.hapifhir.repository.impl;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.BDDMockito.given;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import ca.uhn.fhir.jpa.model.entity.ForcedId;
+import ca.uhn.fhir.jpa.model.entity.ResourceTable;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import javax.persistence.EntityManager;
+import javax.persistence.Query;
+import javax.persistence.TypedQuery;
+import javax.persistence.metamodel.EntityType;
+import javax.persistence.metamodel.Metamodel;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnit;
+import org.mockito.junit.MockitoRule;
+import org.springframework.data.jpa.repository.support.JpaEntityInformation;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionSynchronizationUtils;
+
+public class IForcedIdDaoImplTest {
+
+  private static final String LOCATION = "Location";
+  private static final String FORCED_ID = "d39ed6e7-2cf7-4a5c-9dc8-d9ebbc1e9d5a";
+  private static final Long PID = 15L;
+
+  @Rule
+  public MockitoRule mockitoRule = MockitoJUnit.rule();
+
+  @Mock
+  private EntityManager entityManager;
+
+  @Mock
+  private Metamodel metamodel;
+
+  @Mock
+  private EntityType<ForcedId> managedType;
+
+  @Mock
+  private JpaEntityInformation<ForcedId, Long> entityInformation;
+
+  @Mock
+  private TypedQuery<ForcedId> query;
+
+  @Mock
+  private Query idsQuery;
+
+  private IForcedIdDaoImpl dao;
+
+  @Before
+  public void setUp() {
+    given(entityManager.getMetamodel()).willReturn(metamodel);
+    given(entityManager.getDelegate()).willReturn(entityManager);
+    given(metamodel.managedType(ForcedId.class)).willReturn(managedType);
+    given(entityManager.createQuery(anyString(), eq(ForcedId.class))).willReturn(query);
+    given(query.setParameter(anyString(), any())).willReturn(query);
+    given(query.getResultList()).willReturn(Collections.emptyList());
+
+    dao = new IForcedIdDaoImpl(entityManager);
+    ReflectionTestUtils.setField(dao, "maxSize", 100L);
+    ReflectionTestUtils.setField(dao, "prewarm", true);
+    ReflectionTestUtils.setField(dao, "meterRegistry", new SimpleMeterRegistry());
+    ReflectionTestUtils.setField(dao, "entityInformation", entityInformation);
+    dao.init();
+  }
+
+  @After
+  public void tearDown() {
+    if (TransactionSynchronizationManager.isSynchronizationActive()) {
+      TransactionSynchronizationManager.clearSynchronization();
+    }
+  }
+
+  @Test
+  public void shouldResolveForcedIdOnlyOnce() {
+    // given
+    given(query.getResultList()).willReturn(Collections.singletonList(forcedId()));
+
+    // when
+    dao.findByTypeAndForcedId(LOCATION, FORCED_ID);
+    List<ForcedId> found = dao.findByTypeAndForcedId(LOCATION, FORCED_ID);
+
+    // then
+    assertThat(found).hasSize(1);
+    assertThat(found.get(0).getResourcePid()).isEqualTo(PID);
+    verify(query).getResultList();
+  }
+
+  @Test
+  public void shouldNotCacheMissingForcedId() {
+    // when
+    dao.findByTypeAndForcedId(LOCATION, FORCED_ID);
+    List<ForcedId> found = dao.findByTypeAndForcedId(LOCATION, FORCED_ID);
+
+    // then
+    assertThat(found).isEmpty();
+    verify(query, times(2)).getResultList();
+  }
+
+  @Test
+  public void shouldResolvePidFromCache() {
+    // given
+    given(query.getResultList()).willReturn(Collections.singletonList(forcedId()));
+    dao.findByTypeAndForcedId(LOCATION, FORCED_ID);
+
+    // when
+    ForcedId found = dao.findByResourcePid(PID);
+
+    // then
+    assertThat(found.getForcedId()).isEqualTo(FORCED_ID);
+    assertThat(found.getResourceType()).isEqualTo(LOCATION);
+    verify(query).getResultList();
+  }
+
+  @Test
+  public void shouldPrewarmCache() {
+    // given
+    given(entityManager.createQuery(anyString())).willReturn(idsQuery);
+    given(idsQuery.setMaxResults(100)).willReturn(idsQuery);
+    given(idsQuery.getResultList()).willReturn(Collections.singletonList(
+        new Object[]{LOCATION, FORCED_ID, PID}));
+
+    // when
+    dao.prewarm();
+    List<ForcedId> found = dao.findByTypeAndForcedId(LOCATION, FORCED_ID);
+
+    // then
+    assertThat(found).extracting(ForcedId::getResourcePid).containsExactly(PID);
+    verify(query, times(0)).getResultList();
+  }
+
+  @Test
+  public void shouldCacheCreatedForcedIdAfterCommit() {
+    // given
+    TransactionSynchronizationManager.initSynchronization();
+    ForcedId created = newForcedId();
+    given(entityInformation.isNew(created)).willReturn(true);
+
+    // when
+    dao.save(created);
+    dao.findByTypeAndForcedId(LOCATION, FORCED_ID);
+
+    TransactionSynchronizationUtils.invokeAfterCompletion(
+        TransactionSynchronizationManager.getSynchronizations(),
+        TransactionSynchronization.STATUS_COMMITTED);
+    TransactionSynchronizationManager.clearSynchronization();
+
+    List<ForcedId> found = dao.findByTypeAndForcedId(LOCATION, FORCED_ID);
+
+    // then
+    assertThat(found).extracting(ForcedId::getResourcePid).containsExactly(PID);
+    verify(query).getResultList();
+  }
+
+  @Test
+  public void shouldNotCacheCreatedForcedIdIfTransactionHasBeenRolledBack() {
+    // given
+    TransactionSynchronizationManager.initSynchronization();
+
+    ForcedId created = newForcedId();
+    given(entityInformation.isNew(created)).willReturn(true);
+
+    // when
+    dao.save(created);
+
+    TransactionSynchronizationUtils.invokeAfterCompletion(
+        TransactionSynchronizationManager.getSynchronizations(),
+        TransactionSynchronization.STATUS_ROLLED_BACK);
+    TransactionSynchronizationManager.clearSynchronization();
+
+    dao.findByTypeAndForcedId(LOCATION, FORCED_ID);
+
+    // then
+    verify(query).getResultList();
+  }
+
+  @Test
+  public void shouldInvalidateDeletedForcedId() {
+    // given
+    ForcedId forcedId = forcedId();
+    given(query.getResultList())
+        .willReturn(Collections.singletonList(forcedId))
+        .willReturn(Collections.emptyList());
+    given(entityManager.contains(forcedId)).willReturn(true);
+    dao.findByTypeAndForcedId(LOCATION, FORCED_ID);
+
+    // when
+    dao.delete(forcedId);
+
+    // then
+    assertThat(dao.findByTypeAndForcedId(LOCATION, FORCED_ID)).isEmpty();
+    assertThat(dao.findByResourcePids(Arrays.asList(PID))).isEmpty();
+  }
+
+  private ForcedId forcedId() {
+    ForcedId forcedId = new ForcedId();
+    forcedId.setResourceType(LOCATION);
+    forcedId.setForcedId(FORCED_ID);
+    forcedId.setResourcePid(PID);
+    return forcedId;
+  }
+
+  private ForcedId newForcedId() {
+    ResourceTable resource = new ResourceTable();
+    resource.setId(PID);
+
+    ForcedId forcedId = new ForcedId();
+    forcedId.setResourceType(LOCATION);
+    forcedId.setForcedId(FORCED_ID);
+    forcedId.setResource(resource);
+    return forcedId;
+  }
+
+}
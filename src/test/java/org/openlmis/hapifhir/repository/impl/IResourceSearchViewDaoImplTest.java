@@ -16,22 +16,29 @@
 package org.openlmis.hapifhir.repository.impl;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.anyString;
 import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.BDDMockito.given;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 
 import ca.uhn.fhir.jpa.dao.data.IResourceSearchViewDao;
 import ca.uhn.fhir.jpa.entity.ResourceSearchView;
 import com.google.common.collect.Lists;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import javax.persistence.EntityManager;
 import javax.persistence.Query;
 import javax.persistence.metamodel.EntityType;
 import javax.persistence.metamodel.Metamodel;
+import org.hibernate.jpa.TypedParameterValue;
 import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Captor;
 import org.mockito.Mock;
 import org.mockito.junit.MockitoJUnit;
 import org.mockito.junit.MockitoRule;
@@ -54,6 +61,12 @@ public class IResourceSearchViewDaoImplTest {
   @Mock
   private Query query;
 
+  @Captor
+  private ArgumentCaptor<String> queryCaptor;
+
+  @Captor
+  private ArgumentCaptor<TypedParameterValue> pidsCaptor;
+
   private IResourceSearchViewDao dao;
 
   @Before
@@ -64,7 +77,12 @@ public class IResourceSearchViewDaoImplTest {
 
     dao = new IResourceSearchViewDaoImpl(entityManager);
     ReflectionTestUtils.setField(dao, "defaultSchema", "hapifhir");
+    ReflectionTestUtils.setField(dao, "chunkSize", 2);
+    ((IResourceSearchViewDaoImpl) dao).init();
 
+    given(entityManager.createNativeQuery(anyString(), eq(ResourceSearchView.class)))
+        .willReturn(query);
+    given(query.setParameter(anyString(), any())).willReturn(query);
   }
 
   @Test
@@ -76,9 +94,6 @@ public class IResourceSearchViewDaoImplTest {
   public void shouldReturnDataForPids() {
     // given
     ResourceSearchView view = new ResourceSearchView();
-
-    given(entityManager.createNativeQuery(anyString(), eq(ResourceSearchView.class)))
-        .willReturn(query);
     given(query.getResultList()).willReturn(Lists.newArrayList(view));
 
     // when
@@ -89,4 +104,52 @@ public class IResourceSearchViewDaoImplTest {
         .hasSize(1)
         .contains(view);
   }
+
+  @Test
+  public void shouldBindPidsToTheSameQuery() {
+    // given
+    given(query.getResultList()).willReturn(Lists.newArrayList(new ResourceSearchView()));
+
+    // when
+    dao.findByResourceIds(Collections.singleton(1L));
+    dao.findByResourceIds(Collections.singleton(2L));
+
+    // then
+    verify(entityManager, times(2))
+        .createNativeQuery(queryCaptor.capture(), eq(ResourceSearchView.class));
+    verify(query, times(2)).setParameter(eq("pids"), pidsCaptor.capture());
+    assertPids(new Long[]{1L}, new Long[]{2L});
+
+    assertThat(queryCaptor.getAllValues().get(0))
+        .isEqualTo(queryCaptor.getAllValues().get(1))
+        .contains("hapifhir.HFJ_RES_VER")
+        .contains("= ANY(:pids)");
+  }
+
+  @Test
+  public void shouldRetrieveLongPidListsInChunks() {
+    // given
+    ResourceSearchView first = new ResourceSearchView();
+    ResourceSearchView second = new ResourceSearchView();
+    given(query.getResultList())
+        .willReturn(Lists.newArrayList(first))
+        .willReturn(Lists.newArrayList(second));
+
+    // when
+    Collection<ResourceSearchView> list = dao.findByResourceIds(Arrays.asList(1L, 2L, 3L));
+
+    // then
+    assertThat(list).containsExactly(first, second);
+    verify(query, times(2)).setParameter(eq("pids"), pidsCaptor.capture());
+    assertPids(new Long[]{1L, 2L}, new Long[]{3L});
+  }
+
+  private void assertPids(Object... expected) {
+    assertThat(pidsCaptor.getAllValues())
+        .extracting(TypedParameterValue::getType)
+        .containsOnly(BigintArrayType.INSTANCE);
+    assertThat(pidsCaptor.getAllValues())
+        .extracting(TypedParameterValue::getValue)
+        .containsExactly(expected);
+  }
 }
@@ -0,0 +1,161 @@
+/*
+ * This program is part of the OpenLMIS logistics management information system platform software.
+ * Copyright © 2017 VillageReach
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms
+ * of the GNU Affero General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details. You should have received a copy of
+ * the GNU Affero General Public License along with this program. If not, see
+ * http://www.gnu.org/licenses.  For additional information contact info@OpenLMIS.org.
+ */
+
+package org.openlmis.hapifhir.security;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.google.common.collect.ImmutableMap;
+import java.io.Serializable;
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.util.concurrent.TimeUnit;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+import org.openlmis.hapifhir.OAuth2AuthenticationDataBuilder;
+import org.springframework.security.oauth2.common.DefaultOAuth2AccessToken;
+import org.springframework.security.oauth2.common.exceptions.InvalidTokenException;
+import org.springframework.security.oauth2.provider.OAuth2Authentication;
+import org.springframework.security.oauth2.provider.OAuth2Request;
+import org.springframework.security.oauth2.provider.token.ResourceServerTokenServices;
+import org.springframework.test.util.ReflectionTestUtils;
+
+@RunWith(MockitoJUnitRunner.class)
+public class CachingResourceServerTokenServicesTest {
+
+  private static final String TOKEN = "418c89c5-7f21-4cd1-a63a-38c47892b0fe";
+  private static final String OTHER_TOKEN = "6d6896a5-e94c-4183-839d-911bc63174ff";
+  private static final Instant NOW = Instant.parse("2019-03-20T10:00:00Z");
+
+  @Mock
+  private ResourceServerTokenServices delegate;
+
+  private OAuth2Authentication authentication = new OAuth2AuthenticationDataBuilder()
+      .buildUserAuthentication();
+
+  private CachingResourceServerTokenServices tokenServices;
+
+  @Before
+  public void setUp() {
+    tokenServices = new CachingResourceServerTokenServices(delegate, 60, 1);
+    ReflectionTestUtils.setField(tokenServices, "clock", Clock.fixed(NOW, ZoneOffset.UTC));
+  }
+
+  @Test
+  public void shouldVerifyTokenOnlyOnce() {
+    when(delegate.loadAuthentication(TOKEN)).thenReturn(authentication);
+
+    assertThat(tokenServices.loadAuthentication(TOKEN)).isEqualTo(authentication);
+    assertThat(tokenServices.loadAuthentication(TOKEN)).isEqualTo(authentication);
+
+    verify(delegate, times(1)).loadAuthentication(TOKEN);
+    assertThat(tokenServices.getCache().stats().hitCount()).isEqualTo(1);
+    assertThat(tokenServices.getCache().stats().missCount()).isEqualTo(1);
+  }
+
+  @Test
+  public void shouldReturnNewAuthenticationForEveryCall() {
+    when(delegate.loadAuthentication(TOKEN)).thenReturn(authentication);
+
+    OAuth2Authentication first = tokenServices.loadAuthentication(TOKEN);
+    first.setDetails("first-request");
+    OAuth2Authentication second = tokenServices.loadAuthentication(TOKEN);
+
+    assertThat(second).isNotSameAs(first).isNotSameAs(authentication);
+    assertThat(second.getDetails()).isNull();
+    assertThat(second.getOAuth2Request()).isEqualTo(authentication.getOAuth2Request());
+  }
+
+  @Test
+  public void shouldStoreHashOfTokenInCache() {
+    when(delegate.loadAuthentication(TOKEN)).thenReturn(authentication);
+
+    tokenServices.loadAuthentication(TOKEN);
+
+    assertThat(tokenServices.getCache().asMap())
+        .hasSize(1)
+        .doesNotContainKey(TOKEN);
+  }
+
+  @Test
+  public void shouldNotCacheRejectedToken() {
+    when(delegate.loadAuthentication(TOKEN))
+        .thenThrow(new InvalidTokenException(TOKEN))
+        .thenReturn(authentication);
+
+    assertThatThrownBy(() -> tokenServices.loadAuthentication(TOKEN))
+        .isInstanceOf(InvalidTokenException.class);
+    assertThat(tokenServices.loadAuthentication(TOKEN)).isEqualTo(authentication);
+  }
+
+  @Test
+  public void shouldLimitCacheSize() {
+    when(delegate.loadAuthentication(TOKEN)).thenReturn(authentication);
+    when(delegate.loadAuthentication(OTHER_TOKEN)).thenReturn(authentication);
+
+    tokenServices.loadAuthentication(TOKEN);
+    tokenServices.loadAuthentication(OTHER_TOKEN);
+    tokenServices.getCache().cleanUp();
+
+    assertThat(tokenServices.getCache().estimatedSize()).isEqualTo(1);
+    assertThat(tokenServices.getCache().stats().evictionCount()).isEqualTo(1);
+  }
+
+  @Test
+  public void shouldNotKeepTokenLongerThanItIsValid() {
+    when(delegate.loadAuthentication(TOKEN)).thenReturn(expiringAuthentication(NOW.plusSeconds(5)));
+
+    tokenServices.loadAuthentication(TOKEN);
+
+    assertThat(tokenServices.getCache().policy().expireVariably().get()
+        .getExpiresAfter(DigestUtils.sha256Hex(TOKEN), TimeUnit.MILLISECONDS).getAsLong())
+        .isPositive()
+        .isLessThanOrEqualTo(5000);
+  }
+
+  @Test
+  public void shouldNotCacheExpiredToken() {
+    when(delegate.loadAuthentication(TOKEN)).thenReturn(expiringAuthentication(NOW));
+
+    tokenServices.loadAuthentication(TOKEN);
+    tokenServices.loadAuthentication(TOKEN);
+
+    verify(delegate, times(2)).loadAuthentication(TOKEN);
+  }
+
+  @Test
+  public void shouldReadAccessTokenFromDelegate() {
+    DefaultOAuth2AccessToken accessToken = new DefaultOAuth2AccessToken(TOKEN);
+    when(delegate.readAccessToken(TOKEN)).thenReturn(accessToken);
+
+    assertThat(tokenServices.readAccessToken(TOKEN)).isEqualTo(accessToken);
+  }
+
+  private OAuth2Authentication expiringAuthentication(Instant expiresAt) {
+    return new OAuth2Authentication(new OAuth2Request(null, "user-client", null, true, null,
+        null, null, null, ImmutableMap.<String, Serializable>of("exp",
+        expiresAt.getEpochSecond())), null);
+  }
+
+}
@@ -0,0 +1,51 @@
+/*
+ * This program is part of the OpenLMIS logistics management information system platform software.
+ * Copyright © 2017 VillageReach
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms
+ * of the GNU Affero General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details. You should have received a copy of
+ * the GNU Affero General Public License along with this program. If not, see
+ * http://www.gnu.org/licenses.  For additional information contact info@OpenLMIS.org.
+ */
+
+package org.openlmis.hapifhir.security;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.google.common.collect.ImmutableMap;
+import java.util.Map;
+import org.junit.Test;
+import org.springframework.security.oauth2.provider.OAuth2Authentication;
+
+public class ExpiringAccessTokenConverterTest {
+
+  private ExpiringAccessTokenConverter converter = new ExpiringAccessTokenConverter();
+
+  @Test
+  public void shouldKeepExpiryTimeOfToken() {
+    Map<String, Object> map = ImmutableMap.of(
+        "client_id", "user-client",
+        "exp", 1553076000);
+
+    OAuth2Authentication authentication = converter.extractAuthentication(map);
+
+    assertThat(authentication.getOAuth2Request().getClientId()).isEqualTo("user-client");
+    assertThat(authentication.getOAuth2Request().getExtensions())
+        .containsEntry("exp", 1553076000L);
+  }
+
+  @Test
+  public void shouldAcceptTokenWithoutExpiryTime() {
+    Map<String, Object> map = ImmutableMap.of("client_id", "user-client");
+
+    OAuth2Authentication authentication = converter.extractAuthentication(map);
+
+    assertThat(authentication.getOAuth2Request().getExtensions()).doesNotContainKey("exp");
+  }
+
+}
@@ -20,11 +20,16 @@ import static org.hamcrest.Matchers.is;
 import static org.junit.Assert.assertThat;
 import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 import com.google.common.collect.ImmutableMap;
 import java.net.URI;
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneOffset;
 import java.util.Map;
 import java.util.UUID;
 import org.junit.Before;
@@ -34,6 +39,7 @@ import org.mockito.ArgumentCaptor;
 import org.mockito.Captor;
 import org.mockito.Mock;
 import org.mockito.runners.MockitoJUnitRunner;
+import org.mockito.stubbing.OngoingStubbing;
 import org.springframework.http.HttpEntity;
 import org.springframework.http.HttpMethod;
 import org.springframework.http.HttpStatus;
@@ -48,6 +54,9 @@ public class AuthServiceTest {
   private static final URI AUTHORIZATION_URI = URI.create(
       AUTHORIZATION_URL + "?grant_type=client_credentials"
   );
+  private static final Instant NOW = Instant.parse("2019-01-01T12:00:00Z");
+  private static final String EXPIRES_IN = "3600";
+  private static final long REFRESH_MARGIN = 60;
 
   @Mock
   private RestTemplate restTemplate;
@@ -57,6 +66,9 @@ public class AuthServiceTest {
 
   private AuthService authService;
 
+  private DynamicMapTypeReference<String, String> typeReference =
+      new DynamicMapTypeReference<>(String.class, String.class);
+
   @Before
   public void setUp() {
     authService = new AuthService();
@@ -65,18 +77,13 @@ public class AuthServiceTest {
     ReflectionTestUtils.setField(authService, "clientId", "trusted-client");
     ReflectionTestUtils.setField(authService, "clientSecret", "secret");
     ReflectionTestUtils.setField(authService, "authorizationUrl", AUTHORIZATION_URL);
+    ReflectionTestUtils.setField(authService, "tokenRefreshMargin", REFRESH_MARGIN);
+    setTime(NOW);
   }
 
   @Test
   public void shouldObtainAccessToken() {
-    ResponseEntity<Map<String, String>> response =
-        new ResponseEntity<>(ImmutableMap.of("access_token", TOKEN), HttpStatus.OK);
-    DynamicMapTypeReference<String, String> typeReference =
-        new DynamicMapTypeReference<>(String.class, String.class);
-
-    when(restTemplate.exchange(
-        eq(AUTHORIZATION_URI), eq(HttpMethod.POST), any(HttpEntity.class), eq(typeReference)
-    )).thenReturn(response);
+    mockTokenResponse(ImmutableMap.of("access_token", TOKEN));
 
     String token = authService.obtainAccessToken();
     assertThat(token, is(TOKEN));
@@ -91,4 +98,101 @@ public class AuthServiceTest {
         contains("Basic dHJ1c3RlZC1jbGllbnQ6c2VjcmV0")
     );
   }
+
+  @Test
+  public void shouldNotCacheTokenWithoutExpirationTime() {
+    mockTokenResponse(ImmutableMap.of("access_token", TOKEN));
+
+    authService.obtainAccessToken();
+    authService.obtainAccessToken();
+
+    verifyTokenRequests(2);
+  }
+
+  @Test
+  public void shouldReuseCachedTokenUntilItExpires() {
+    mockTokenResponse(tokenResponse(TOKEN));
+
+    assertThat(authService.obtainAccessToken(), is(TOKEN));
+    setTime(NOW.plusSeconds(1800));
+    assertThat(authService.obtainAccessToken(), is(TOKEN));
+
+    verifyTokenRequests(1);
+  }
+
+  @Test
+  public void shouldObtainNewTokenWhenCachedOneExpired() {
+    String newToken = UUID.randomUUID().toString();
+    mockTokenResponse(tokenResponse(TOKEN), tokenResponse(newToken));
+
+    assertThat(authService.obtainAccessToken(), is(TOKEN));
+    setTime(NOW.plusSeconds(3600));
+    assertThat(authService.obtainAccessToken(), is(newToken));
+
+    verifyTokenRequests(2);
+  }
+
+  @Test
+  public void shouldRefreshTokenInBackgroundWhenItIsAboutToExpire() {
+    String newToken = UUID.randomUUID().toString();
+    mockTokenResponse(tokenResponse(TOKEN), tokenResponse(newToken));
+
+    authService.obtainAccessToken();
+    setTime(NOW.plusSeconds(3600 - REFRESH_MARGIN));
+
+    // the current token is still valid so it is returned without waiting for the new one
+    assertThat(authService.obtainAccessToken(), is(TOKEN));
+
+    verify(restTemplate, timeout(1000).times(2)).exchange(
+        eq(AUTHORIZATION_URI), eq(HttpMethod.POST), any(HttpEntity.class), eq(typeReference)
+    );
+  }
+
+  @Test
+  public void shouldObtainNewTokenAfterInvalidation() {
+    String newToken = UUID.randomUUID().toString();
+    mockTokenResponse(tokenResponse(TOKEN), tokenResponse(newToken));
+
+    authService.obtainAccessToken();
+    authService.invalidateToken(TOKEN);
+
+    assertThat(authService.obtainAccessToken(), is(newToken));
+    verifyTokenRequests(2);
+  }
+
+  @Test
+  public void shouldIgnoreInvalidationOfTokenThatIsNotCached() {
+    mockTokenResponse(tokenResponse(TOKEN));
+
+    authService.obtainAccessToken();
+    authService.invalidateToken(UUID.randomUUID().toString());
+
+    assertThat(authService.obtainAccessToken(), is(TOKEN));
+    verifyTokenRequests(1);
+  }
+
+  private Map<String, String> tokenResponse(String token) {
+    return ImmutableMap.of("access_token", token, "expires_in", EXPIRES_IN);
+  }
+
+  @SafeVarargs
+  private final void mockTokenResponse(Map<String, String>... bodies) {
+    OngoingStubbing<ResponseEntity<Map<String, String>>> stubbing = when(restTemplate.exchange(
+        eq(AUTHORIZATION_URI), eq(HttpMethod.POST), any(HttpEntity.class), eq(typeReference)
+    ));
+
+    for (Map<String, String> body : bodies) {
+      stubbing = stubbing.thenReturn(new ResponseEntity<>(body, HttpStatus.OK));
+    }
+  }
+
+  private void verifyTokenRequests(int count) {
+    verify(restTemplate, times(count)).exchange(
+        eq(AUTHORIZATION_URI), eq(HttpMethod.POST), any(HttpEntity.class), eq(typeReference)
+    );
+  }
+
+  private void setTime(Instant instant) {
+    ReflectionTestUtils.setField(authService, "clock", Clock.fixed(instant, ZoneOffset.UTC));
+  }
 }
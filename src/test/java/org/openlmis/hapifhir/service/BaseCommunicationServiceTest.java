@@ -29,15 +29,19 @@ import static org.mockito.Matchers.eq;
 import static org.mockito.Mockito.atLeastOnce;
 import static org.mockito.Mockito.doReturn;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 import com.google.common.collect.ImmutableList;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
 import java.net.URI;
 import java.nio.charset.StandardCharsets;
 import java.util.Collections;
 import java.util.List;
 import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
 import org.apache.http.NameValuePair;
 import org.apache.http.client.utils.URLEncodedUtils;
 import org.junit.After;
@@ -53,7 +57,11 @@ import org.springframework.http.HttpMethod;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
+import org.springframework.http.client.ClientHttpRequest;
+import org.springframework.http.client.ClientHttpResponse;
 import org.springframework.web.client.HttpClientErrorException;
+import org.springframework.web.client.RequestCallback;
+import org.springframework.web.client.ResponseExtractor;
 import org.springframework.web.client.RestOperations;
 
 @RunWith(MockitoJUnitRunner.class)
@@ -81,6 +89,9 @@ public abstract class BaseCommunicationServiceTest<T> {
   @Captor
   protected ArgumentCaptor<HttpEntity> entityCaptor;
 
+  @Captor
+  private ArgumentCaptor<RequestCallback> callbackCaptor;
+
   private boolean checkAuth = true;
 
   @Before
@@ -105,6 +116,10 @@ public abstract class BaseCommunicationServiceTest<T> {
     when(authService.obtainAccessToken()).thenReturn(TOKEN);
   }
 
+  protected void mockAuthFail(RuntimeException exception) {
+    when(authService.obtainAccessToken()).thenThrow(exception);
+  }
+
   protected void disableAuthCheck() {
     checkAuth = false;
   }
@@ -143,6 +158,16 @@ public abstract class BaseCommunicationServiceTest<T> {
 
   }
 
+  protected void mockRejectedTokenAndResponseEntity(T dto) {
+    ResponseEntity<T> response = mock(ResponseEntity.class);
+    doReturn(dto).when(response).getBody();
+
+    when(restClient.exchange(any(URI.class), any(HttpMethod.class), any(HttpEntity.class),
+        eq(getResultClass())))
+        .thenThrow(new HttpClientErrorException(HttpStatus.UNAUTHORIZED))
+        .thenReturn(response);
+  }
+
   protected void mockArrayResponseEntity(T dto) {
     mockArrayResponseEntity(Collections.singletonList(dto).toArray());
   }
@@ -173,6 +198,18 @@ public abstract class BaseCommunicationServiceTest<T> {
         .thenReturn(response);
   }
 
+  protected void mockStreamedResponse(String body) {
+    when(restClient.execute(any(URI.class), any(HttpMethod.class), any(RequestCallback.class),
+        any(ResponseExtractor.class)))
+        .thenAnswer(invocation -> {
+          ClientHttpResponse response = mock(ClientHttpResponse.class);
+          when(response.getBody())
+              .thenReturn(new ByteArrayInputStream(body.getBytes(StandardCharsets.UTF_8)));
+
+          return ((ResponseExtractor) invocation.getArguments()[3]).extractData(response);
+        });
+  }
+
   protected void mockRequestFail(HttpStatus statusCode) {
     mockRequestFail(new HttpClientErrorException(statusCode));
   }
@@ -183,6 +220,16 @@ public abstract class BaseCommunicationServiceTest<T> {
         .thenThrow(exception);
   }
 
+  protected void mockBlockedRequest(CountDownLatch started, CountDownLatch release) {
+    when(restClient.exchange(any(URI.class), any(HttpMethod.class),
+        any(HttpEntity.class), any(Class.class)))
+        .thenAnswer(invocation -> {
+          started.countDown();
+          release.await();
+          return null;
+        });
+  }
+
   protected void mockPageRequestFail(HttpStatus statusCode) {
     mockPageRequestFail(new HttpClientErrorException(statusCode));
   }
@@ -193,6 +240,22 @@ public abstract class BaseCommunicationServiceTest<T> {
         .thenThrow(exception);
   }
 
+  protected void verifyTokenInvalidated() {
+    verify(authService).invalidateToken(TOKEN);
+  }
+
+  protected void verifyRequestCount(int count) {
+    verify(restClient, times(count)).exchange(
+        any(URI.class), any(HttpMethod.class), any(HttpEntity.class), eq(getResultClass())
+    );
+  }
+
+  protected void verifyArrayRequestCount(int count) {
+    verify(restClient, times(count)).exchange(
+        any(URI.class), any(HttpMethod.class), any(HttpEntity.class), eq(getArrayResultClass())
+    );
+  }
+
   protected RequestSummary verifyRequest() {
     verify(restClient, atLeastOnce()).exchange(
         uriCaptor.capture(), methodCaptor.capture(), entityCaptor.capture(),
@@ -230,6 +293,22 @@ public abstract class BaseCommunicationServiceTest<T> {
     );
   }
 
+  protected RequestSummary verifyStreamedRequest() throws IOException {
+    verify(restClient, atLeastOnce()).execute(
+        uriCaptor.capture(), methodCaptor.capture(), callbackCaptor.capture(),
+        any(ResponseExtractor.class)
+    );
+
+    ClientHttpRequest request = mock(ClientHttpRequest.class);
+    HttpHeaders headers = new HttpHeaders();
+    when(request.getHeaders()).thenReturn(headers);
+    callbackCaptor.getValue().doWithRequest(request);
+
+    return new RequestSummary(
+        uriCaptor.getValue(), methodCaptor.getValue(), new HttpEntity<>(headers)
+    );
+  }
+
   protected static final class RequestSummary {
     private String uri;
     private List<NameValuePair> queryParams;
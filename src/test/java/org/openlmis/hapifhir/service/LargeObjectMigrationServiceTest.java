@@ -0,0 +1,171 @@
+/*
+ * This program is part of the OpenLMIS logistics management information system platform software.
+ * Copyright © 2017 VillageReach
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms
+ * of the GNU Affero General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details. You should have received a copy of
+ * the GNU Affero General Public License along with this program. If not, see
+ * http://www.gnu.org/licenses.  For additional information contact info@OpenLMIS.org.
+ */
+
+package org.openlmis.hapifhir.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.BDDMockito.given;
+import static org.mockito.Mockito.after;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.util.Arrays;
+import java.util.Collections;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnit;
+import org.mockito.junit.MockitoRule;
+import org.openlmis.hapifhir.repository.LargeObjectColumn;
+import org.openlmis.hapifhir.repository.LargeObjectMigrationRepository;
+import org.springframework.test.util.ReflectionTestUtils;
+
+public class LargeObjectMigrationServiceTest {
+
+  private static final LargeObjectColumn COLUMN = LargeObjectColumn.RESOURCE_TEXT;
+  private static final LargeObjectColumn OTHER_COLUMN = LargeObjectColumn.SEARCH_PARAMETER_MAP;
+
+  @Rule
+  public MockitoRule mockitoRule = MockitoJUnit.rule();
+
+  @Mock
+  private LargeObjectMigrationRepository largeObjectMigrationRepository;
+
+  @InjectMocks
+  private LargeObjectMigrationService service;
+
+  private MeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+  @After
+  public void tearDown() {
+    service.shutdown();
+  }
+
+  @Before
+  public void setUp() {
+    ReflectionTestUtils.setField(service, "enabled", true);
+    ReflectionTestUtils.setField(service, "batchSize", 2);
+    ReflectionTestUtils.setField(service, "interval", 10L);
+    ReflectionTestUtils.setField(service, "meterRegistry", meterRegistry);
+
+    given(largeObjectMigrationRepository.exists(any(LargeObjectColumn.class))).willReturn(true);
+    given(largeObjectMigrationRepository.copy(any(LargeObjectColumn.class), anyLong(), anyInt()))
+        .willReturn(Collections.emptyList());
+    given(largeObjectMigrationRepository.hasRemaining(any(LargeObjectColumn.class)))
+        .willReturn(false);
+  }
+
+  @Test
+  public void shouldContinueAfterLastCopiedRow() {
+    // given
+    given(largeObjectMigrationRepository.copy(COLUMN, 0L, 2)).willReturn(Arrays.asList(3L, 7L));
+
+    // when
+    service.copyLargeObjects();
+    service.copyLargeObjects();
+
+    // then
+    verify(largeObjectMigrationRepository).copy(COLUMN, 7L, 2);
+    assertThat(meterRegistry.get("largeObjects.migration.copied")
+        .tag("column", COLUMN.name()).counter().count()).isEqualTo(2.0);
+  }
+
+  @Test
+  public void shouldStartOverWhenRowsAreLeftAtTheEndOfTable() {
+    // given
+    given(largeObjectMigrationRepository.copy(COLUMN, 0L, 2)).willReturn(Arrays.asList(3L, 7L));
+    given(largeObjectMigrationRepository.copy(COLUMN, 7L, 2))
+        .willReturn(Collections.singletonList(9L));
+    given(largeObjectMigrationRepository.hasRemaining(COLUMN)).willReturn(true);
+
+    // when
+    service.copyLargeObjects();
+    service.copyLargeObjects();
+    service.copyLargeObjects();
+
+    // then
+    verify(largeObjectMigrationRepository, times(2)).copy(COLUMN, 0L, 2);
+  }
+
+  @Test
+  public void shouldStopWhenNoRowsAreLeft() {
+    // when
+    service.copyLargeObjects();
+    service.copyLargeObjects();
+
+    // then
+    verify(largeObjectMigrationRepository).copy(COLUMN, 0L, 2);
+    verify(largeObjectMigrationRepository).copy(OTHER_COLUMN, 0L, 2);
+  }
+
+  @Test
+  public void shouldSkipColumnThatHasBeenRemoved() {
+    // given
+    given(largeObjectMigrationRepository.exists(COLUMN)).willReturn(false);
+
+    // when
+    service.copyLargeObjects();
+
+    // then
+    verify(largeObjectMigrationRepository, never()).copy(COLUMN, 0L, 2);
+    verify(largeObjectMigrationRepository).copy(OTHER_COLUMN, 0L, 2);
+  }
+
+  @Test
+  public void shouldCopyOtherColumnsWhenBatchFails() {
+    // given
+    given(largeObjectMigrationRepository.copy(COLUMN, 0L, 2))
+        .willThrow(new IllegalStateException("test-exception"));
+
+    // when
+    service.copyLargeObjects();
+
+    // then
+    verify(largeObjectMigrationRepository).copy(OTHER_COLUMN, 0L, 2);
+  }
+
+  @Test
+  public void shouldCopyInBackgroundWhenStarted() {
+    // when
+    service.start();
+
+    // then
+    verify(largeObjectMigrationRepository, timeout(1000).atLeastOnce()).copy(COLUMN, 0L, 2);
+  }
+
+  @Test
+  public void shouldNotCopyWhenDisabled() {
+    // given
+    ReflectionTestUtils.setField(service, "enabled", false);
+
+    // when
+    service.start();
+
+    // then
+    verify(largeObjectMigrationRepository, after(100).never())
+        .copy(any(LargeObjectColumn.class), anyLong(), anyInt());
+  }
+
+}
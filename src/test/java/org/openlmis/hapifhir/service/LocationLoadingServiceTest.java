@@ -15,38 +15,69 @@
 
 package org.openlmis.hapifhir.service;
 
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
 import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Matchers.isNull;
+import static org.mockito.Mockito.after;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
+import ca.uhn.fhir.context.FhirContext;
+import ca.uhn.fhir.jpa.dao.BaseHapiFhirDao;
+import ca.uhn.fhir.jpa.dao.DaoConfig;
 import ca.uhn.fhir.jpa.dao.IFhirResourceDao;
+import ca.uhn.fhir.jpa.dao.IFhirSystemDao;
+import ca.uhn.fhir.jpa.searchparam.ResourceMetaParams;
+import ca.uhn.fhir.rest.api.server.RequestDetails;
+import com.google.common.hash.Hashing;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import java.util.Arrays;
-import java.util.List;
+import java.util.Collections;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import org.hl7.fhir.r4.model.Bundle;
+import org.hl7.fhir.r4.model.Bundle.BundleEntryComponent;
+import org.hl7.fhir.r4.model.Bundle.BundleType;
+import org.hl7.fhir.r4.model.Bundle.HTTPVerb;
 import org.hl7.fhir.r4.model.Location;
+import org.hl7.fhir.r4.model.Meta;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Captor;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.runners.MockitoJUnitRunner;
 import org.openlmis.hapifhir.FacilityDtoDataBuilder;
 import org.openlmis.hapifhir.GeographicZoneDtoDataBuilder;
+import org.openlmis.hapifhir.repository.ResourceHashRepository;
 import org.openlmis.hapifhir.service.referencedata.FacilityDto;
 import org.openlmis.hapifhir.service.referencedata.FacilityReferenceDataService;
 import org.openlmis.hapifhir.service.referencedata.GeographicZoneDto;
 import org.openlmis.hapifhir.service.referencedata.GeographicZoneReferenceDataService;
-import org.openlmis.hapifhir.service.referencedata.ReferenceDataVersionService;
+import org.springframework.data.domain.Page;
 import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.PlatformTransactionManager;
+import reactor.core.publisher.Mono;
 
 @RunWith(MockitoJUnitRunner.class)
 public class LocationLoadingServiceTest {
   
   private static final String BASE_URL = "http://localhost";
+  private static final int PAGE_SIZE = 10;
+  private static final int THREADS = 2;
+  private static final FhirContext FHIR_CONTEXT = FhirContext.forR4();
 
-  @Mock
-  private ReferenceDataVersionService referenceDataVersionService;
-  
   @Mock
   private GeographicZoneReferenceDataService geoZoneService;
   
@@ -55,27 +86,40 @@ public class LocationLoadingServiceTest {
   
   @Mock
   private IFhirResourceDao<Location> locationDao;
+
+  @Mock
+  private IFhirSystemDao<Bundle, Meta> systemDao;
+
+  @Mock
+  private PlatformTransactionManager transactionManager;
+
+  @Mock
+  private ResourceHashRepository resourceHashRepository;
+
+  @Captor
+  private ArgumentCaptor<Location> locationCaptor;
+
+  private MeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+  @Captor
+  private ArgumentCaptor<Bundle> bundleCaptor;
   
   @InjectMocks
   private LocationLoadingService service;
 
   @Before
   public void setUp() {
-    when(referenceDataVersionService.getInfo()).thenReturn(null, new VersionDto());
     ReflectionTestUtils.setField(service, "serviceUrl", BASE_URL);
+    ReflectionTestUtils.setField(service, "pageSize", PAGE_SIZE);
+    ReflectionTestUtils.setField(service, "prefetch", THREADS);
+    ReflectionTestUtils.setField(service, "threads", THREADS);
+    ReflectionTestUtils.setField(service, "daoConfig", new DaoConfig());
+    ReflectionTestUtils.setField(service, "meterRegistry", meterRegistry);
+    when(locationDao.getContext()).thenReturn(FHIR_CONTEXT);
   }
   
   @Test
-  public void waitForReferenceDataShouldWait() throws InterruptedException {
-    //when
-    service.waitForReferenceData();
-    
-    //then
-    verify(referenceDataVersionService, times(2)).getInfo();
-  }
-  
-  @Test
-  public void loadGeographicZonesShouldLoad() {
+  public void loadGeographicZonesShouldLoad() throws InterruptedException {
     //given
     GeographicZoneDto geoZone1 = new GeographicZoneDtoDataBuilder().build();
     GeographicZoneDto geoZone2 = new GeographicZoneDtoDataBuilder()
@@ -83,20 +127,85 @@ public class LocationLoadingServiceTest {
         .withLatitude(null)
         .withParent(geoZone1)
         .build();
-    List<GeographicZoneDto> geoZones = Arrays.asList(geoZone1, geoZone2);
-    PageDto<GeographicZoneDto> geoZonePage = new PageDto<>();
-    geoZonePage.setContent(geoZones);
-    when(geoZoneService.getPage("", RequestParameters.init())).thenReturn(geoZonePage);
+    when(geoZoneService.getPageAsync(eq(""), any(RequestParameters.class)))
+        .thenReturn(page(true, geoZone1, geoZone2));
     
     //when
     service.loadGeographicZones();
 
     //then
     verify(locationDao, times(2)).update(any(Location.class));
+    verify(geoZoneService).getPageAsync("", pageParameters(0));
+  }
+
+  @Test
+  public void loadGeographicZonesShouldSaveParentsFirst() throws InterruptedException {
+    //given
+    GeographicZoneDto parent = new GeographicZoneDtoDataBuilder().build();
+    GeographicZoneDto child = new GeographicZoneDtoDataBuilder()
+        .withParent(parent)
+        .build();
+    child.getLevel().setLevelNumber(parent.getLevel().getLevelNumber() + 1);
+    when(geoZoneService.getPageAsync("", pageParameters(0))).thenReturn(page(false, child));
+    when(geoZoneService.getPageAsync("", pageParameters(1))).thenReturn(page(true, parent));
+
+    //when
+    service.loadGeographicZones();
+
+    //then
+    verify(locationDao, times(2)).update(locationCaptor.capture());
+    assertThat(locationCaptor.getAllValues().get(0).getIdElement().getIdPart(),
+        is(parent.getId().toString()));
+  }
+
+  @Test
+  public void loadGeographicZonesShouldSplitLevelBetweenWorkers() throws InterruptedException {
+    //given
+    when(geoZoneService.getPageAsync(eq(""), any(RequestParameters.class)))
+        .thenReturn(page(true, new GeographicZoneDtoDataBuilder().build(),
+            new GeographicZoneDtoDataBuilder().build(),
+            new GeographicZoneDtoDataBuilder().build()));
+
+    //when
+    service.loadGeographicZones();
+
+    //then
+    verify(locationDao, times(3)).update(any(Location.class));
+    verify(transactionManager, times(THREADS)).commit(any());
   }
 
   @Test
-  public void loadFacilitiesShouldLoad() {
+  public void loadGeographicZonesShouldResumeFromFailedLevel() throws InterruptedException {
+    //given
+    GeographicZoneDto parent = new GeographicZoneDtoDataBuilder().build();
+    GeographicZoneDto child = new GeographicZoneDtoDataBuilder()
+        .withParent(parent)
+        .build();
+    child.getLevel().setLevelNumber(parent.getLevel().getLevelNumber() + 1);
+    when(geoZoneService.getPageAsync(eq(""), any(RequestParameters.class)))
+        .thenReturn(page(true, parent, child));
+    when(locationDao.update(any(Location.class)))
+        .thenReturn(null)
+        .thenThrow(new IllegalStateException("test-exception"))
+        .thenReturn(null);
+
+    //when
+    try {
+      service.loadGeographicZones();
+      fail("Loading should fail on the second level");
+    } catch (IllegalStateException exp) {
+      // expected
+    }
+    service.loadGeographicZones();
+
+    //then
+    verify(locationDao, times(3)).update(locationCaptor.capture());
+    assertThat(locationCaptor.getAllValues().get(2).getIdElement().getIdPart(),
+        is(child.getId().toString()));
+  }
+
+  @Test
+  public void loadFacilitiesShouldLoad() throws InterruptedException {
     //given
     FacilityDto facility1 = new FacilityDtoDataBuilder().build();
     FacilityDto facility2 = new FacilityDtoDataBuilder()
@@ -104,15 +213,246 @@ public class LocationLoadingServiceTest {
         .withActive(false)
         .withEnabled(null)
         .build();
-    List<FacilityDto> facilities = Arrays.asList(facility1, facility2);
-    PageDto<FacilityDto> facilityPage = new PageDto<>();
-    facilityPage.setContent(facilities);
-    when(facilityService.getPage("", RequestParameters.init())).thenReturn(facilityPage);
+    when(facilityService.getPageAsync(eq(""), any(RequestParameters.class)))
+        .thenReturn(page(true, facility1, facility2));
+
+    //when
+    service.loadFacilities();
+
+    //then
+    verify(locationDao, times(2)).update(any(Location.class));
+  }
+
+  @Test
+  public void loadFacilitiesShouldLoadAllPagesInSeparateTransactions() throws InterruptedException {
+    //given
+    when(facilityService.getPageAsync("", pageParameters(0)))
+        .thenReturn(page(false, new FacilityDtoDataBuilder().build()));
+    when(facilityService.getPageAsync("", pageParameters(1)))
+        .thenReturn(page(true, new FacilityDtoDataBuilder().build()));
 
     //when
     service.loadFacilities();
 
     //then
     verify(locationDao, times(2)).update(any(Location.class));
+    verify(transactionManager, times(2)).commit(any());
+  }
+
+  @Test
+  public void loadFacilitiesShouldRetrieveKnownPagesInAdvance() throws InterruptedException {
+    //given
+    PageDto<FacilityDto> first = pageDto(false, new FacilityDtoDataBuilder().build());
+    first.setTotalPages(3);
+    when(facilityService.getPageAsync("", pageParameters(0))).thenReturn(Mono.just(first));
+    when(facilityService.getPageAsync("", pageParameters(1)))
+        .thenReturn(page(false, new FacilityDtoDataBuilder().build()));
+    when(facilityService.getPageAsync("", pageParameters(2)))
+        .thenReturn(page(true, new FacilityDtoDataBuilder().build()));
+
+    //when
+    service.loadFacilities();
+
+    //then
+    verify(facilityService).getPageAsync("", pageParameters(1));
+    verify(facilityService).getPageAsync("", pageParameters(2));
+    verify(locationDao, times(3)).update(any(Location.class));
+  }
+
+  @Test
+  public void loadFacilitiesShouldStopOnEmptyPage() throws InterruptedException {
+    //given
+    when(facilityService.getPageAsync(eq(""), any(RequestParameters.class)))
+        .thenReturn(page(false));
+
+    //when
+    service.loadFacilities();
+
+    //then
+    verify(facilityService).getPageAsync(eq(""), any(RequestParameters.class));
+  }
+
+  @Test
+  public void loadFacilitiesShouldResumeFromLastCommittedPage() throws InterruptedException {
+    //given
+    when(facilityService.getPageAsync("", pageParameters(0)))
+        .thenReturn(page(false, new FacilityDtoDataBuilder().build()));
+    when(facilityService.getPageAsync("", pageParameters(1)))
+        .thenReturn(Mono.error(new IllegalStateException("test-exception")))
+        .thenReturn(page(true, new FacilityDtoDataBuilder().build()));
+
+    //when
+    try {
+      service.loadFacilities();
+      fail("Loading should fail on the second page");
+    } catch (IllegalStateException exp) {
+      // expected
+    }
+    service.loadFacilities();
+
+    //then
+    verify(facilityService, times(1)).getPageAsync("", pageParameters(0));
+    verify(facilityService, times(2)).getPageAsync("", pageParameters(1));
+    verify(locationDao, times(2)).update(any(Location.class));
+  }
+
+  @Test
+  public void shouldNotRunLoadsAtTheSameTime() throws Exception {
+    //given
+    CountDownLatch facilitiesRequested = new CountDownLatch(1);
+    CountDownLatch facilitiesReturned = new CountDownLatch(1);
+    when(facilityService.getPageAsync("", pageParameters(0))).thenAnswer(invocation -> {
+      facilitiesRequested.countDown();
+      facilitiesReturned.await();
+      return page(true);
+    });
+    when(geoZoneService.getPageAsync(eq(""), any(RequestParameters.class))).thenReturn(page(true));
+
+    ExecutorService executor = Executors.newFixedThreadPool(2);
+
+    try {
+      executor.submit(() -> {
+        service.loadFacilities();
+        return null;
+      });
+      facilitiesRequested.await();
+
+      //when
+      Future<?> zones = executor.submit(() -> {
+        service.loadGeographicZones();
+        return null;
+      });
+
+      //then
+      verify(geoZoneService, after(100).never()).getPageAsync(eq(""), any(RequestParameters.class));
+      facilitiesReturned.countDown();
+      zones.get(5, TimeUnit.SECONDS);
+      verify(geoZoneService).getPageAsync("", pageParameters(0));
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  @Test
+  public void loadFacilitiesShouldSaveLocationsInTransactionBundles() throws InterruptedException {
+    //given
+    ReflectionTestUtils.setField(service, "bundleSize", 2);
+    FacilityDto facility = new FacilityDtoDataBuilder().build();
+    when(facilityService.getPageAsync(eq(""), any(RequestParameters.class)))
+        .thenReturn(page(true, facility, new FacilityDtoDataBuilder().build(),
+            new FacilityDtoDataBuilder().build()));
+
+    //when
+    service.loadFacilities();
+
+    //then
+    verify(systemDao, times(2)).transaction(isNull(RequestDetails.class), bundleCaptor.capture());
+    verify(locationDao, never()).update(any(Location.class));
+
+    Bundle bundle = bundleCaptor.getAllValues().get(0);
+    assertThat(bundle.getType(), is(BundleType.TRANSACTION));
+    assertThat(bundle.getEntry().size(), is(2));
+    assertThat(bundleCaptor.getAllValues().get(1).getEntry().size(), is(1));
+
+    BundleEntryComponent entry = bundle.getEntry().get(0);
+    assertThat(entry.getRequest().getMethod(), is(HTTPVerb.PUT));
+    assertThat(entry.getRequest().getUrl(), is("Location/" + facility.getId()));
+    assertThat(entry.getResource().getIdElement().getIdPart(), is(facility.getId().toString()));
+  }
+
+  @Test
+  public void loadGeographicZonesShouldSaveParentsFirstInTransactionBundles()
+      throws InterruptedException {
+    //given
+    ReflectionTestUtils.setField(service, "bundleSize", 1);
+    GeographicZoneDto parent = new GeographicZoneDtoDataBuilder().build();
+    GeographicZoneDto child = new GeographicZoneDtoDataBuilder()
+        .withParent(parent)
+        .build();
+    child.getLevel().setLevelNumber(parent.getLevel().getLevelNumber() + 1);
+    when(geoZoneService.getPageAsync(eq(""), any(RequestParameters.class)))
+        .thenReturn(page(true, child, parent));
+
+    //when
+    service.loadGeographicZones();
+
+    //then
+    verify(systemDao, times(2)).transaction(isNull(RequestDetails.class), bundleCaptor.capture());
+    assertThat(bundleCaptor.getAllValues().get(0).getEntryFirstRep().getRequest().getUrl(),
+        is("Location/" + parent.getId()));
+  }
+
+  @Test
+  public void loadFacilitiesShouldSkipUnchangedLocations() throws InterruptedException {
+    //given
+    FacilityDto facility = new FacilityDtoDataBuilder().build();
+    when(facilityService.getPageAsync(eq(""), any(RequestParameters.class)))
+        .thenReturn(page(true, facility));
+    service.loadFacilities();
+    verify(locationDao).update(locationCaptor.capture());
+
+    when(resourceHashRepository.findHashes("Location",
+        Collections.singletonList(facility.getId().toString())))
+        .thenReturn(Collections.singletonMap(facility.getId().toString(),
+            hash(locationCaptor.getValue())));
+
+    //when
+    service.loadFacilities();
+
+    //then
+    verify(locationDao, times(1)).update(any(Location.class));
+    assertThat(countLocations("saved"), is(1.0));
+    assertThat(countLocations("skipped"), is(1.0));
+  }
+
+  @Test
+  public void loadFacilitiesShouldSaveChangedLocations() throws InterruptedException {
+    //given
+    FacilityDto facility = new FacilityDtoDataBuilder().build();
+    when(facilityService.getPageAsync(eq(""), any(RequestParameters.class)))
+        .thenReturn(page(true, facility));
+    when(resourceHashRepository.findHashes("Location",
+        Collections.singletonList(facility.getId().toString())))
+        .thenReturn(Collections.singletonMap(facility.getId().toString(), "outdated-hash"));
+
+    //when
+    service.loadFacilities();
+
+    //then
+    verify(locationDao).update(any(Location.class));
+  }
+
+  @SafeVarargs
+  private final <T> Mono<Page<T>> page(boolean last, T... content) {
+    return Mono.just(pageDto(last, content));
+  }
+
+  @SafeVarargs
+  private final <T> PageDto<T> pageDto(boolean last, T... content) {
+    PageDto<T> page = new PageDto<>();
+    page.setContent(Arrays.asList(content));
+    page.setLast(last);
+    return page;
+  }
+
+  private double countLocations(String result) {
+    return meterRegistry
+        .get("locations.load")
+        .tags("resourceType", "facilities", "result", result)
+        .counter()
+        .count();
+  }
+
+  private String hash(Location location) {
+    byte[] encoded = BaseHapiFhirDao.encodeResource(location, new DaoConfig().getResourceEncoding(),
+        ResourceMetaParams.EXCLUDE_ELEMENTS_IN_ENCODED, FHIR_CONTEXT);
+    return Hashing.sha256().hashBytes(encoded).toString();
+  }
+
+  private RequestParameters pageParameters(int page) {
+    return RequestParameters
+        .init()
+        .set("page", page)
+        .set("size", PAGE_SIZE);
   }
 }
@@ -0,0 +1,110 @@
+/*
+ * This program is part of the OpenLMIS logistics management information system platform software.
+ * Copyright © 2017 VillageReach
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms
+ * of the GNU Affero General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details. You should have received a copy of
+ * the GNU Affero General Public License along with this program. If not, see
+ * http://www.gnu.org/licenses.  For additional information contact info@OpenLMIS.org.
+ */
+
+package org.openlmis.hapifhir.service;
+
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.after;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.InOrder;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+import org.springframework.test.util.ReflectionTestUtils;
+
+@RunWith(MockitoJUnitRunner.class)
+public class LocationSyncServiceTest {
+
+  @Mock
+  private LocationLoadingService locationLoadingService;
+
+  @InjectMocks
+  private LocationSyncService service;
+
+  @After
+  public void tearDown() {
+    service.shutdown();
+  }
+
+  @Test
+  public void shouldSyncZonesBeforeFacilities() throws InterruptedException {
+    //when
+    service.syncLocations();
+
+    //then
+    InOrder order = inOrder(locationLoadingService);
+    order.verify(locationLoadingService).loadGeographicZones();
+    order.verify(locationLoadingService).loadFacilities();
+  }
+
+  @Test
+  public void shouldNotSyncFacilitiesIfZonesFailed() throws InterruptedException {
+    //given
+    doThrow(new IllegalStateException("test-exception"))
+        .when(locationLoadingService).loadGeographicZones();
+
+    //when
+    service.syncLocations();
+
+    //then
+    verify(locationLoadingService, never()).loadFacilities();
+  }
+
+  @Test
+  public void shouldStopWhenInterrupted() throws InterruptedException {
+    //given
+    doThrow(new InterruptedException()).when(locationLoadingService).loadGeographicZones();
+
+    //when
+    service.syncLocations();
+
+    //then
+    verify(locationLoadingService, never()).loadFacilities();
+    assertTrue(Thread.interrupted());
+  }
+
+  @Test
+  public void shouldNotScheduleSyncWhenCronIsDisabled() throws InterruptedException {
+    //given
+    ReflectionTestUtils.setField(service, "cron", "-");
+
+    //when
+    service.start();
+
+    //then
+    verify(locationLoadingService, after(100).never()).loadGeographicZones();
+  }
+
+  @Test
+  public void shouldSyncLocationsOnSchedule() throws InterruptedException {
+    //given
+    ReflectionTestUtils.setField(service, "cron", "* * * * * *");
+
+    //when
+    service.start();
+
+    //then
+    verify(locationLoadingService, timeout(2000).atLeastOnce()).loadFacilities();
+  }
+
+}
@@ -17,6 +17,7 @@ package org.openlmis.hapifhir.service;
 
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.verifyZeroInteractions;
 import static org.mockito.Mockito.when;
@@ -74,6 +75,9 @@ public abstract class OpenLmisResourceCreatorInterceptorTest
   @Mock
   private OAuth2Authentication authentication;
 
+  @Mock
+  private ReferenceDataSyncService referenceDataSyncService;
+
   @Captor
   private ArgumentCaptor<T> resourceCaptor;
 
@@ -93,6 +97,8 @@ public abstract class OpenLmisResourceCreatorInterceptorTest
     when(authentication.getOAuth2Request()).thenReturn(createAuthRequest(API_KEY_PREFIX));
 
     ReflectionTestUtils.setField(getInterceptor(), "apiKeyPrefix", API_KEY_PREFIX);
+    ReflectionTestUtils.setField(getInterceptor(), "referenceDataSyncService",
+        referenceDataSyncService);
     SecurityContextHolder.setContext(securityContext);
   }
 
@@ -134,6 +140,21 @@ public abstract class OpenLmisResourceCreatorInterceptorTest
     assertResourceAfterUpdate(resource);
   }
 
+  @Test
+  public void shouldEnqueueSynchronizationInAsyncMode() {
+    // given
+    final OpenLmisResourceCreatorInterceptor<T> interceptor = getInterceptor();
+    ReflectionTestUtils.setField(interceptor, "asyncSync", true);
+
+    // when
+    interceptor.resourceCreated(null, locationMock);
+    interceptor.resourceUpdated(null, null, locationMock);
+
+    // then
+    verify(referenceDataSyncService, times(2)).enqueue(getSupportedType(), locationMock);
+    verifyZeroInteractions(interceptor.getCommunicationService());
+  }
+
   @Test(expected = IllegalStateException.class)
   public void shouldThrowExceptionIfCodingCannotBeConvertedToEnumForCreateEvent() {
     when(coding.getCode()).thenReturn("test-code");
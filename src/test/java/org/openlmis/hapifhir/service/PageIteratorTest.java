@@ -0,0 +1,159 @@
+/*
+ * This program is part of the OpenLMIS logistics management information system platform software.
+ * Copyright © 2017 VillageReach
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms
+ * of the GNU Affero General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details. You should have received a copy of
+ * the GNU Affero General Public License along with this program. If not, see
+ * http://www.gnu.org/licenses.  For additional information contact info@OpenLMIS.org.
+ */
+
+package org.openlmis.hapifhir.service;
+
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.IntFunction;
+import org.junit.After;
+import org.junit.Test;
+import org.springframework.data.domain.Page;
+
+public class PageIteratorTest {
+
+  private final ExecutorService executor = Executors.newFixedThreadPool(2);
+  private final List<Integer> requested = Collections.synchronizedList(new ArrayList<>());
+
+  @After
+  public void tearDown() {
+    executor.shutdownNow();
+  }
+
+  @Test
+  public void shouldReturnPagesInOrder() throws InterruptedException {
+    //given
+    PageIterator<Integer> pages = new PageIterator<>(async(number -> page(number, 4)), 0, 2);
+
+    //when
+    List<Integer> content = new ArrayList<>();
+    while (pages.hasNext()) {
+      content.addAll(pages.next().getContent());
+    }
+
+    //then
+    assertThat(content, is(Arrays.asList(0, 1, 2, 3)));
+    assertThat(requested.size(), is(4));
+  }
+
+  @Test
+  public void shouldRequestNoMorePagesThanPrefetchLimit() throws InterruptedException {
+    //given
+    PageIterator<Integer> pages = new PageIterator<>(async(number -> page(number, 10)), 0, 2);
+
+    //when
+    pages.next();
+    pages.next();
+
+    //then
+    // the first two pages have been returned, pages 2 and 3 are requested in advance
+    assertThat(requested.size() <= 4, is(true));
+    pages.close();
+    assertThat(pages.hasNext(), is(false));
+  }
+
+  @Test
+  public void shouldStartFromGivenPage() throws InterruptedException {
+    //given
+    PageIterator<Integer> pages = new PageIterator<>(async(number -> page(number, 3)), 2, 2);
+
+    //when
+    Page<Integer> page = pages.next();
+
+    //then
+    assertThat(page.getContent(), is(Arrays.asList(2)));
+    assertThat(pages.hasNext(), is(false));
+  }
+
+  @Test
+  public void shouldRequestPagesOneByOneIfPageCountIsUnknown() throws InterruptedException {
+    //given
+    PageIterator<Integer> pages = new PageIterator<>(async(number -> {
+      PageDto<Integer> page = page(number, 3);
+      page.setTotalPages(0);
+      return page;
+    }), 0, 2);
+
+    //when
+    pages.next();
+
+    //then
+    assertThat(requested, is(Arrays.asList(0)));
+  }
+
+  @Test
+  public void shouldStopOnEmptyPage() throws InterruptedException {
+    //given
+    PageIterator<Integer> pages = new PageIterator<>(async(number -> {
+      PageDto<Integer> page = page(number, 5);
+      page.setContent(Collections.emptyList());
+      return page;
+    }), 0, 2);
+
+    //when
+    pages.next();
+
+    //then
+    assertThat(pages.hasNext(), is(false));
+  }
+
+  @Test
+  public void shouldRethrowFailureOfPrefetchedPage() throws InterruptedException {
+    //given
+    PageIterator<Integer> pages = new PageIterator<>(async(number -> {
+      if (number == 1) {
+        throw new IllegalStateException("test-exception");
+      }
+      return page(number, 3);
+    }), 0, 2);
+    pages.next();
+
+    //when
+    try {
+      pages.next();
+      fail("The second page should fail");
+    } catch (IllegalStateException exp) {
+      //then
+      assertThat(exp.getMessage(), is("test-exception"));
+      assertThat(pages.hasNext(), is(false));
+    }
+  }
+
+  private IntFunction<CompletableFuture<Page<Integer>>> async(
+      IntFunction<Page<Integer>> loader) {
+    return number -> CompletableFuture.supplyAsync(() -> loader.apply(number), executor);
+  }
+
+  private PageDto<Integer> page(int number, int totalPages) {
+    requested.add(number);
+
+    PageDto<Integer> page = new PageDto<>();
+    page.setNumber(number);
+    page.setTotalPages(totalPages);
+    page.setLast(number >= totalPages - 1);
+    page.setContent(Arrays.asList(number));
+    return page;
+  }
+
+}
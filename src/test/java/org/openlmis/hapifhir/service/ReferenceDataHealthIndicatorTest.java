@@ -0,0 +1,60 @@
+/*
+ * This program is part of the OpenLMIS logistics management information system platform software.
+ * Copyright © 2017 VillageReach
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms
+ * of the GNU Affero General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details. You should have received a copy of
+ * the GNU Affero General Public License along with this program. If not, see
+ * http://www.gnu.org/licenses.  For additional information contact info@OpenLMIS.org.
+ */
+
+package org.openlmis.hapifhir.service;
+
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Mockito.when;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+import org.openlmis.hapifhir.service.ReferenceDataReadinessWatcher.State;
+import org.springframework.boot.actuate.health.Status;
+
+@RunWith(MockitoJUnitRunner.class)
+public class ReferenceDataHealthIndicatorTest {
+
+  @Mock
+  private ReferenceDataReadinessWatcher readinessWatcher;
+
+  @InjectMocks
+  private ReferenceDataHealthIndicator healthIndicator;
+
+  @Test
+  public void shouldBeOutOfServiceWhileWaitingForReferenceData() {
+    when(readinessWatcher.getState()).thenReturn(State.WAITING);
+
+    assertThat(healthIndicator.health().getStatus(), is(Status.OUT_OF_SERVICE));
+  }
+
+  @Test
+  public void shouldBeUpWhenReferenceDataIsReady() {
+    when(readinessWatcher.getState()).thenReturn(State.READY);
+
+    assertThat(healthIndicator.health().getStatus(), is(Status.UP));
+  }
+
+  @Test
+  public void shouldBeDownWhenReferenceDataIsUnavailable() {
+    when(readinessWatcher.getState()).thenReturn(State.UNAVAILABLE);
+
+    assertThat(healthIndicator.health().getStatus(), is(Status.DOWN));
+  }
+
+}
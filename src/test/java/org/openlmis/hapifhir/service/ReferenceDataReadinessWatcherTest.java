@@ -0,0 +1,144 @@
+/*
+ * This program is part of the OpenLMIS logistics management information system platform software.
+ * Copyright © 2017 VillageReach
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms
+ * of the GNU Affero General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details. You should have received a copy of
+ * the GNU Affero General Public License along with this program. If not, see
+ * http://www.gnu.org/licenses.  For additional information contact info@OpenLMIS.org.
+ */
+
+package org.openlmis.hapifhir.service;
+
+import static org.hamcrest.Matchers.instanceOf;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+import org.openlmis.hapifhir.service.ReferenceDataReadinessWatcher.State;
+import org.openlmis.hapifhir.service.referencedata.ReferenceDataVersionService;
+import org.springframework.test.util.ReflectionTestUtils;
+
+@RunWith(MockitoJUnitRunner.class)
+public class ReferenceDataReadinessWatcherTest {
+
+  @Mock
+  private ReferenceDataVersionService referenceDataVersionService;
+
+  @InjectMocks
+  private ReferenceDataReadinessWatcher watcher;
+
+  @Before
+  public void setUp() {
+    ReflectionTestUtils.setField(watcher, "initialBackoff", 1L);
+    ReflectionTestUtils.setField(watcher, "maxBackoff", 4L);
+    ReflectionTestUtils.setField(watcher, "maxWait", 0L);
+  }
+
+  @After
+  public void tearDown() {
+    watcher.shutdown();
+  }
+
+  @Test
+  public void shouldCompleteWhenReferenceDataResponds() throws Exception {
+    // given
+    VersionDto version = new VersionDto();
+    when(referenceDataVersionService.getInfo())
+        .thenThrow(new IllegalStateException("Connection refused"))
+        .thenReturn(null, version);
+
+    // when
+    VersionDto result = watcher.whenReady().get(5, TimeUnit.SECONDS);
+
+    // then
+    assertThat(result, is(version));
+    assertThat(watcher.getState(), is(State.READY));
+    verify(referenceDataVersionService, times(3)).getInfo();
+  }
+
+  @Test
+  public void shouldBeWaitingUntilReferenceDataResponds() {
+    // when
+    watcher.start();
+
+    // then
+    assertThat(watcher.getState(), is(State.WAITING));
+  }
+
+  @Test
+  public void shouldStartWatchingOnlyOnce() throws Exception {
+    // given
+    when(referenceDataVersionService.getInfo()).thenReturn(new VersionDto());
+
+    // when
+    watcher.start();
+    watcher.start();
+    watcher.whenReady().get(5, TimeUnit.SECONDS);
+
+    // then
+    verify(referenceDataVersionService).getInfo();
+  }
+
+  @Test
+  public void shouldFailWaitingCallersAfterMaxWait() throws Exception {
+    // given
+    ReflectionTestUtils.setField(watcher, "maxWait", 20L);
+
+    // when
+    try {
+      watcher.whenReady().get(5, TimeUnit.SECONDS);
+      fail("Reference data should not be ready");
+    } catch (ExecutionException exp) {
+      // then
+      assertThat(exp.getCause(), is(instanceOf(TimeoutException.class)));
+      assertThat(watcher.getState(), is(State.UNAVAILABLE));
+    }
+  }
+
+  @Test
+  public void shouldKeepWatchingAfterMaxWait() throws Exception {
+    // given
+    ReflectionTestUtils.setField(watcher, "maxWait", 20L);
+    VersionDto version = new VersionDto();
+    AtomicBoolean available = new AtomicBoolean();
+    when(referenceDataVersionService.getInfo())
+        .thenAnswer(invocation -> available.get() ? version : null);
+
+    try {
+      watcher.whenReady().get(5, TimeUnit.SECONDS);
+      fail("Reference data should not be ready");
+    } catch (ExecutionException exp) {
+      assertThat(watcher.getState(), is(State.UNAVAILABLE));
+    }
+
+    // when
+    CompletableFuture<VersionDto> retry = watcher.whenReady();
+    available.set(true);
+
+    // then
+    assertThat(retry.get(5, TimeUnit.SECONDS), is(version));
+    assertThat(watcher.getState(), is(State.READY));
+  }
+
+}
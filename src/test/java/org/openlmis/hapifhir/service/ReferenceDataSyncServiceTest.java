@@ -0,0 +1,302 @@
+/*
+ * This program is part of the OpenLMIS logistics management information system platform software.
+ * Copyright © 2017 VillageReach
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms
+ * of the GNU Affero General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details. You should have received a copy of
+ * the GNU Affero General Public License along with this program. If not, see
+ * http://www.gnu.org/licenses.  For additional information contact info@OpenLMIS.org.
+ */
+
+package org.openlmis.hapifhir.service;
+
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyListOf;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.after;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import ca.uhn.fhir.context.FhirContext;
+import com.google.common.collect.Lists;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.hl7.fhir.r4.model.Location;
+import org.hl7.fhir.r4.model.codesystems.LocationPhysicalType;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Captor;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+import org.openlmis.hapifhir.repository.ReferenceDataSyncBacklog;
+import org.openlmis.hapifhir.repository.ReferenceDataSyncJob;
+import org.openlmis.hapifhir.repository.ReferenceDataSyncJobRepository;
+import org.springframework.test.util.ReflectionTestUtils;
+
+@RunWith(MockitoJUnitRunner.class)
+public class ReferenceDataSyncServiceTest {
+
+  private static final FhirContext FHIR_CONTEXT = FhirContext.forR4();
+  private static final String LOCATION_ID = UUID.randomUUID().toString();
+  private static final int BATCH_SIZE = 10;
+  private static final long LOCK_DURATION = 300;
+  private static final int MAX_ATTEMPTS = 3;
+  private static final long INITIAL_BACKOFF = 5;
+  private static final long MAX_BACKOFF = 60;
+
+  @Mock
+  private ReferenceDataSyncJobRepository referenceDataSyncJobRepository;
+
+  @Mock
+  private OpenLmisResourceCreatorInterceptor<?> facilityInterceptor;
+
+  @Mock
+  private OpenLmisResourceCreatorInterceptor<?> geographicZoneInterceptor;
+
+  @Captor
+  private ArgumentCaptor<Location> locationCaptor;
+
+  @Captor
+  private ArgumentCaptor<List<Location>> locationsCaptor;
+
+  @InjectMocks
+  private ReferenceDataSyncService service;
+
+  private MeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+  @Before
+  public void setUp() {
+    ReflectionTestUtils.setField(service, "workers", 2);
+    ReflectionTestUtils.setField(service, "pollInterval", 10L);
+    ReflectionTestUtils.setField(service, "batchSize", BATCH_SIZE);
+    ReflectionTestUtils.setField(service, "lockDuration", LOCK_DURATION);
+    ReflectionTestUtils.setField(service, "maxAttempts", MAX_ATTEMPTS);
+    ReflectionTestUtils.setField(service, "initialBackoff", INITIAL_BACKOFF);
+    ReflectionTestUtils.setField(service, "maxBackoff", MAX_BACKOFF);
+    ReflectionTestUtils.setField(service, "fhirContext", FHIR_CONTEXT);
+    ReflectionTestUtils.setField(service, "interceptors",
+        Lists.newArrayList(facilityInterceptor, geographicZoneInterceptor));
+    ReflectionTestUtils.setField(service, "meterRegistry", meterRegistry);
+    service.init();
+
+    when(referenceDataSyncJobRepository.getBacklog())
+        .thenReturn(new ReferenceDataSyncBacklog(0, 0, 0));
+
+    when(facilityInterceptor.supports(LocationPhysicalType.SI)).thenReturn(true);
+  }
+
+  @After
+  public void tearDown() {
+    service.shutdown();
+  }
+
+  @Test
+  public void shouldPollQueueWhenSyncIsAsync() {
+    // given
+    ReflectionTestUtils.setField(service, "async", true);
+
+    // when
+    service.start();
+
+    // then
+    verify(referenceDataSyncJobRepository, timeout(1000).atLeastOnce())
+        .lock(BATCH_SIZE, LOCK_DURATION);
+  }
+
+  @Test
+  public void shouldNotPollQueueWhenSyncIsNotAsync() {
+    // when
+    service.start();
+
+    // then
+    verify(referenceDataSyncJobRepository, after(100).never()).lock(anyInt(), anyLong());
+  }
+
+  @Test
+  public void shouldEnqueueEncodedLocation() {
+    // when
+    service.enqueue(LocationPhysicalType.SI, location());
+
+    // then
+    verify(referenceDataSyncJobRepository).save(eq("si"), eq(LOCATION_ID), anyString());
+  }
+
+  @Test
+  public void shouldSynchronizeLocationAndRemoveJob() {
+    // given
+    ReferenceDataSyncJob job = job(0);
+    mockJobs(job);
+
+    // when
+    service.processJobs();
+
+    // then
+    verify(facilityInterceptor).synchronize(locationCaptor.capture());
+    verify(geographicZoneInterceptor, never()).synchronize(any(Location.class));
+    verify(referenceDataSyncJobRepository).delete(job);
+    assertThat(locationCaptor.getValue().getIdElement().getIdPart(), is(LOCATION_ID));
+  }
+
+  @Test
+  public void shouldPrefetchReferenceDataForBatch() {
+    // given
+    mockJobs(job(0));
+
+    // when
+    service.processJobs();
+
+    // then
+    verify(facilityInterceptor).prefetch(locationsCaptor.capture());
+    verify(geographicZoneInterceptor, never()).prefetch(anyListOf(Location.class));
+    assertThat(locationsCaptor.getValue().get(0).getIdElement().getIdPart(), is(LOCATION_ID));
+  }
+
+  @Test
+  public void shouldSynchronizeLocationIfPrefetchFails() {
+    // given
+    ReferenceDataSyncJob job = job(0);
+    mockJobs(job);
+    doThrow(new IllegalStateException("test-exception"))
+        .when(facilityInterceptor).prefetch(anyListOf(Location.class));
+
+    // when
+    service.processJobs();
+
+    // then
+    verify(facilityInterceptor).synchronize(any(Location.class));
+    verify(referenceDataSyncJobRepository).delete(job);
+  }
+
+  @Test
+  public void shouldRetryFailedJobWithBackoff() {
+    // given
+    mockJobs(job(1));
+    doThrow(new IllegalStateException("test-exception"))
+        .when(facilityInterceptor).synchronize(any(Location.class));
+
+    // when
+    service.processJobs();
+
+    // then
+    verify(referenceDataSyncJobRepository).retryLater(eq(1L), eq(INITIAL_BACKOFF * 2),
+        anyString());
+    verify(referenceDataSyncJobRepository, never()).delete(any(ReferenceDataSyncJob.class));
+  }
+
+  @Test
+  public void shouldMoveJobToDeadLettersAfterLastAttempt() {
+    // given
+    ReferenceDataSyncJob job = job(MAX_ATTEMPTS - 1);
+    mockJobs(job);
+    doThrow(new IllegalStateException("test-exception"))
+        .when(facilityInterceptor).synchronize(any(Location.class));
+
+    // when
+    service.processJobs();
+
+    // then
+    verify(referenceDataSyncJobRepository).moveToDeadLetters(eq(job), anyString());
+    verify(referenceDataSyncJobRepository, never()).retryLater(anyLong(), anyLong(), anyString());
+  }
+
+  @Test
+  public void shouldWaitForWholeBatchIfWorkerBreaks() {
+    // given
+    ReferenceDataSyncJob broken = job(1);
+    ReferenceDataSyncJob slow = job(MAX_ATTEMPTS - 1);
+    when(referenceDataSyncJobRepository.lock(BATCH_SIZE, LOCK_DURATION))
+        .thenReturn(Lists.newArrayList(broken, slow));
+    doThrow(new IllegalStateException("test-exception"))
+        .when(facilityInterceptor).synchronize(any(Location.class));
+    doThrow(new IllegalStateException("test-exception"))
+        .when(referenceDataSyncJobRepository).retryLater(anyLong(), anyLong(), anyString());
+
+    AtomicBoolean moved = new AtomicBoolean();
+    doAnswer(invocation -> {
+      Thread.sleep(100);
+      moved.set(true);
+      return null;
+    }).when(referenceDataSyncJobRepository).moveToDeadLetters(eq(slow), anyString());
+
+    // when
+    service.processJobs();
+
+    // then
+    assertThat(moved.get(), is(true));
+  }
+
+  @Test
+  public void shouldProcessJobsUntilQueueIsDrained() {
+    // given
+    ReferenceDataSyncJob[] jobs = new ReferenceDataSyncJob[BATCH_SIZE];
+    for (int i = 0; i < BATCH_SIZE; ++i) {
+      jobs[i] = job(0);
+    }
+    when(referenceDataSyncJobRepository.lock(anyInt(), anyLong()))
+        .thenReturn(Lists.newArrayList(jobs))
+        .thenReturn(Collections.emptyList());
+
+    // when
+    service.processJobs();
+
+    // then
+    verify(referenceDataSyncJobRepository, times(2))
+        .lock(BATCH_SIZE, LOCK_DURATION);
+  }
+
+  @Test
+  public void shouldExposeBacklogMetrics() {
+    // given
+    when(referenceDataSyncJobRepository.getBacklog())
+        .thenReturn(new ReferenceDataSyncBacklog(5, 30, 1));
+
+    // when
+    service.processJobs();
+
+    // then
+    assertThat(meterRegistry.get("referencedata.sync.backlog.size").gauge().value(), is(5.0));
+    assertThat(meterRegistry.get("referencedata.sync.backlog.lag").gauge().value(), is(30.0));
+    assertThat(meterRegistry.get("referencedata.sync.deadLetters").gauge().value(), is(1.0));
+  }
+
+  private void mockJobs(ReferenceDataSyncJob job) {
+    when(referenceDataSyncJobRepository.lock(BATCH_SIZE, LOCK_DURATION))
+        .thenReturn(Collections.singletonList(job));
+  }
+
+  private ReferenceDataSyncJob job(int attempts) {
+    String payload = FHIR_CONTEXT.newJsonParser().encodeResourceToString(location());
+    return new ReferenceDataSyncJob(1L, "si", LOCATION_ID, payload, attempts, 2L);
+  }
+
+  private Location location() {
+    Location location = new Location();
+    location.setId(LOCATION_ID);
+    location.setName("test-location");
+    return location;
+  }
+
+}
@@ -0,0 +1,177 @@
+/*
+ * This program is part of the OpenLMIS logistics management information system platform software.
+ * Copyright © 2017 VillageReach
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms
+ * of the GNU Affero General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details. You should have received a copy of
+ * the GNU Affero General Public License along with this program. If not, see
+ * http://www.gnu.org/licenses.  For additional information contact info@OpenLMIS.org.
+ */
+
+package org.openlmis.hapifhir.service;
+
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+import org.junit.Test;
+
+public class RefreshableValueTest {
+  private static final long REFRESH_INTERVAL = 60;
+
+  private final AtomicLong nanos = new AtomicLong();
+  private final AtomicInteger loads = new AtomicInteger();
+
+  @Test
+  public void shouldLoadValueOnlyOnce() {
+    //given
+    RefreshableValue<String> value = createValue(() -> "value-" + loads.incrementAndGet());
+
+    //when
+    value.get();
+    String result = value.get();
+
+    //then
+    assertThat(result, is("value-1"));
+    assertThat(loads.get(), is(1));
+  }
+
+  @Test
+  public void shouldLoadValueOnceForConcurrentCallers() throws Exception {
+    //given
+    CountDownLatch started = new CountDownLatch(1);
+    CountDownLatch release = new CountDownLatch(1);
+    RefreshableValue<String> value = createValue(() -> {
+      loads.incrementAndGet();
+      started.countDown();
+      await(release);
+      return "value";
+    });
+    ExecutorService executor = Executors.newFixedThreadPool(2);
+
+    try {
+      //when
+      Future<String> first = executor.submit(value::get);
+      started.await(5, TimeUnit.SECONDS);
+      Future<String> second = executor.submit(value::get);
+      release.countDown();
+
+      //then
+      assertThat(first.get(5, TimeUnit.SECONDS), is("value"));
+      assertThat(second.get(5, TimeUnit.SECONDS), is("value"));
+      assertThat(loads.get(), is(1));
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  @Test
+  public void shouldRefreshValueAfterInterval() {
+    //given
+    RefreshableValue<String> value = createValue(() -> "value-" + loads.incrementAndGet());
+    value.get();
+
+    //when
+    nanos.addAndGet(TimeUnit.SECONDS.toNanos(REFRESH_INTERVAL + 1));
+    value.get();
+    String result = value.get();
+
+    //then
+    assertThat(result, is("value-2"));
+  }
+
+  @Test
+  public void shouldKeepValueIfRefreshFails() {
+    //given
+    RefreshableValue<String> value = createValue(() -> {
+      if (loads.incrementAndGet() > 1) {
+        throw new IllegalStateException("refresh failed");
+      }
+      return "value";
+    });
+    value.get();
+
+    //when
+    nanos.addAndGet(TimeUnit.SECONDS.toNanos(REFRESH_INTERVAL + 1));
+    String result = value.get();
+
+    //then
+    assertThat(result, is("value"));
+    assertThat(value.get(), is("value"));
+  }
+
+  @Test
+  public void shouldNotCacheMissingValue() {
+    //given
+    RefreshableValue<String> value = createValue(() -> {
+      loads.incrementAndGet();
+      return null;
+    });
+
+    //when
+    value.get();
+    String result = value.get();
+
+    //then
+    assertThat(result, is(nullValue()));
+    assertThat(loads.get(), is(2));
+  }
+
+  @Test
+  public void shouldLoadValueOnWarmUp() {
+    //given
+    RefreshableValue<String> value = createValue(() -> "value-" + loads.incrementAndGet());
+
+    //when
+    value.warmUp();
+    String result = value.get();
+
+    //then
+    assertThat(result, is("value-1"));
+    assertThat(loads.get(), is(1));
+  }
+
+  @Test
+  public void shouldIgnoreWarmUpFailure() {
+    //given
+    RefreshableValue<String> value = createValue(() -> {
+      if (loads.incrementAndGet() == 1) {
+        throw new IllegalStateException("warm-up failed");
+      }
+      return "value";
+    });
+
+    //when
+    value.warmUp();
+    String result = value.get();
+
+    //then
+    assertThat(result, is("value"));
+  }
+
+  private RefreshableValue<String> createValue(Supplier<String> loader) {
+    return new RefreshableValue<>("test", loader, REFRESH_INTERVAL, nanos::get, Runnable::run);
+  }
+
+  private void await(CountDownLatch latch) {
+    try {
+      latch.await(5, TimeUnit.SECONDS);
+    } catch (InterruptedException exp) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+}
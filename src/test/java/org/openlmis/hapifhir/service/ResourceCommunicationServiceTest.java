@@ -15,29 +15,60 @@
 
 package org.openlmis.hapifhir.service;
 
+import static org.hamcrest.Matchers.contains;
 import static org.hamcrest.Matchers.containsString;
 import static org.hamcrest.Matchers.hasItem;
+import static org.hamcrest.Matchers.hasKey;
+import static org.hamcrest.Matchers.hasSize;
+import static org.hamcrest.Matchers.instanceOf;
 import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.not;
+import static org.hamcrest.Matchers.notNullValue;
 import static org.hamcrest.Matchers.nullValue;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.hamcrest.Matchers.startsWith;
 import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+import static org.junit.Assume.assumeThat;
 import static org.mockito.Matchers.anyString;
 import static org.mockito.Matchers.eq;
 import static org.mockito.Mockito.when;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
+import io.github.resilience4j.bulkhead.Bulkhead;
+import io.github.resilience4j.bulkhead.BulkheadConfig;
+import io.github.resilience4j.circuitbreaker.CircuitBreaker;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import org.junit.After;
 import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.ExpectedException;
 import org.mockito.Mock;
+import org.openlmis.hapifhir.DtoGenerator;
 import org.openlmis.hapifhir.i18n.MessageKeys;
 import org.springframework.data.domain.Page;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.mock.env.MockEnvironment;
 import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.web.client.HttpServerErrorException;
 import org.springframework.web.client.RestOperations;
+import org.springframework.web.reactive.function.client.ClientRequest;
+import org.springframework.web.reactive.function.client.ClientResponse;
+import org.springframework.web.reactive.function.client.WebClient;
+import reactor.core.publisher.Mono;
 
 @SuppressWarnings("PMD.TooManyMethods")
 public abstract class ResourceCommunicationServiceTest<T extends BaseDto>
@@ -54,6 +85,9 @@ public abstract class ResourceCommunicationServiceTest<T extends BaseDto>
 
   private ResourceCommunicationService<T> service;
 
+  private CircuitBreaker circuitBreaker = CircuitBreaker.ofDefaults("test");
+  private Bulkhead bulkhead = Bulkhead.ofDefaults("test");
+
   @Before
   @Override
   public void setUp() {
@@ -63,12 +97,25 @@ public abstract class ResourceCommunicationServiceTest<T extends BaseDto>
 
     service = getService();
     ReflectionTestUtils.setField(service, "objectMapper", objectMapper);
+    ReflectionTestUtils.setField(service, "idsChunkSize", 2);
+    ReflectionTestUtils.setField(service, "bulkUpdateParallelism", 2);
+    ReflectionTestUtils.setField(service, "environment", new MockEnvironment());
+    service.init();
+  }
+
+  @After
+  @Override
+  public void tearDown() {
+    service.shutdown();
+    super.tearDown();
   }
 
   @Override
   protected void initService(RestOperations restClient, AuthService authService) {
     ReflectionTestUtils.setField(getService(), "restTemplate", restClient);
     ReflectionTestUtils.setField(getService(), "authService", authService);
+    ReflectionTestUtils.setField(getService(), "circuitBreaker", circuitBreaker);
+    ReflectionTestUtils.setField(getService(), "bulkhead", bulkhead);
   }
 
   @Override
@@ -221,6 +268,76 @@ public abstract class ResourceCommunicationServiceTest<T extends BaseDto>
     service.update(instance);
   }
 
+  @Test
+  public void shouldUpdateAllResources() {
+    // given
+    T instance = mockResponseEntityAndGetDto();
+
+    // when
+    BulkUpdateResult<T> result = service.updateAll(
+        Arrays.asList(generateInstance(), generateInstance(), generateInstance()));
+
+    // then
+    assertThat(result.hasFailures(), is(false));
+    assertThat(result.getUpdated(), hasSize(3));
+    assertThat(result.getUpdated(), hasItem(instance));
+    verifyRequestCount(3);
+  }
+
+  @Test
+  public void shouldCollectFailedUpdates() {
+    // given
+    mockRequestFail(HttpStatus.INTERNAL_SERVER_ERROR);
+    T instance = generateInstance();
+
+    // when
+    BulkUpdateResult<T> result = service.updateAll(Arrays.asList(instance, instance));
+
+    // then
+    assertThat(result.hasFailures(), is(true));
+    assertThat(result.getUpdated(), hasSize(0));
+    assertThat(result.getFailures().keySet(), contains(instance.getId()));
+    verifyRequestCount(2);
+
+    exception.expect(DataRetrievalException.class);
+    result.rethrowFailures();
+  }
+
+  @Test
+  public void shouldCancelRemainingUpdatesIfInterrupted() throws InterruptedException {
+    // given
+    CountDownLatch started = new CountDownLatch(1);
+    CountDownLatch release = new CountDownLatch(1);
+    mockBlockedRequest(started, release);
+    List<T> payloads = DtoGenerator.of(getResultClass(), 3);
+
+    Thread caller = Thread.currentThread();
+    Thread interrupter = new Thread(() -> {
+      try {
+        started.await();
+        caller.interrupt();
+      } catch (InterruptedException exp) {
+        Thread.currentThread().interrupt();
+      }
+    });
+    interrupter.start();
+
+    // when
+    BulkUpdateResult<T> result;
+
+    try {
+      result = service.updateAll(payloads);
+    } finally {
+      Thread.interrupted();
+      release.countDown();
+      interrupter.join();
+    }
+
+    // then
+    assertThat(result.getUpdated(), hasSize(0));
+    assertThat(result.getFailures().keySet(), hasSize(payloads.size()));
+  }
+
   @Test
   public void shouldFindResource() {
     // given
@@ -278,6 +395,39 @@ public abstract class ResourceCommunicationServiceTest<T extends BaseDto>
     service.findOne(UUID.randomUUID());
   }
 
+  @Test
+  public void shouldRetryRequestWithNewTokenIfTokenHasBeenRejected() {
+    // given
+    ResourceCommunicationService<T> service = getService();
+    T instance = generateInstance();
+    mockRejectedTokenAndResponseEntity(instance);
+
+    // when
+    T found = service.findOne(UUID.randomUUID());
+
+    // then
+    assertThat(found, is(instance));
+
+    verifyTokenInvalidated();
+    verifyRequestCount(2);
+  }
+
+  @Test
+  public void shouldThrowExceptionIfTokenHasBeenRejectedTwice() {
+    // given
+    Class<T> definition = getResultClass();
+    HttpStatus status = HttpStatus.UNAUTHORIZED;
+    String exceptionMessage = String
+        .format(EXCEPTION_METHOD_FORMAT, definition.getSimpleName(), status.value());
+
+    // when
+    exception.expect(DataRetrievalException.class);
+    exception.expectMessage(exceptionMessage);
+    mockRequestFail(status);
+
+    service.findOne(UUID.randomUUID());
+  }
+
   @Test
   public void shouldFindAllResources() {
     // when
@@ -310,6 +460,192 @@ public abstract class ResourceCommunicationServiceTest<T extends BaseDto>
     service.findAll();
   }
 
+  @Test
+  public void shouldReturnCachedResource() {
+    // given
+    enableCache();
+    T instance = mockResponseEntityAndGetDto();
+    UUID id = UUID.randomUUID();
+
+    // when
+    service.findOne(id);
+    T found = service.findOne(id);
+
+    // then
+    assertThat(found, is(instance));
+    verifyRequestCount(1);
+  }
+
+  @Test
+  public void shouldKeepCachedResourceUnchangedIfReturnedOneIsModified() {
+    // given
+    enableCache();
+    T instance = mockResponseEntityAndGetDto();
+    UUID id = instance.getId();
+
+    // when
+    // a caller sets properties and then fails validation, without writing the resource back
+    service.findOne(id).setId(UUID.randomUUID());
+    service.findByIds(Collections.singleton(id)).get(id).setId(UUID.randomUUID());
+    T found = service.findOne(id);
+
+    // then
+    assertThat(found, is(instance));
+    assertThat(found, is(not(sameInstance(service.findOne(id)))));
+    verifyRequestCount(1);
+  }
+
+  @Test
+  public void shouldKeepCachedExtraDataUnchangedIfReturnedOneIsModified() {
+    // given
+    enableCache();
+    T instance = mockResponseEntityAndGetDto();
+    if (!(instance instanceof ExtraDataContainer)) {
+      // this resource has no extra data, there is nothing to check
+      disableAuthCheck();
+    }
+
+    assumeThat(instance, is(instanceOf(ExtraDataContainer.class)));
+    UUID id = instance.getId();
+
+    // when
+    ((ExtraDataContainer) service.findOne(id)).addExtraDataEntry("findOne", true);
+    ((ExtraDataContainer) service.findByIds(Collections.singleton(id)).get(id))
+        .addExtraDataEntry("findByIds", true);
+    ExtraDataContainer found = (ExtraDataContainer) service.findOne(id);
+
+    // then
+    assertThat(found.getExtraData(), not(hasKey("findOne")));
+    assertThat(found.getExtraData(), not(hasKey("findByIds")));
+    verifyRequestCount(1);
+  }
+
+  @Test
+  public void shouldNotCacheMissingResource() {
+    // given
+    enableCache();
+    mockRequestFail(HttpStatus.NOT_FOUND);
+    UUID id = UUID.randomUUID();
+
+    // when
+    service.findOne(id);
+    service.findOne(id);
+
+    // then
+    verifyRequestCount(2);
+  }
+
+  @Test
+  public void shouldInvalidateCachedResourceOnUpdate() {
+    // given
+    enableCache();
+    T instance = mockResponseEntityAndGetDto();
+
+    // when
+    service.findOne(instance.getId());
+    service.update(instance);
+    service.findOne(instance.getId());
+
+    // then
+    verifyRequestCount(3);
+  }
+
+  @Test
+  public void shouldReturnCachedResourcesUntilResourceIsCreated() {
+    // given
+    enableCache();
+    final T dto = mockArrayResponseEntityAndGetDto();
+    T created = mockResponseEntityAndGetDto();
+
+    // when
+    service.findAll();
+    List<T> found = service.findAll();
+    service.create(created);
+    service.findAll();
+
+    // then
+    assertThat(found, hasItem(dto));
+    verifyArrayRequestCount(2);
+  }
+
+  @Test
+  public void shouldFindResourcesByIdsInChunks() throws IOException {
+    // given
+    UUID id = UUID.randomUUID();
+    mockStreamedPage(id);
+    List<UUID> ids = Arrays.asList(id, UUID.randomUUID(), UUID.randomUUID());
+
+    // when
+    Map<UUID, T> found = service.findByIds(ids);
+
+    // then
+    assertThat(found.keySet(), contains(id));
+    assertThat(found.get(id).getId(), is(id));
+
+    verifyStreamedRequest()
+        .isGetRequest()
+        .hasAuthHeader()
+        .hasQueryParameter("id", ids.get(2))
+        .hasQueryParameter("size", 1)
+        .isUriStartsWith(service.getServiceUrl() + service.getUrl());
+    assertThat(uriCaptor.getAllValues(), hasSize(2));
+  }
+
+  @Test
+  public void shouldNotRequestCachedResourcesByIds() {
+    // given
+    enableCache();
+    T instance = mockResponseEntityAndGetDto();
+    service.findOne(instance.getId());
+
+    // when
+    Map<UUID, T> found = service.findByIds(Collections.singleton(instance.getId()));
+
+    // then
+    assertThat(found.get(instance.getId()), is(instance));
+    verifyRequestCount(1);
+  }
+
+  @Test
+  public void shouldPrefetchResourcesIntoCache() {
+    // given
+    enableCache();
+    UUID id = UUID.randomUUID();
+    mockStreamedPage(id);
+
+    // when
+    service.prefetch(Collections.singleton(id));
+    T found = service.findOne(id);
+
+    // then
+    assertThat(found.getId(), is(id));
+    verifyRequestCount(0);
+  }
+
+  @Test
+  public void shouldStreamPageContent() {
+    // given
+    ReflectionTestUtils.setField(service, "objectMapper", new ObjectMapper());
+    UUID first = UUID.randomUUID();
+    UUID second = UUID.randomUUID();
+    mockStreamedResponse("{\"totalPages\":3,\"number\":1,"
+        + "\"content\":[{\"id\":\"" + first + "\"},{\"id\":\"" + second + "\"}],"
+        + "\"last\":false,\"size\":2}");
+    List<UUID> ids = new ArrayList<>();
+
+    // when
+    PageDto<T> page = service.getPage("", RequestParameters.init(),
+        resource -> ids.add(resource.getId()));
+
+    // then
+    assertThat(ids, contains(first, second));
+    assertThat(page.getTotalPages(), is(3));
+    assertThat(page.getNumber(), is(1));
+    assertThat(page.getSize(), is(2));
+    assertThat(page.isLast(), is(false));
+    assertThat(page.getContent(), hasSize(0));
+  }
+
   @Test
   public void shouldGetPage() {
     // given
@@ -381,4 +717,233 @@ public abstract class ResourceCommunicationServiceTest<T extends BaseDto>
     service.getPage("", RequestParameters.init(), "param=value");
   }
 
+  @Test
+  public void shouldRejectRequestIfCircuitBreakerIsOpen() {
+    // given
+    disableAuthCheck();
+    circuitBreaker.transitionToOpenState();
+
+    // when
+    try {
+      service.findOne(UUID.randomUUID());
+      fail("Request should have been rejected");
+    } catch (ServiceUnavailableException exp) {
+      // then
+      assertThat(exp.getStatusCode(), is(HttpStatus.SERVICE_UNAVAILABLE.value()));
+    }
+
+    verifyRequestCount(0);
+  }
+
+  @Test
+  public void shouldRejectRequestIfBulkheadIsFull() {
+    // given
+    disableAuthCheck();
+    Bulkhead bulkhead = Bulkhead.of("test", BulkheadConfig
+        .custom()
+        .maxConcurrentCalls(1)
+        .maxWaitTime(0)
+        .build());
+    ReflectionTestUtils.setField(service, "bulkhead", bulkhead);
+    assertThat(bulkhead.isCallPermitted(), is(true));
+
+    // when
+    exception.expect(ServiceUnavailableException.class);
+
+    service.findOne(UUID.randomUUID());
+  }
+
+  @Test
+  public void shouldRecordFailedRequestsInCircuitBreaker() {
+    // given
+    mockRequestFail(new HttpServerErrorException(HttpStatus.BAD_GATEWAY));
+
+    // when
+    try {
+      service.findOne(UUID.randomUUID());
+      fail("Request should have failed");
+    } catch (DataRetrievalException exp) {
+      // then
+      assertThat(circuitBreaker.getMetrics().getNumberOfFailedCalls(), is(1));
+      assertThat(bulkhead.getMetrics().getAvailableConcurrentCalls(),
+          is(bulkhead.getBulkheadConfig().getMaxConcurrentCalls()));
+    }
+  }
+
+  @Test
+  public void shouldNotRecordAuthFailuresInCircuitBreaker() {
+    // given
+    IllegalStateException failure = new IllegalStateException("test-exception");
+    mockAuthFail(failure);
+
+    // when
+    try {
+      service.findOne(UUID.randomUUID());
+      fail("Request should have failed");
+    } catch (IllegalStateException exp) {
+      // then
+      assertThat(exp, is(sameInstance(failure)));
+      assertThat(circuitBreaker.getMetrics().getNumberOfBufferedCalls(), is(0));
+    }
+
+    verifyRequestCount(0);
+  }
+
+  @Test
+  public void shouldNotRecordAuthFailuresOfAsyncRequestsInCircuitBreaker() {
+    // given
+    IllegalStateException failure = new IllegalStateException("test-exception");
+    mockAuthFail(failure);
+    List<ClientRequest> requests = mockAsyncResponses();
+
+    // when
+    try {
+      service.getPageAsync("", RequestParameters.init()).block();
+      fail("Request should have failed");
+    } catch (IllegalStateException exp) {
+      // then
+      assertThat(exp, is(sameInstance(failure)));
+      assertThat(circuitBreaker.getMetrics().getNumberOfBufferedCalls(), is(0));
+    }
+
+    assertThat(requests, hasSize(0));
+  }
+
+  @Test
+  public void shouldGetPageAsync() {
+    // given
+    UUID id = UUID.randomUUID();
+    List<ClientRequest> requests = mockAsyncResponses(jsonResponse(HttpStatus.OK,
+        "{\"content\":[" + toJson(id) + "],\"number\":0,\"size\":1,\"totalElements\":1}"));
+
+    // when
+    Page<T> page = service.getPageAsync("", RequestParameters.init().set("page", 0)).block();
+
+    // then
+    assertThat(page.getContent(), hasSize(1));
+    assertThat(page.getContent().get(0).getId(), is(id));
+    assertThat(requests, hasSize(1));
+    assertThat(requests.get(0).method(), is(HttpMethod.GET));
+    assertThat(requests.get(0).url().toString(),
+        startsWith(service.getServiceUrl() + service.getUrl()));
+    assertThat(requests.get(0).url().getQuery(), is("page=0"));
+    assertThat(requests.get(0).headers().getFirst(HttpHeaders.AUTHORIZATION),
+        startsWith("Bearer "));
+  }
+
+  @Test
+  public void shouldRetryAsyncRequestWithNewTokenIfTokenHasBeenRejected() {
+    // given
+    UUID id = UUID.randomUUID();
+    List<ClientRequest> requests = mockAsyncResponses(
+        jsonResponse(HttpStatus.UNAUTHORIZED, "{}"),
+        jsonResponse(HttpStatus.OK, "{\"content\":[" + toJson(id) + "]}"));
+
+    // when
+    Page<T> page = service.getPageAsync("", RequestParameters.init()).block();
+
+    // then
+    assertThat(page.getContent().get(0).getId(), is(id));
+    assertThat(requests, hasSize(2));
+    verifyTokenInvalidated();
+  }
+
+  @Test
+  public void shouldThrowExceptionIfThereIsProblemWithGettingPageAsync() {
+    // given
+    HttpStatus status = HttpStatus.BAD_REQUEST;
+    mockAsyncResponses(jsonResponse(status, "{}"));
+
+    // when
+    exception.expect(DataRetrievalException.class);
+    exception.expectMessage(String
+        .format(EXCEPTION_METHOD_FORMAT, getResultClass().getSimpleName(), status.value()));
+
+    service.getPageAsync("", RequestParameters.init()).block();
+  }
+
+  @Test
+  public void shouldRecordFailedAsyncRequestsInCircuitBreaker() {
+    // given
+    mockAsyncResponses(jsonResponse(HttpStatus.BAD_GATEWAY, "{}"));
+
+    // when
+    try {
+      service.getPageAsync("", RequestParameters.init()).block();
+      fail("Request should have failed");
+    } catch (DataRetrievalException exp) {
+      // then
+      assertThat(circuitBreaker.getMetrics().getNumberOfFailedCalls(), is(1));
+      assertThat(bulkhead.getMetrics().getAvailableConcurrentCalls(),
+          is(bulkhead.getBulkheadConfig().getMaxConcurrentCalls()));
+    }
+  }
+
+  @Test
+  public void shouldRejectAsyncRequestIfCircuitBreakerIsOpen() {
+    // given
+    disableAuthCheck();
+    List<ClientRequest> requests = mockAsyncResponses();
+    circuitBreaker.transitionToOpenState();
+
+    // when
+    try {
+      service.getPageAsync("", RequestParameters.init()).block();
+      fail("Request should have been rejected");
+    } catch (ServiceUnavailableException exp) {
+      // then
+      assertThat(exp.getStatusCode(), is(HttpStatus.SERVICE_UNAVAILABLE.value()));
+    }
+
+    assertThat(requests, hasSize(0));
+  }
+
+  private List<ClientRequest> mockAsyncResponses(ClientResponse... responses) {
+    List<ClientRequest> requests = new ArrayList<>();
+    Iterator<ClientResponse> iterator = Arrays.asList(responses).iterator();
+
+    WebClient webClient = WebClient.builder()
+        .exchangeFunction(request -> {
+          requests.add(request);
+          return Mono.just(iterator.next());
+        })
+        .build();
+
+    ReflectionTestUtils.setField(service, "webClient", webClient);
+    return requests;
+  }
+
+  private ClientResponse jsonResponse(HttpStatus status, String body) {
+    return ClientResponse.create(status)
+        .header(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_JSON_VALUE)
+        .body(body)
+        .build();
+  }
+
+  private String toJson(UUID id) {
+    return "{\"id\":\"" + id + "\"}";
+  }
+
+  private void mockStreamedPage(UUID id) {
+    ReflectionTestUtils.setField(service, "objectMapper", new ObjectMapper());
+    mockStreamedResponse("{\"content\":[{\"id\":\"" + id + "\"}],\"size\":1}");
+  }
+
+  private void enableCache() {
+    if (null == service.getCacheName()) {
+      // responses of this service are not cached, there is nothing to check
+      disableAuthCheck();
+    }
+
+    assumeThat(service.getCacheName(), is(notNullValue()));
+
+    MockEnvironment environment = new MockEnvironment()
+        .withProperty(service.getCacheName() + ".ttl", "60")
+        .withProperty(service.getCacheName() + ".maxSize", "10");
+
+    ReflectionTestUtils.setField(service, "environment", environment);
+    ReflectionTestUtils.setField(service, "meterRegistry", new SimpleMeterRegistry());
+    service.initCache();
+  }
+
 }
@@ -18,11 +18,16 @@ package org.openlmis.hapifhir.service.referencedata;
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.hamcrest.Matchers.containsString;
 import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyListOf;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
+import static org.springframework.transaction.support.TransactionSynchronization.STATUS_COMMITTED;
 
 import com.google.common.collect.Lists;
 import com.vividsolutions.jts.geom.GeometryFactory;
+import java.util.Collections;
+import java.util.List;
 import java.util.UUID;
 import org.hl7.fhir.r4.model.DecimalType;
 import org.hl7.fhir.r4.model.IdType;
@@ -34,6 +39,8 @@ import org.hl7.fhir.r4.model.StringType;
 import org.hl7.fhir.r4.model.codesystems.LocationPhysicalType;
 import org.junit.Before;
 import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Captor;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.Spy;
@@ -41,10 +48,13 @@ import org.openlmis.hapifhir.FacilityDtoDataBuilder;
 import org.openlmis.hapifhir.FacilityTypeDtoDataBuilder;
 import org.openlmis.hapifhir.GeographicZoneDtoDataBuilder;
 import org.openlmis.hapifhir.i18n.MessageKeys;
+import org.openlmis.hapifhir.service.BulkUpdateResult;
 import org.openlmis.hapifhir.service.OpenLmisResourceCreatorInterceptor;
 import org.openlmis.hapifhir.service.OpenLmisResourceCreatorInterceptorTest;
 import org.openlmis.hapifhir.service.ValidationMessageException;
 import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionSynchronizationUtils;
 
 public class FacilityCreatorInterceptorTest
     extends OpenLmisResourceCreatorInterceptorTest<FacilityDto> {
@@ -78,6 +88,9 @@ public class FacilityCreatorInterceptorTest
   @InjectMocks
   private FacilityCreatorInterceptor interceptor;
 
+  @Captor
+  private ArgumentCaptor<List<FacilityDto>> facilitiesCaptor;
+
   private FacilityTypeDto facilityType = new FacilityTypeDtoDataBuilder()
       .build();
 
@@ -95,7 +108,8 @@ public class FacilityCreatorInterceptorTest
 
     ReflectionTestUtils.setField(interceptor, "geometryFactory", geometryFactory);
     ReflectionTestUtils.setField(interceptor, "facilityTypeId", facilityType.getId());
-    ReflectionTestUtils.setField(interceptor, "facilityType", null);
+    ReflectionTestUtils.setField(interceptor, "facilityTypeRefreshInterval", 300L);
+    interceptor.init();
 
     when(facilityTypeReferenceDataService.findOne(facilityType.getId())).thenReturn(facilityType);
     when(geographicZoneReferenceDataService.findOne(GEO_ZONE_ID)).thenReturn(geographicZone);
@@ -179,6 +193,43 @@ public class FacilityCreatorInterceptorTest
     interceptor.buildResource(locationMock);
   }
 
+  @Test
+  public void shouldUpdateFacilitiesInBulkBeforeCommit() {
+    Location locationMock = getLocationMock();
+    prepareInterceptorForCreate(locationMock);
+    when(facilityReferenceDataService.updateAll(anyListOf(FacilityDto.class)))
+        .thenReturn(new BulkUpdateResult<>());
+    TransactionSynchronizationManager.initSynchronization();
+
+    try {
+      interceptor.resourceCreated(null, locationMock);
+      interceptor.resourceUpdated(null, null, locationMock);
+
+      verify(facilityReferenceDataService, never()).update(any(FacilityDto.class));
+
+      TransactionSynchronizationUtils.triggerBeforeCommit(false);
+    } finally {
+      TransactionSynchronizationUtils.triggerAfterCompletion(STATUS_COMMITTED);
+      TransactionSynchronizationManager.clearSynchronization();
+    }
+
+    verify(facilityReferenceDataService).updateAll(facilitiesCaptor.capture());
+    assertThat(facilitiesCaptor.getValue()).hasSize(1);
+    assertResourceAfterCreate(facilitiesCaptor.getValue().get(0));
+  }
+
+  @Test
+  public void shouldPrefetchFacilitiesAndGeographicZones() {
+    Location location = new Location();
+    location.setId(LOCATION_ID.toString());
+    location.setPartOf(PART_OF);
+
+    interceptor.prefetch(Collections.singletonList(location));
+
+    verify(facilityReferenceDataService).prefetch(Collections.singleton(LOCATION_ID));
+    verify(geographicZoneReferenceDataService).prefetch(Collections.singleton(GEO_ZONE_ID));
+  }
+
   @Override
   protected OpenLmisResourceCreatorInterceptor<FacilityDto> getInterceptor() {
     return interceptor;